@@ -0,0 +1,30 @@
+package com.example;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs every benchmark in this module and writes the results to
+ * {@code target/jmh-result.json}, so runs can be compared between releases.
+ *
+ * <pre>
+ * mvn -pl benchmarks -am install -DskipTests
+ * mvn -pl benchmarks exec:exec
+ * </pre>
+ *
+ * Any standard JMH command line options (e.g. a benchmark name regex) are passed through.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.resultFormat(ResultFormatType.JSON)
+				.result("target/jmh-result.json")
+				.build()).run();
+	}
+}
@@ -0,0 +1,78 @@
+package com.example;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import com.netflix.hystrix.HystrixCommandProperties;
+import com.netflix.hystrix.HystrixCommandProperties.ExecutionIsolationStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of wrapping a {@link BookmarkClient} call the way {@code ServicesRepo} does,
+ * compared with calling the client directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HystrixBenchmarks {
+
+	private static final String USER_ID = "Google";
+
+	private BookmarkClient bookmarkClient;
+
+	@Setup
+	public void setUp() {
+		this.bookmarkClient = new StubClients.StubBookmarkClient(StubClients.bookmarks(USER_ID, 3));
+	}
+
+	@Benchmark
+	public Collection<Bookmark> direct() {
+		return this.bookmarkClient.getBookmarks(USER_ID);
+	}
+
+	@Benchmark
+	public Collection<Bookmark> threadIsolated() {
+		return new GetBookmarksCommand(ExecutionIsolationStrategy.THREAD).execute();
+	}
+
+	@Benchmark
+	public Collection<Bookmark> semaphoreIsolated() {
+		return new GetBookmarksCommand(ExecutionIsolationStrategy.SEMAPHORE).execute();
+	}
+
+	private class GetBookmarksCommand extends HystrixCommand<Collection<Bookmark>> {
+
+		GetBookmarksCommand(ExecutionIsolationStrategy isolation) {
+			super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey("ServicesRepo"))
+					.andCommandKey(HystrixCommandKey.Factory.asKey("getBookmarks-" + isolation))
+					.andCommandPropertiesDefaults(HystrixCommandProperties.Setter()
+							.withExecutionIsolationStrategy(isolation)));
+		}
+
+		@Override
+		protected Collection<Bookmark> run() {
+			return bookmarkClient.getBookmarks(USER_ID);
+		}
+
+		@Override
+		protected Collection<Bookmark> getFallback() {
+			return Arrays.asList();
+		}
+	}
+}
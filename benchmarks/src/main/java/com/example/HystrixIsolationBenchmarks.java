@@ -0,0 +1,219 @@
+package com.example;
+
+import com.netflix.config.ConfigurationManager;
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.HystrixCommandGroupKey;
+import com.netflix.hystrix.HystrixCommandKey;
+import feign.Response;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The passport fan-out under load, with the Hystrix settings from before and after
+ * {@code ConfigInfo} set them per service. {@code old} is Hystrix's defaults: thread
+ * isolation and a pool of 10 for the backends' repository commands and for
+ * {@code ServicesRepo}. {@code new} runs the backend commands behind a semaphore of
+ * 500 and gives {@code ServicesRepo} 100 threads and a queue of 500.
+ *
+ * The backends are {@link HystrixCommand}s around a {@code latencyMillis} sleep,
+ * standing in for the repository call, called from the stub clients. A rejection
+ * anywhere ends in a {@code ServicesRepo} fallback, which for an uncached user is an
+ * empty list; {@code served} and {@code degraded} count full and degraded passports
+ * per second, and sample mode gives the percentiles of both together.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class HystrixIsolationBenchmarks {
+
+	private static final String USER_ID = "Google";
+
+	@Param({"old", "new"})
+	private String settings;
+
+	@Param("5")
+	private long latencyMillis;
+
+	private AnnotationConfigApplicationContext context;
+
+	private ServicesRepo servicesRepo;
+
+	@Setup
+	public void setUp() {
+		// each set of parameters runs in a fresh fork, before any command has read these
+		settings(this.settings).forEach(ConfigurationManager.getConfigInstance()::setProperty);
+		this.context = new AnnotationConfigApplicationContext();
+		// nothing is cached, so every fallback answers with an empty list
+		this.context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+				Collections.singletonMap("passport.cache.max-size", "0")));
+		this.context.getBeanFactory().registerSingleton("bookmarkClient",
+				new BackendBookmarkClient(this.latencyMillis));
+		this.context.getBeanFactory().registerSingleton("contactClient",
+				new BackendContactClient(this.latencyMillis));
+		this.context.register(PassportFanOutBenchmarks.PassportPath.class);
+		this.context.refresh();
+		this.servicesRepo = this.context.getBean(ServicesRepo.class);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public Passport passport(Outcomes outcomes) throws InterruptedException {
+		try {
+			Future<Collection<Contact>> contacts = this.servicesRepo.revalidateContactsAsync(USER_ID);
+			Future<Collection<Bookmark>> bookmarks = this.servicesRepo.revalidateBookmarksAsync(USER_ID);
+			Passport passport = new Passport(USER_ID, contacts.get(), bookmarks.get());
+			if (passport.getContacts().isEmpty() || passport.getBookmarks().isEmpty()) {
+				outcomes.degraded++;
+			}
+			else {
+				outcomes.served++;
+			}
+			return passport;
+		}
+		catch (RuntimeException | ExecutionException ex) {
+			// the fallback was rejected too; javanica throws what rejected it, often on queueing
+			outcomes.degraded++;
+			return null;
+		}
+	}
+
+	/**
+	 * The properties {@code ConfigInfo} sets, scoped to the backend commands where the
+	 * services set defaults, since here they share one JVM with passport-service.
+	 */
+	static Map<String, Object> settings(String settings) {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		if ("new".equals(settings)) {
+			for (String backend : new String[] {"bookmarks", "contacts"}) {
+				String prefix = "hystrix.command." + backend + ".";
+				properties.put(prefix + "execution.isolation.strategy", "SEMAPHORE");
+				properties.put(prefix + "execution.isolation.semaphore.maxConcurrentRequests", 500);
+				properties.put(prefix + "fallback.isolation.semaphore.maxConcurrentRequests", 500);
+			}
+			properties.put("hystrix.threadpool.ServicesRepo.coreSize", 100);
+			properties.put("hystrix.threadpool.ServicesRepo.maxQueueSize", 500);
+			properties.put("hystrix.threadpool.ServicesRepo.queueSizeRejectionThreshold", 500);
+		}
+		return properties;
+	}
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Outcomes {
+
+		public long served;
+
+		public long degraded;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.served = 0;
+			this.degraded = 0;
+		}
+	}
+
+	/**
+	 * A backend's repository command: a 503, as the services answer from their
+	 * fallbacks, when it cannot run.
+	 */
+	private static class BackendCommand extends HystrixCommand<Response> {
+
+		private final long latencyMillis;
+
+		private final Supplier<Response> call;
+
+		BackendCommand(String group, String key, long latencyMillis, Supplier<Response> call) {
+			super(Setter.withGroupKey(HystrixCommandGroupKey.Factory.asKey(group))
+					.andCommandKey(HystrixCommandKey.Factory.asKey(key)));
+			this.latencyMillis = latencyMillis;
+			this.call = call;
+		}
+
+		@Override
+		protected Response run() throws InterruptedException {
+			TimeUnit.MILLISECONDS.sleep(this.latencyMillis);
+			return this.call.get();
+		}
+
+		@Override
+		protected Response getFallback() {
+			return Response.create(503, "Service Unavailable", Collections.emptyMap(), (byte[]) null);
+		}
+	}
+
+	private static class BackendBookmarkClient extends StubClients.StubBookmarkClient {
+
+		private final long latencyMillis;
+
+		BackendBookmarkClient(long latencyMillis) {
+			super(StubClients.bookmarks(USER_ID, 10));
+			this.latencyMillis = latencyMillis;
+		}
+
+		@Override
+		public Response getBookmarksResponse(String userId) {
+			return new BackendCommand("BookmarkRestController", "bookmarks", this.latencyMillis,
+					() -> super.getBookmarksResponse(userId)).execute();
+		}
+
+		@Override
+		public Response getBookmarksIfNoneMatch(String userId, String eTag) {
+			return new BackendCommand("BookmarkRestController", "bookmarks", this.latencyMillis,
+					() -> super.getBookmarksIfNoneMatch(userId, eTag)).execute();
+		}
+	}
+
+	private static class BackendContactClient extends StubClients.StubContactClient {
+
+		private final long latencyMillis;
+
+		BackendContactClient(long latencyMillis) {
+			super(StubClients.contacts(USER_ID, 10));
+			this.latencyMillis = latencyMillis;
+		}
+
+		@Override
+		public Response getContactsResponse(String userId) {
+			return new BackendCommand("ContactRestController", "contacts", this.latencyMillis,
+					() -> super.getContactsResponse(userId)).execute();
+		}
+
+		@Override
+		public Response getContactsIfNoneMatch(String userId, String eTag) {
+			return new BackendCommand("ContactRestController", "contacts", this.latencyMillis,
+					() -> super.getContactsIfNoneMatch(userId, eTag)).execute();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookmark description mask substitution: bookmark-service's
+ * {@link DescriptionTemplate}, compiled in from its source, against the two
+ * {@code replaceFirst} calls it replaced, which compiled both patterns on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskBenchmarks {
+
+	private String mask = "_L_@_U_";
+
+	private String userId = "Google";
+
+	private String href = "http://Google-link.com";
+
+	private DescriptionTemplate template = DescriptionTemplate.compile(this.mask);
+
+	private DescriptionTemplate hostTemplate = DescriptionTemplate.compile("_U_ bookmark on _H_: _L_");
+
+	@Benchmark
+	public String replaceFirst() {
+		return this.mask.replaceFirst("_L_", this.href)
+				.replaceFirst("_U_", this.userId);
+	}
+
+	@Benchmark
+	public String template() {
+		return this.template.render(this.userId, this.href);
+	}
+
+	@Benchmark
+	public String templateWithHost() {
+		return this.hostTemplate.render(this.userId, this.href);
+	}
+}
@@ -0,0 +1,70 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passport assembly from the (stubbed) Feign clients and its Jackson serialization.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PassportBenchmarks {
+
+	private static final String USER_ID = "Google";
+
+	@Param({"3", "100", "10000"})
+	private int size;
+
+	private BookmarkClient bookmarkClient;
+
+	private ContactClient contactClient;
+
+	private Passport passport;
+
+	private ObjectMapper objectMapper;
+
+	@Setup
+	public void setUp() {
+		this.bookmarkClient = new StubClients.StubBookmarkClient(StubClients.bookmarks(USER_ID, this.size));
+		this.contactClient = new StubClients.StubContactClient(StubClients.contacts(USER_ID, this.size));
+		this.passport = assemblePassport();
+		this.objectMapper = new ObjectMapper();
+	}
+
+	@Benchmark
+	public Passport assemblePassport() {
+		return new Passport(USER_ID, this.contactClient.getContacts(USER_ID), this.bookmarkClient.getBookmarks(USER_ID));
+	}
+
+	@Benchmark
+	public byte[] serializeBookmarks() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.passport.getBookmarks());
+	}
+
+	@Benchmark
+	public byte[] serializeContacts() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.passport.getContacts());
+	}
+
+	@Benchmark
+	public byte[] serializePassport() throws JsonProcessingException {
+		return this.objectMapper.writeValueAsBytes(this.passport);
+	}
+}
@@ -0,0 +1,213 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.hystrix.contrib.javanica.aop.aspectj.HystrixCommandAspect;
+import feign.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.cloud.client.discovery.noop.NoopDiscoveryClient;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.EnableAspectJAutoProxy;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The passport path as {@code PassportRestController} runs it: Hystrix commands from
+ * {@code ServicesRepo}, through the javanica aspect, against stub clients that answer
+ * after {@code latencyMillis}. A negative cache TTL leaves every
+ * entry stale as soon as it is stored, ETag and all, so every passport costs both
+ * round trips, answered with 304s. {@code serial} is the contacts-then-bookmarks
+ * sequence the controller used to run, {@code concurrent} the controller itself.
+ *
+ * Sample mode reports p50 and p99 for each; the concurrent path should take about
+ * one round trip where the serial one takes two.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PassportFanOutBenchmarks {
+
+	private static final String USER_ID = "Google";
+
+	@Param({"2", "10"})
+	private long latencyMillis;
+
+	private AnnotationConfigApplicationContext context;
+
+	private ServicesRepo servicesRepo;
+
+	private PassportRestController controller;
+
+	@Setup
+	public void setUp() {
+		this.context = new AnnotationConfigApplicationContext();
+		this.context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark",
+				Collections.singletonMap("passport.cache.ttl-seconds", "-1")));
+		this.context.getBeanFactory().registerSingleton("bookmarkClient",
+				new SlowBookmarkClient(this.latencyMillis));
+		this.context.getBeanFactory().registerSingleton("contactClient",
+				new SlowContactClient(this.latencyMillis));
+		this.context.register(PassportPath.class);
+		this.context.refresh();
+		this.servicesRepo = this.context.getBean(ServicesRepo.class);
+		this.controller = this.context.getBean(PassportRestController.class);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.context.close();
+	}
+
+	@Benchmark
+	public Passport serial() {
+		return new Passport(USER_ID, this.servicesRepo.getContacts(USER_ID), this.servicesRepo.getBookmarks(USER_ID));
+	}
+
+	@Benchmark
+	public Passport concurrent() throws Exception {
+		return this.controller.passport(USER_ID);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Configuration
+	@EnableAspectJAutoProxy
+	static class PassportPath {
+
+		@Bean
+		static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+			return new PropertySourcesPlaceholderConfigurer();
+		}
+
+		@Bean
+		HystrixCommandAspect hystrixCommandAspect() {
+			return new HystrixCommandAspect();
+		}
+
+		@Bean
+		Jackson2ObjectMapperBuilder jacksonBuilder() {
+			return Jackson2ObjectMapperBuilder.json();
+		}
+
+		@Bean
+		ObjectMapper objectMapper(Jackson2ObjectMapperBuilder jacksonBuilder) {
+			return jacksonBuilder.build();
+		}
+
+		@Bean
+		Instrumentation instrumentation() {
+			return new Instrumentation(60);
+		}
+
+		@Bean
+		HedgedRequests hedgedRequests() {
+			return new HedgedRequests();
+		}
+
+		@Bean
+		ServicesRepo servicesRepo() {
+			return new ServicesRepo();
+		}
+
+		@Bean
+		PassportRestController passportRestController() {
+			return new PassportRestController();
+		}
+
+		@Bean
+		RestTemplate restTemplate() {
+			return new RestTemplate();
+		}
+
+		@Bean
+		DiscoveryClient discoveryClient() {
+			return new NoopDiscoveryClient(null);
+		}
+	}
+
+	private static class SlowBookmarkClient extends StubClients.StubBookmarkClient {
+
+		private final long latencyMillis;
+
+		SlowBookmarkClient(long latencyMillis) {
+			super(StubClients.bookmarks(USER_ID, 10));
+			this.latencyMillis = latencyMillis;
+		}
+
+		@Override
+		public Response getBookmarksResponse(String userId) {
+			sleep(this.latencyMillis);
+			return super.getBookmarksResponse(userId);
+		}
+
+		@Override
+		public Response getBookmarksIfNoneMatch(String userId, String eTag) {
+			sleep(this.latencyMillis);
+			return super.getBookmarksIfNoneMatch(userId, eTag);
+		}
+
+		@Override
+		public ResponseEntity<Collection<Bookmark>> getBookmarksByUserIds(Collection<String> userIds) {
+			sleep(this.latencyMillis);
+			return super.getBookmarksByUserIds(userIds);
+		}
+	}
+
+	private static class SlowContactClient extends StubClients.StubContactClient {
+
+		private final long latencyMillis;
+
+		SlowContactClient(long latencyMillis) {
+			super(StubClients.contacts(USER_ID, 10));
+			this.latencyMillis = latencyMillis;
+		}
+
+		@Override
+		public Response getContactsResponse(String userId) {
+			sleep(this.latencyMillis);
+			return super.getContactsResponse(userId);
+		}
+
+		@Override
+		public Response getContactsIfNoneMatch(String userId, String eTag) {
+			sleep(this.latencyMillis);
+			return super.getContactsIfNoneMatch(userId, eTag);
+		}
+
+		@Override
+		public ResponseEntity<Collection<Contact>> getContactsByUserIds(Collection<String> userIds) {
+			sleep(this.latencyMillis);
+			return super.getContactsByUserIds(userIds);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.appinfo.DataCenterInfo;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.appinfo.LeaseInfo;
+import com.netflix.appinfo.MyDataCenterInfo;
+import com.netflix.discovery.converters.wrappers.CodecWrappers;
+import com.netflix.discovery.shared.Application;
+import com.netflix.discovery.shared.Applications;
+import com.netflix.loadbalancer.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Time until passport-service has a routable bookmark-service instance after a
+ * restart, once the bytes are local: decoding a full Eureka registry of synthetic
+ * instances, against loading the {@link RegistrySnapshot} file. The size of both
+ * documents, plain and gzipped, is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmarks {
+
+	private static final String BOOKMARK_SERVICE = "BOOKMARK-SERVICE";
+
+	private static final int APPLICATIONS = 10;
+
+	@Param({"100", "300", "1000"})
+	private int instances;
+
+	private final CodecWrappers.JacksonJson codec = new CodecWrappers.JacksonJson();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private String fullRegistry;
+
+	private File snapshotFile;
+
+	@Setup
+	public void setUp() throws IOException {
+		Applications applications = new Applications();
+		for (int i = 0; i < this.instances; i++) {
+			String appName = i % APPLICATIONS == 0 ? BOOKMARK_SERVICE : "SERVICE-" + (i % APPLICATIONS);
+			Application application = applications.getRegisteredApplications(appName);
+			if (application == null) {
+				application = new Application(appName);
+				applications.addApplication(application);
+			}
+			application.addInstance(instance(appName, i));
+		}
+		applications.setAppsHashCode(applications.getReconcileHashCode());
+		this.fullRegistry = this.codec.encode(applications);
+
+		Map<String, List<String>> apps = new TreeMap<>();
+		for (Application application : applications.getRegisteredApplications()) {
+			List<String> hostPorts = new ArrayList<>();
+			for (InstanceInfo instance : application.getInstances()) {
+				hostPorts.add(instance.getHostName() + ":" + instance.getPort());
+			}
+			apps.put(application.getName(), hostPorts);
+		}
+		RegistrySnapshot.Snapshot saved = new RegistrySnapshot.Snapshot();
+		saved.version = applications.getAppsHashCode();
+		saved.apps = apps;
+		this.snapshotFile = File.createTempFile("registry", ".json");
+		this.objectMapper.writeValue(this.snapshotFile, saved);
+
+		byte[] full = this.fullRegistry.getBytes(StandardCharsets.UTF_8);
+		byte[] snapshot = this.objectMapper.writeValueAsBytes(saved);
+		System.out.println(String.format("%n%d instances: full registry=%d bytes (%d gzipped), snapshot=%d bytes (%d gzipped)",
+				this.instances, full.length, gzip(full), snapshot.length, gzip(snapshot)));
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.snapshotFile.delete();
+	}
+
+	@Benchmark
+	public List<Server> fullRegistry() throws IOException {
+		Applications applications = this.codec.decode(this.fullRegistry, Applications.class);
+		List<Server> servers = new ArrayList<>();
+		for (InstanceInfo instance : applications.getRegisteredApplications(BOOKMARK_SERVICE).getInstances()) {
+			servers.add(new Server(instance.getHostName(), instance.getPort()));
+		}
+		return servers;
+	}
+
+	@Benchmark
+	public List<Server> snapshot() {
+		RegistrySnapshot registrySnapshot = new RegistrySnapshot();
+		set(registrySnapshot, "objectMapper", this.objectMapper);
+		set(registrySnapshot, "file", this.snapshotFile);
+		registrySnapshot.load();
+		return registrySnapshot.servers(BOOKMARK_SERVICE);
+	}
+
+	private static InstanceInfo instance(String appName, int i) {
+		String host = "10.0." + (i / 250) + "." + (i % 250 + 1);
+		return InstanceInfo.Builder.newBuilder()
+				.setAppName(appName)
+				.setInstanceId(host + ":" + appName.toLowerCase() + ":8080")
+				.setHostName(host)
+				.setIPAddr(host)
+				.setPort(8080)
+				.setVIPAddress(appName.toLowerCase())
+				.setSecureVIPAddress(appName.toLowerCase())
+				.setStatus(InstanceInfo.InstanceStatus.UP)
+				.setDataCenterInfo(new MyDataCenterInfo(DataCenterInfo.Name.MyOwn))
+				.setLeaseInfo(LeaseInfo.Builder.newBuilder().build())
+				.setHomePageUrl("/", null)
+				.setStatusPageUrl("/info", null)
+				.setHealthCheckUrls("/health", null, null)
+				.build();
+	}
+
+	private static void set(Object target, String name, Object value) {
+		Field field = ReflectionUtils.findField(target.getClass(), name);
+		ReflectionUtils.makeAccessible(field);
+		ReflectionUtils.setField(field, target, value);
+	}
+
+	private static int gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(bytes);
+		}
+		return out.size();
+	}
+}
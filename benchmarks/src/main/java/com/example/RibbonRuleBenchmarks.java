@@ -0,0 +1,76 @@
+package com.example;
+
+import com.netflix.loadbalancer.AvailabilityFilteringRule;
+import com.netflix.loadbalancer.BaseLoadBalancer;
+import com.netflix.loadbalancer.IRule;
+import com.netflix.loadbalancer.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Request latency through a Ribbon rule over four stub bookmark-service instances,
+ * one of which answers 20x slower than the others. Sampled, so the JMH report
+ * shows the p99/p99.9 each rule leaves the caller with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RibbonRuleBenchmarks {
+
+	private static final long FAST_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+
+	private static final long SLOW_NANOS = FAST_NANOS * 20;
+
+	@Param({"availabilityFiltering", "latencyAware"})
+	private String rule;
+
+	private InstanceLatencies latencies;
+
+	private IRule ribbonRule;
+
+	private Server slow;
+
+	@Setup
+	public void setUp() {
+		this.latencies = new InstanceLatencies();
+		List<Server> servers = new ArrayList<>();
+		for (int port = 8001; port <= 8004; port++) {
+			servers.add(new Server("localhost", port));
+		}
+		this.slow = servers.get(0);
+		this.ribbonRule = "latencyAware".equals(this.rule)
+				? new LatencyAwareRule(this.latencies) : new AvailabilityFilteringRule();
+		BaseLoadBalancer loadBalancer = new BaseLoadBalancer();
+		loadBalancer.setRule(this.ribbonRule);
+		loadBalancer.addServers(servers);
+	}
+
+	@Benchmark
+	public Server request() {
+		Server server = this.ribbonRule.choose(null);
+		InstanceLatencies.Instance instance = this.latencies.instance(server.getHost(), server.getPort());
+		long start = instance.start();
+		LockSupport.parkNanos(server == this.slow ? SLOW_NANOS : FAST_NANOS);
+		instance.end(start, false);
+		return server;
+	}
+}
@@ -0,0 +1,214 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * In-process stand-ins for the Feign clients, answering from fixed collections.
+ * The raw {@link Response}s are serialized once up front: NDJSON for the streams,
+ * and for conditional GETs a JSON 200 with an ETag, or a bodiless 304 when the
+ * {@code If-None-Match} sent matches it. Batch answers carry that ETag for every
+ * user in {@code X-User-Versions}, as the services send it.
+ */
+class StubClients {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	static List<Bookmark> bookmarks(String userId, int count) {
+		List<Bookmark> bookmarks = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Bookmark bookmark = new Bookmark();
+			bookmark.setId((long) i);
+			bookmark.setUserId(userId);
+			bookmark.setHref(String.format("http://%s-link.com/%d", userId, i));
+			bookmark.setDescription(String.format("http://%s-link.com/%d@%s", userId, i, userId));
+			bookmarks.add(bookmark);
+		}
+		return bookmarks;
+	}
+
+	static List<Contact> contacts(String userId, int count) {
+		List<Contact> contacts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			Contact contact = new Contact();
+			contact.setId((long) i);
+			contact.setUserId(userId);
+			contact.setFirstName("Dave" + i);
+			contact.setLastName("Syer" + i);
+			contact.setEmail("dave" + i + "@email.com");
+			contacts.add(contact);
+		}
+		return contacts;
+	}
+
+	static byte[] json(List<?> values) {
+		try {
+			return MAPPER.writeValueAsBytes(values);
+		}
+		catch (JsonProcessingException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	static byte[] ndjson(List<?> values) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			for (Object value : values) {
+				out.write(MAPPER.writeValueAsBytes(value));
+				out.write('\n');
+			}
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * The same value every time for the same collection, like the services' versions.
+	 */
+	static String eTag(List<?> values) {
+		return "\"" + Integer.toString(values.size(), 36) + "-" + Integer.toHexString(values.hashCode()) + "\"";
+	}
+
+	/**
+	 * The {@code X-User-Versions} of a batch answer: the ETag, unquoted, once per user.
+	 */
+	static String userVersions(Collection<String> userIds, String eTag) {
+		return String.join(",", Collections.nCopies(userIds.size(), eTag.substring(1, eTag.length() - 1)));
+	}
+
+	static Response ok(String contentType, byte[] body, String eTag) {
+		Map<String, Collection<String>> headers = new LinkedHashMap<>();
+		headers.put(HttpHeaders.CONTENT_TYPE, Collections.singletonList(contentType));
+		if (eTag != null) {
+			headers.put(HttpHeaders.ETAG, Collections.singletonList(eTag));
+		}
+		return Response.create(200, "OK", headers, body);
+	}
+
+	static Response ifNoneMatch(String ifNoneMatch, byte[] json, String eTag) {
+		if (eTag.equals(ifNoneMatch)) {
+			Map<String, Collection<String>> headers = new LinkedHashMap<>();
+			headers.put(HttpHeaders.ETAG, Collections.singletonList(eTag));
+			return Response.create(304, "Not Modified", headers, (byte[]) null);
+		}
+		return ok("application/json", json, eTag);
+	}
+
+	static class StubBookmarkClient implements BookmarkClient {
+
+		private final List<Bookmark> bookmarks;
+
+		private final byte[] json;
+
+		private final byte[] ndjson;
+
+		private final String eTag;
+
+		StubBookmarkClient(List<Bookmark> bookmarks) {
+			this.bookmarks = bookmarks;
+			this.json = json(bookmarks);
+			this.ndjson = ndjson(bookmarks);
+			this.eTag = eTag(bookmarks);
+		}
+
+		@Override
+		public Collection<Bookmark> getBookmarks(String userId) {
+			return this.bookmarks;
+		}
+
+		@Override
+		public ResponseEntity<Collection<Bookmark>> getBookmarksByUserIds(Collection<String> userIds) {
+			return ResponseEntity.ok().header("X-User-Versions", userVersions(userIds, this.eTag))
+					.body(this.bookmarks.stream()
+							.filter(bookmark -> userIds.contains(bookmark.getUserId()))
+							.collect(Collectors.toList()));
+		}
+
+		@Override
+		public Response streamBookmarks(String userId) {
+			return ok("application/x-ndjson", this.ndjson, null);
+		}
+
+		@Override
+		public Response getBookmarksResponse(String userId) {
+			return ok("application/json", this.json, this.eTag);
+		}
+
+		@Override
+		public Response getBookmarksIfNoneMatch(String userId, String eTag) {
+			return ifNoneMatch(eTag, this.json, this.eTag);
+		}
+
+		@Override
+		public List<Bookmark> getBookmarksPage(String userId, int size) {
+			return this.bookmarks.subList(0, Math.min(size, this.bookmarks.size()));
+		}
+	}
+
+	static class StubContactClient implements ContactClient {
+
+		private final List<Contact> contacts;
+
+		private final byte[] json;
+
+		private final byte[] ndjson;
+
+		private final String eTag;
+
+		StubContactClient(List<Contact> contacts) {
+			this.contacts = contacts;
+			this.json = json(contacts);
+			this.ndjson = ndjson(contacts);
+			this.eTag = eTag(contacts);
+		}
+
+		@Override
+		public Collection<Contact> getContacts(String userId) {
+			return this.contacts;
+		}
+
+		@Override
+		public ResponseEntity<Collection<Contact>> getContactsByUserIds(Collection<String> userIds) {
+			return ResponseEntity.ok().header("X-User-Versions", userVersions(userIds, this.eTag))
+					.body(this.contacts.stream()
+							.filter(contact -> userIds.contains(contact.getUserId()))
+							.collect(Collectors.toList()));
+		}
+
+		@Override
+		public Response streamContacts(String userId) {
+			return ok("application/x-ndjson", this.ndjson, null);
+		}
+
+		@Override
+		public Response getContactsResponse(String userId) {
+			return ok("application/json", this.json, this.eTag);
+		}
+
+		@Override
+		public Response getContactsIfNoneMatch(String userId, String eTag) {
+			return ifNoneMatch(eTag, this.json, this.eTag);
+		}
+
+		@Override
+		public List<Contact> getContactsPage(String userId, int size) {
+			return this.contacts.subList(0, Math.min(size, this.contacts.size()));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against Smile for one passport: µs to encode and decode, with the encoded
+ * sizes printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmarks {
+
+	private static final String USER_ID = "Google";
+
+	@Param({"3", "100", "10000"})
+	private int size;
+
+	private ObjectMapper json;
+
+	private ObjectMapper smile;
+
+	private Passport passport;
+
+	private byte[] jsonBytes;
+
+	private byte[] smileBytes;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.json = Jackson2ObjectMapperBuilder.json().build();
+		this.smile = new SmileHttpMessageConverter(Jackson2ObjectMapperBuilder.json()).getObjectMapper();
+		this.passport = new Passport(USER_ID, StubClients.contacts(USER_ID, this.size),
+				StubClients.bookmarks(USER_ID, this.size));
+		this.jsonBytes = this.json.writeValueAsBytes(this.passport);
+		this.smileBytes = this.smile.writeValueAsBytes(this.passport);
+		System.out.println(String.format("%n%d entries: json=%d bytes, smile=%d bytes",
+				this.size, this.jsonBytes.length, this.smileBytes.length));
+	}
+
+	@Benchmark
+	public byte[] encodeJson() throws IOException {
+		return this.json.writeValueAsBytes(this.passport);
+	}
+
+	@Benchmark
+	public byte[] encodeSmile() throws IOException {
+		return this.smile.writeValueAsBytes(this.passport);
+	}
+
+	@Benchmark
+	public Passport decodeJson() throws IOException {
+		return this.json.readValue(this.jsonBytes, Passport.class);
+	}
+
+	@Benchmark
+	public Passport decodeSmile() throws IOException {
+		return this.smile.readValue(this.smileBytes, Passport.class);
+	}
+}
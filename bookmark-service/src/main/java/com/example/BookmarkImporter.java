@@ -0,0 +1,48 @@
+package com.example;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports bookmarks: a CSV header names {@code userId}, {@code href} and optionally
+ * {@code description}, in any order. Rows without a description get the masked one.
+ * Parsing, chunking and the JDBC batches are {@link RowImporter}'s.
+ */
+@Component
+class BookmarkImporter extends RowImporter<Bookmark> {
+
+	@Autowired
+	private BookmarkDescriptions bookmarkDescriptions;
+
+	BookmarkImporter(@Value("${bookmark.import.chunk-size:20000}") int chunkSize) {
+		super(Bookmark.class, "bookmark", "bookmarks", chunkSize, "user_id", "href", "description");
+	}
+
+	@Override
+	String validate(Bookmark bookmark) {
+		if (isEmpty(bookmark.getUserId())) {
+			return "userId is missing";
+		}
+		if (isEmpty(bookmark.getHref())) {
+			return "href is missing";
+		}
+		if (isEmpty(bookmark.getDescription())) {
+			bookmark.setDescription(this.bookmarkDescriptions.describe(bookmark.getUserId(), bookmark.getHref()));
+		}
+		if (tooLong(bookmark.getUserId()) || tooLong(bookmark.getHref()) || tooLong(bookmark.getDescription())) {
+			return "fields are limited to " + MAX_LENGTH + " characters";
+		}
+		return null;
+	}
+
+	@Override
+	String userId(Bookmark bookmark) {
+		return bookmark.getUserId();
+	}
+
+	@Override
+	Object[] values(Bookmark bookmark) {
+		return new Object[] {bookmark.getUserId(), bookmark.getHref(), bookmark.getDescription()};
+	}
+}
@@ -1,6 +1,9 @@
 package com.example;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
@@ -12,21 +15,63 @@ import org.springframework.cloud.client.circuitbreaker.EnableCircuitBreaker;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
 import org.springframework.cloud.netflix.eureka.EnableEurekaClient;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityManager;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.QueryHint;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.awt.print.Book;
 import java.lang.reflect.Array;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @SpringCloudApplication
 public class BookmarkServiceApplication {
@@ -35,24 +80,89 @@ public class BookmarkServiceApplication {
 		SpringApplication.run(BookmarkServiceApplication.class, args);
 	}
 
-	private String descriptionForBookmark(String mask, String userId, String href) {
-		return mask.replaceFirst("_L_", href)
-				.replaceFirst("_U_", userId);
+	/**
+	 * Offers Smile to clients that ask for it; appended so JSON stays the default.
+	 */
+	@Bean
+	WebMvcConfigurerAdapter smileMessageConverter(Jackson2ObjectMapperBuilder jacksonBuilder) {
+		return new WebMvcConfigurerAdapter() {
+			@Override
+			public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+				converters.add(new SmileHttpMessageConverter(jacksonBuilder));
+			}
+		};
+	}
+
+	/**
+	 * Per-user versions of the bookmark table, the index they are computed on, and the
+	 * change events carrying them; shared with the other services through service-support.
+	 */
+	@Bean
+	UserVersions userVersions() {
+		return new UserVersions("bookmark");
 	}
 
 	@Bean
-	CommandLineRunner init(@Value("${bookmark.mask}") String bookmarkMask, BookmarkRepository bookmarkRepository) {
-		return args ->
-				Arrays.asList("Google,Amazon,Yahoo,Myntra,Flipkart".split(",")).forEach(userId -> {
-					String href = String.format("http://%s-link.com", userId);
-					String descriptionForBookmark = this.descriptionForBookmark(bookmarkMask, userId, href);
-					System.out.println("descriptionForBookmark : "+ descriptionForBookmark);
-					bookmarkRepository.save(new Bookmark(href, userId, descriptionForBookmark));
-				});
+	UserIdIndex userIdIndex() {
+		return new UserIdIndex("bookmark");
+	}
+
+	@Bean
+	UserChangePublisher userChangePublisher() {
+		return new UserChangePublisher();
+	}
+
+	/**
+	 * Seeds the sample bookmarks into an empty database; the H2 file keeps them across restarts.
+	 */
+	@Bean
+	CommandLineRunner init(BookmarkDescriptions bookmarkDescriptions, BookmarkRepository bookmarkRepository) {
+		return args -> {
+			if (bookmarkRepository.count() > 0) {
+				return;
+			}
+			Arrays.asList("Google,Amazon,Yahoo,Myntra,Flipkart".split(",")).forEach(userId -> {
+				String href = String.format("http://%s-link.com", userId);
+				String descriptionForBookmark = bookmarkDescriptions.describe(userId, href);
+				System.out.println("descriptionForBookmark : "+ descriptionForBookmark);
+				bookmarkRepository.save(new Bookmark(href, userId, descriptionForBookmark));
+			});
+		};
 	}
 }
 
 
+/**
+ * Holds the compiled {@code bookmark.mask}. A config refresh that changes the mask
+ * compiles a new template and swaps it in with a single volatile write.
+ */
+@Component
+class BookmarkDescriptions implements ApplicationListener<EnvironmentChangeEvent> {
+
+	private static final String MASK = "bookmark.mask";
+
+	private final Environment environment;
+
+	private volatile DescriptionTemplate template;
+
+	@Autowired
+	BookmarkDescriptions(Environment environment) {
+		this.environment = environment;
+		this.template = DescriptionTemplate.compile(environment.getRequiredProperty(MASK));
+	}
+
+	String describe(String userId, String href) {
+		return this.template.render(userId, href);
+	}
+
+	@Override
+	public void onApplicationEvent(EnvironmentChangeEvent event) {
+		if (event.getKeys().contains(MASK)) {
+			this.template = DescriptionTemplate.compile(this.environment.getRequiredProperty(MASK));
+		}
+	}
+}
+
 @RefreshScope
 @RestController
 class MessageRestController {
@@ -68,7 +178,29 @@ class MessageRestController {
 }
 
 interface BookmarkRepository extends JpaRepository<Bookmark, Long> {
+
+	/**
+	 * With the {@code second-level-cache} profile, the ids found per userId are cached
+	 * in the {@code bookmark-by-user} region and the entities in {@code bookmark}, so a
+	 * repeated lookup touches neither the database nor the hydration code. Any write to
+	 * the table through Hibernate invalidates the cached results.
+	 */
+	@QueryHints({
+			@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+			@QueryHint(name = "org.hibernate.cacheRegion", value = "bookmark-by-user")})
 	Collection<Bookmark> findByUserId(String userId);
+
+	Collection<Bookmark> findByUserIdIn(Collection<String> userIds);
+
+	/**
+	 * Keyset page: the next {@code pageable.getPageSize()} rows after {@code afterId},
+	 * served from the {@code (userId, id)} index without an offset scan.
+	 */
+	Slice<Bookmark> findByUserIdAndIdGreaterThanOrderByIdAsc(String userId, Long afterId, Pageable pageable);
+
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "100"))
+	@Query("select b from Bookmark b where b.userId = ?1")
+	Stream<Bookmark> streamByUserId(String userId);
 }
 
 @RestController
@@ -80,6 +212,27 @@ class BookmarkRestController {
 	@Autowired
 	DiscoveryClient client;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserVersions userVersions;
+
+	@Autowired
+	private BookmarkImporter bookmarkImporter;
+
+	@Autowired
+	private Instrumentation instrumentation;
+
+	@Value("${bookmark.page.max-size:1000}")
+	private int maxPageSize;
+
+	@Autowired
+	private BookmarkSnapshot bookmarkSnapshot;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
 	private String helloFallback(){
 		return "Service Failure!!!";
 	}
@@ -91,28 +244,146 @@ class BookmarkRestController {
 		return "Hello World: "+ localInstance.getServiceId()+":"+localInstance.getHost()+":"+localInstance.getPort();
 	}
 
-	private Collection<Bookmark> bookmarksFallback(String userId){
-		System.out.println("bookmarksFallback");
-		return Arrays.asList();
+	// a 503, not an empty list that callers would cache as the user's bookmarks
+	private ResponseEntity<Collection<Bookmark>> bookmarksFallback(String userId, String ifNoneMatch, Throwable cause){
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("bookmarks", cause)).build();
 	}
 
+	/**
+	 * Answers {@code If-None-Match} with 304 when the user's version is unchanged.
+	 * The ETag is read before the query, so a concurrent change can only make the
+	 * tag older than the body, never newer. Users whose version the snapshot was built
+	 * at are served from it rather than from JPA.
+	 */
 	@HystrixCommand(fallbackMethod = "bookmarksFallback")
 	@RequestMapping("/{userId}/bookmarks")
-	Collection<Bookmark> bookmarks(@PathVariable String userId)
-	{
+	ResponseEntity<Collection<Bookmark>> bookmarks(@PathVariable String userId,
+			@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+		String version = this.userVersions.version(userId);
+		String eTag = UserVersions.eTagOf(version);
+		if (eTag.equals(ifNoneMatch)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		}
+		Collection<Bookmark> bookmarks = this.bookmarkSnapshot.bookmarks(userId, version);
+		if (bookmarks == null) {
+			bookmarks = this.bookmarkRepository.findByUserId(userId);
+		}
+		return ResponseEntity.ok().eTag(eTag).body(bookmarks);
+	}
+
+	private ResponseEntity<List<Bookmark>> bookmarksPageFallback(String userId, long after, int size, Throwable cause) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("bookmarksPage", cause)).build();
+	}
+
+	/**
+	 * Returns up to {@code size} bookmarks with ids above {@code after}. When more remain,
+	 * the id to pass as the next {@code after} is sent in the {@code X-Next-Cursor} header.
+	 * A {@code size} outside 1 to {@code bookmark.page.max-size} is answered with 400.
+	 */
+	@HystrixCommand(fallbackMethod = "bookmarksPageFallback")
+	@RequestMapping(value = "/{userId}/bookmarks", method = RequestMethod.GET, params = "size")
+	ResponseEntity<List<Bookmark>> bookmarksPage(@PathVariable String userId,
+			@RequestParam(value = "after", defaultValue = "0") long after,
+			@RequestParam("size") int size) {
+		if (size < 1 || size > this.maxPageSize) {
+			return ResponseEntity.badRequest().build();
+		}
+		Slice<Bookmark> page = this.bookmarkRepository.findByUserIdAndIdGreaterThanOrderByIdAsc(
+				userId, after, new PageRequest(0, size));
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+		if (page.hasNext()) {
+			List<Bookmark> content = page.getContent();
+			response.header("X-Next-Cursor", String.valueOf(content.get(content.size() - 1).getId()));
+		}
+		return response.body(page.getContent());
+	}
 
-		return this.bookmarkRepository.findByUserId(userId);
+	@RequestMapping(value = "/bookmarks/import", method = RequestMethod.POST, consumes = "text/csv")
+	long importBookmarksCsv(HttpServletRequest request) throws IOException {
+		return this.bookmarkImporter.importCsv(request.getReader());
+	}
+
+	@RequestMapping(value = "/bookmarks/import", method = RequestMethod.POST, consumes = "application/x-ndjson")
+	long importBookmarksNdjson(HttpServletRequest request) throws IOException {
+		return this.bookmarkImporter.importNdjson(request.getReader());
+	}
+
+	/**
+	 * Answers a failed import with 400, saying which line failed and how many rows
+	 * were committed before it.
+	 */
+	@ExceptionHandler(ImportException.class)
+	ResponseEntity<Map<String, Object>> importFailed(ImportException ex) {
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("line", ex.getLine());
+		body.put("committed", ex.getCommitted());
+		body.put("message", ex.getMessage());
+		return ResponseEntity.badRequest().body(body);
+	}
+
+	/**
+	 * Writes one bookmark per line as it is read, detaching each entity once
+	 * written so memory stays flat however many bookmarks the user has.
+	 */
+	@Transactional(readOnly = true)
+	@RequestMapping(value = "/{userId}/bookmarks", method = RequestMethod.GET, produces = "application/x-ndjson")
+	public void streamBookmarks(@PathVariable String userId, HttpServletResponse response) throws IOException {
+		response.setContentType("application/x-ndjson");
+		OutputStream out = response.getOutputStream();
+		try (Stream<Bookmark> bookmarks = this.bookmarkRepository.streamByUserId(userId)) {
+			Iterator<Bookmark> iterator = bookmarks.iterator();
+			while (iterator.hasNext()) {
+				Bookmark bookmark = iterator.next();
+				out.write(this.objectMapper.writeValueAsBytes(bookmark));
+				out.write('\n');
+				this.entityManager.detach(bookmark);
+			}
+		}
+		out.flush();
+	}
+
+	private ResponseEntity<Collection<Bookmark>> bookmarksForUsersFallback(List<String> userIds, Throwable cause){
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("bookmarksForUsers", cause)).build();
+	}
+
+	/**
+	 * The bookmarks of all the given users. {@code X-User-Versions} lists each user's
+	 * version, in request order, so callers can cache every user's part under the
+	 * ETag {@code /{userId}/bookmarks} would send. The versions are read before the query.
+	 * The header grows with the list, so callers send at most a few hundred users at
+	 * a time; passport-service sends 100.
+	 */
+	@HystrixCommand(fallbackMethod = "bookmarksForUsersFallback")
+	@RequestMapping(value = "/bookmarks", method = RequestMethod.POST)
+	ResponseEntity<Collection<Bookmark>> bookmarksForUsers(@RequestBody List<String> userIds)
+	{
+		List<String> versions = this.userVersions.versions(userIds);
+		return ResponseEntity.ok()
+				.header("X-User-Versions", String.join(",", versions))
+				.body(this.bookmarkRepository.findByUserIdIn(userIds));
 	}
 }
 
 @Entity
+@Table(indexes = @Index(name = "idx_bookmark_user_id_id_version", columnList = "userId,id,version"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "bookmark")
 class Bookmark {
 
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bookmark_seq")
+	@SequenceGenerator(name = "bookmark_seq", sequenceName = "bookmark_seq", allocationSize = 500)
 	private Long id;
 	private String href, userId, description;
 
+	// not serialized; feeds the user's version in UserVersions
+	@Version
+	@Column(columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+	private long version;
+
 	Bookmark() {
 	}
 
@@ -136,6 +407,13 @@ class Bookmark {
 				'}';
 	}
 
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	void changed() {
+		UserChangePublisher.changed("bookmarks", this.userId);
+	}
+
 	public Long getId() {
 		return id;
 	}
@@ -0,0 +1,680 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-mostly serving mode for {@code /{userId}/bookmarks}, enabled with
+ * {@code bookmark.snapshot.enabled}.
+ *
+ * Every {@code bookmark.snapshot.refresh-seconds} all bookmarks are written, in one
+ * pass over the table, to a columnar file that is then memory-mapped. Each user's
+ * rows are contiguous and found through an open-addressing table on the userId.
+ * Every {@code href}, {@code description} and userId is stored once in a string
+ * dictionary, and the columns hold dictionary codes. Lists are written from the
+ * mapping straight into the JSON or Smile response, so serving a user creates no
+ * entities and keeps nothing on the heap.
+ *
+ * A user is served from the snapshot only while their {@link UserVersions} version,
+ * which the caller reads from the database, is the one seen when the build started,
+ * and only while the snapshot is younger than {@code bookmark.snapshot.max-age-seconds}.
+ * Otherwise the request goes to JPA.
+ *
+ * Snapshots are reference counted: every list handed out holds its snapshot until it
+ * has been written, so a replaced snapshot is unmapped and its file deleted as soon
+ * as the last request using it is done, rather than whenever the buffer is collected.
+ * The dictionary is on the heap only while a snapshot is being built, and a snapshot
+ * is limited to 2 GB.
+ */
+@Component
+class BookmarkSnapshot implements PublicMetrics {
+
+	private static final Log logger = LogFactory.getLog(BookmarkSnapshot.class);
+
+	private static final String SELECT = "SELECT id, user_id, href, description FROM bookmark ORDER BY user_id, id";
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private UserVersions userVersions;
+
+	@Value("${bookmark.snapshot.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bookmark.snapshot.refresh-seconds:60}")
+	private long refreshSeconds;
+
+	@Value("${bookmark.snapshot.max-age-seconds:300}")
+	private long maxAgeSeconds;
+
+	@Value("${bookmark.data-dir:./data}")
+	private File directory;
+
+	private final AtomicLong served = new AtomicLong();
+
+	private final AtomicLong stale = new AtomicLong();
+
+	private final AtomicLong builds = new AtomicLong();
+
+	private volatile Snapshot current;
+
+	private volatile long lastBuildMillis;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private ScheduledExecutorService builder;
+
+	@PostConstruct
+	void start() {
+		if (!this.enabled) {
+			return;
+		}
+		this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+		this.jdbcTemplate.setFetchSize(1000);
+		this.directory.mkdirs();
+		File[] leftovers = this.directory.listFiles((dir, name) -> name.startsWith("bookmark-snapshot-"));
+		if (leftovers != null) {
+			Arrays.stream(leftovers).forEach(File::delete);
+		}
+		this.builder = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "bookmark-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.builder.scheduleWithFixedDelay(this::rebuild, 0, this.refreshSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		if (this.builder != null) {
+			this.builder.shutdownNow();
+		}
+		Snapshot snapshot = this.current;
+		this.current = null;
+		if (snapshot != null) {
+			snapshot.release();
+		}
+	}
+
+	/**
+	 * The user's bookmarks from the snapshot, or {@code null} if it is stale for them,
+	 * given the user's current version. A {@link SnapshotBookmarks} keeps the snapshot
+	 * mapped until it is serialized or {@link SnapshotBookmarks#release() released}.
+	 */
+	Collection<Bookmark> bookmarks(String userId, String version) {
+		Snapshot snapshot = this.current;
+		if (snapshot == null || !snapshot.retain()) {
+			return null;
+		}
+		if (System.currentTimeMillis() - snapshot.builtAt > TimeUnit.SECONDS.toMillis(this.maxAgeSeconds)
+				|| !version.equals(snapshot.versions.getOrDefault(userId, UserVersions.NONE))) {
+			snapshot.release();
+			this.stale.incrementAndGet();
+			return null;
+		}
+		this.served.incrementAndGet();
+		int user = snapshot.user(userId);
+		if (user < 0) {
+			snapshot.release();
+			return Collections.emptyList();
+		}
+		return new SnapshotBookmarks(snapshot, user);
+	}
+
+	void rebuild() {
+		try {
+			long started = System.nanoTime();
+			Snapshot previous = this.current;
+			this.current = build();
+			this.lastBuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+			this.builds.incrementAndGet();
+			if (previous != null) {
+				// unmapped once the requests still writing from it are done
+				previous.release();
+			}
+		}
+		catch (IOException | RuntimeException ex) {
+			logger.warn("Unable to build bookmark snapshot", ex);
+		}
+	}
+
+	private Snapshot build() throws IOException {
+		long builtAt = System.currentTimeMillis();
+		// taken before the scan, so a change committing during it leaves its user stale
+		Map<String, String> versions = this.userVersions.versions();
+		File file = new File(this.directory, "bookmark-snapshot-" + builtAt + ".bin");
+		try (SnapshotWriter writer = new SnapshotWriter(file)) {
+			this.jdbcTemplate.query(SELECT, (RowCallbackHandler) row -> {
+				try {
+					writer.add(row.getLong(1), row.getString(2), row.getString(3), row.getString(4));
+				}
+				catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			});
+			writer.finish(builtAt);
+		}
+		return Snapshot.map(file, versions);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>(Arrays.<Metric<?>>asList(
+				new Metric<>("bookmark.snapshot.served", this.served.get()),
+				new Metric<>("bookmark.snapshot.stale", this.stale.get()),
+				new Metric<>("bookmark.snapshot.builds", this.builds.get()),
+				new Metric<>("bookmark.snapshot.build-millis", this.lastBuildMillis)));
+		Snapshot snapshot = this.current;
+		if (snapshot != null) {
+			metrics.add(new Metric<>("bookmark.snapshot.rows", snapshot.rows));
+			metrics.add(new Metric<>("bookmark.snapshot.users", snapshot.users));
+			metrics.add(new Metric<>("bookmark.snapshot.strings", snapshot.strings));
+			metrics.add(new Metric<>("bookmark.snapshot.bytes", snapshot.buffer.capacity()));
+			metrics.add(new Metric<>("bookmark.snapshot.age-seconds",
+					TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - snapshot.builtAt)));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Unmaps the buffer now rather than when it is garbage collected, through
+	 * {@code Unsafe.invokeCleaner} on Java 9 and later and the buffer's cleaner on
+	 * Java 8. Without access to either, the mapping is left to the collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+				return;
+			}
+			catch (NoSuchMethodException ex) {
+				// Java 8
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		}
+		catch (ReflectiveOperationException | RuntimeException ex) {
+			logger.debug("Unable to unmap bookmark snapshot, leaving it to the garbage collector", ex);
+		}
+	}
+
+	private static int hash(byte[] bytes) {
+		int hash = 0;
+		for (byte b : bytes) {
+			hash = 31 * hash + b;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * A mapped snapshot file. Layout, big-endian: a header of magic, build time, row,
+	 * user, string and table counts, then the id, href and description columns, the
+	 * users as (userId code, first row, row count), the userId hash table of user
+	 * index + 1, the string offsets, and the UTF-8 string bytes.
+	 */
+	private static class Snapshot {
+
+		static final int MAGIC = 0x424d4b31;
+
+		static final int HEADER_BYTES = 28;
+
+		final File file;
+		final MappedByteBuffer buffer;
+		final Map<String, String> versions;
+		final long builtAt;
+		final int rows;
+		final int users;
+		final int strings;
+		final int tableSize;
+		final int ids;
+		final int hrefs;
+		final int descriptions;
+		final int userEntries;
+		final int table;
+		final int offsets;
+		final int blob;
+
+		// one held by BookmarkSnapshot while current, one per list handed out
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private Snapshot(File file, MappedByteBuffer buffer, Map<String, String> versions) throws IOException {
+			if (buffer.getInt(0) != MAGIC) {
+				throw new IOException("Not a bookmark snapshot: " + file);
+			}
+			this.file = file;
+			this.buffer = buffer;
+			this.versions = versions;
+			this.builtAt = buffer.getLong(4);
+			this.rows = buffer.getInt(12);
+			this.users = buffer.getInt(16);
+			this.strings = buffer.getInt(20);
+			this.tableSize = buffer.getInt(24);
+			this.ids = HEADER_BYTES;
+			this.hrefs = this.ids + this.rows * 8;
+			this.descriptions = this.hrefs + this.rows * 4;
+			this.userEntries = this.descriptions + this.rows * 4;
+			this.table = this.userEntries + this.users * 12;
+			this.offsets = this.table + this.tableSize * 4;
+			this.blob = this.offsets + (this.strings + 1) * 4;
+		}
+
+		static Snapshot map(File file, Map<String, String> versions) throws IOException {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				if (channel.size() > Integer.MAX_VALUE) {
+					throw new IOException("Bookmark snapshot over 2 GB: " + file);
+				}
+				// the mapping outlives the channel
+				return new Snapshot(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), versions);
+			}
+		}
+
+		/**
+		 * Takes a reference, unless the snapshot has already been unmapped.
+		 */
+		boolean retain() {
+			for (;;) {
+				int references = this.references.get();
+				if (references == 0) {
+					return false;
+				}
+				if (this.references.compareAndSet(references, references + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Drops a reference, unmapping the buffer and deleting the file with the last one.
+		 * Nothing may read the buffer afterwards: an unmapped buffer crashes the JVM.
+		 */
+		void release() {
+			if (this.references.decrementAndGet() == 0) {
+				unmap(this.buffer);
+				this.file.delete();
+			}
+		}
+
+		/**
+		 * The user's index, or -1 if they have no bookmarks.
+		 */
+		int user(String userId) {
+			byte[] key = userId.getBytes(StandardCharsets.UTF_8);
+			int mask = this.tableSize - 1;
+			for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+				int entry = this.buffer.getInt(this.table + slot * 4);
+				if (entry == 0) {
+					return -1;
+				}
+				if (stringEquals(userIdCode(entry - 1), key)) {
+					return entry - 1;
+				}
+			}
+		}
+
+		int userIdCode(int user) {
+			return this.buffer.getInt(this.userEntries + user * 12);
+		}
+
+		int firstRow(int user) {
+			return this.buffer.getInt(this.userEntries + user * 12 + 4);
+		}
+
+		int rowCount(int user) {
+			return this.buffer.getInt(this.userEntries + user * 12 + 8);
+		}
+
+		long id(int row) {
+			return this.buffer.getLong(this.ids + row * 8);
+		}
+
+		int href(int row) {
+			return this.buffer.getInt(this.hrefs + row * 4);
+		}
+
+		int description(int row) {
+			return this.buffer.getInt(this.descriptions + row * 4);
+		}
+
+		int stringLength(int code) {
+			return this.buffer.getInt(this.offsets + (code + 1) * 4) - this.buffer.getInt(this.offsets + code * 4);
+		}
+
+		/**
+		 * Copies the string's UTF-8 bytes, without moving the shared buffer's position.
+		 */
+		void copyString(int code, byte[] into) {
+			int start = this.blob + this.buffer.getInt(this.offsets + code * 4);
+			int length = stringLength(code);
+			for (int i = 0; i < length; i++) {
+				into[i] = this.buffer.get(start + i);
+			}
+		}
+
+		String string(int code) {
+			if (code < 0) {
+				return null;
+			}
+			byte[] bytes = new byte[stringLength(code)];
+			copyString(code, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private boolean stringEquals(int code, byte[] key) {
+			if (stringLength(code) != key.length) {
+				return false;
+			}
+			int start = this.blob + this.buffer.getInt(this.offsets + code * 4);
+			for (int i = 0; i < key.length; i++) {
+				if (this.buffer.get(start + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Writes a snapshot in one pass over rows ordered by userId. The sections are
+	 * spooled to temporary files and joined behind the header once the counts are known.
+	 */
+	private static class SnapshotWriter implements Closeable {
+
+		private final File file;
+		private final File[] sections;
+		private final DataOutputStream ids;
+		private final DataOutputStream hrefs;
+		private final DataOutputStream descriptions;
+		private final DataOutputStream userEntries;
+		private final DataOutputStream offsets;
+		private final DataOutputStream blob;
+
+		private final Map<String, Integer> codes = new HashMap<>();
+		private int[] userHashes = new int[1024];
+		private int rows;
+		private int users;
+		private int strings;
+		private int blobBytes;
+		private String currentUser;
+		private int currentUserFirstRow;
+
+		SnapshotWriter(File file) throws IOException {
+			this.file = file;
+			this.sections = new File[6];
+			for (int i = 0; i < this.sections.length; i++) {
+				this.sections[i] = new File(file.getPath() + "." + i + ".tmp");
+			}
+			this.ids = open(this.sections[0]);
+			this.hrefs = open(this.sections[1]);
+			this.descriptions = open(this.sections[2]);
+			this.userEntries = open(this.sections[3]);
+			this.offsets = open(this.sections[4]);
+			this.blob = open(this.sections[5]);
+		}
+
+		private static DataOutputStream open(File file) throws IOException {
+			return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+
+		void add(long id, String userId, String href, String description) throws IOException {
+			if (userId == null) {
+				return;
+			}
+			if (!userId.equals(this.currentUser)) {
+				endUser();
+				this.currentUser = userId;
+				this.currentUserFirstRow = this.rows;
+			}
+			this.ids.writeLong(id);
+			this.hrefs.writeInt(code(href));
+			this.descriptions.writeInt(code(description));
+			this.rows++;
+		}
+
+		private void endUser() throws IOException {
+			if (this.currentUser == null) {
+				return;
+			}
+			this.userEntries.writeInt(code(this.currentUser));
+			this.userEntries.writeInt(this.currentUserFirstRow);
+			this.userEntries.writeInt(this.rows - this.currentUserFirstRow);
+			if (this.users == this.userHashes.length) {
+				this.userHashes = Arrays.copyOf(this.userHashes, this.users * 2);
+			}
+			this.userHashes[this.users++] = hash(this.currentUser.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private int code(String value) throws IOException {
+			if (value == null) {
+				return -1;
+			}
+			Integer code = this.codes.get(value);
+			if (code == null) {
+				byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				this.offsets.writeInt(this.blobBytes);
+				this.blob.write(bytes);
+				this.blobBytes += bytes.length;
+				code = this.strings++;
+				this.codes.put(value, code);
+			}
+			return code;
+		}
+
+		void finish(long builtAt) throws IOException {
+			endUser();
+			this.offsets.writeInt(this.blobBytes);
+			for (DataOutputStream section : Arrays.asList(this.ids, this.hrefs, this.descriptions,
+					this.userEntries, this.offsets, this.blob)) {
+				section.close();
+			}
+			// at least twice the users, so probes stay short
+			int tableSize = Integer.highestOneBit(Math.max(this.users, 1)) << 2;
+			int[] table = new int[tableSize];
+			for (int user = 0; user < this.users; user++) {
+				int slot = this.userHashes[user] & (tableSize - 1);
+				while (table[slot] != 0) {
+					slot = (slot + 1) & (tableSize - 1);
+				}
+				table[slot] = user + 1;
+			}
+			try (DataOutputStream out = open(this.file)) {
+				out.writeInt(Snapshot.MAGIC);
+				out.writeLong(builtAt);
+				out.writeInt(this.rows);
+				out.writeInt(this.users);
+				out.writeInt(this.strings);
+				out.writeInt(tableSize);
+				for (int i = 0; i < 4; i++) {
+					Files.copy(this.sections[i].toPath(), out);
+				}
+				for (int entry : table) {
+					out.writeInt(entry);
+				}
+				Files.copy(this.sections[4].toPath(), out);
+				Files.copy(this.sections[5].toPath(), out);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			for (DataOutputStream section : Arrays.asList(this.ids, this.hrefs, this.descriptions,
+					this.userEntries, this.offsets, this.blob)) {
+				section.close();
+			}
+			for (File section : this.sections) {
+				section.delete();
+			}
+		}
+	}
+
+	/**
+	 * One user's bookmarks in a snapshot, holding a reference to it. Jackson writes them
+	 * with {@link SnapshotBookmarksSerializer}, which releases the reference once done;
+	 * iterating creates detached {@link Bookmark}s. A released list can not be read again.
+	 */
+	@JsonSerialize(using = SnapshotBookmarksSerializer.class)
+	static class SnapshotBookmarks extends AbstractCollection<Bookmark> {
+
+		private final Snapshot snapshot;
+		private final int user;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		SnapshotBookmarks(Snapshot snapshot, int user) {
+			this.snapshot = snapshot;
+			this.user = user;
+		}
+
+		void release() {
+			if (this.released.compareAndSet(false, true)) {
+				this.snapshot.release();
+			}
+		}
+
+		private Snapshot snapshot() {
+			if (this.released.get()) {
+				throw new IllegalStateException("Bookmark snapshot list already released");
+			}
+			return this.snapshot;
+		}
+
+		@Override
+		public int size() {
+			return snapshot().rowCount(this.user);
+		}
+
+		@Override
+		public Iterator<Bookmark> iterator() {
+			return new Iterator<Bookmark>() {
+
+				private int next;
+
+				@Override
+				public boolean hasNext() {
+					return this.next < size();
+				}
+
+				@Override
+				public Bookmark next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Snapshot snapshot = snapshot();
+					int row = snapshot.firstRow(user) + this.next++;
+					Bookmark bookmark = new Bookmark(snapshot.string(snapshot.href(row)),
+							snapshot.string(snapshot.userIdCode(user)), snapshot.string(snapshot.description(row)));
+					bookmark.setId(snapshot.id(row));
+					return bookmark;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Writes the fields {@link Bookmark} has in JSON, copying each string's UTF-8 bytes
+	 * from the mapping into a per-thread buffer that is reused.
+	 */
+	static class SnapshotBookmarksSerializer extends JsonSerializer<SnapshotBookmarks> {
+
+		private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[256]);
+
+		@Override
+		public void serialize(SnapshotBookmarks bookmarks, JsonGenerator generator, SerializerProvider provider)
+				throws IOException {
+			try {
+				Snapshot snapshot = bookmarks.snapshot();
+				generator.writeStartArray();
+				int first = snapshot.firstRow(bookmarks.user);
+				int userIdCode = snapshot.userIdCode(bookmarks.user);
+				for (int row = first; row < first + snapshot.rowCount(bookmarks.user); row++) {
+					generator.writeStartObject();
+					generator.writeNumberField("id", snapshot.id(row));
+					writeString(generator, "href", snapshot, snapshot.href(row));
+					writeString(generator, "userId", snapshot, userIdCode);
+					writeString(generator, "description", snapshot, snapshot.description(row));
+					generator.writeEndObject();
+				}
+				generator.writeEndArray();
+			}
+			finally {
+				bookmarks.release();
+			}
+		}
+
+		private static void writeString(JsonGenerator generator, String field, Snapshot snapshot, int code)
+				throws IOException {
+			generator.writeFieldName(field);
+			if (code < 0) {
+				generator.writeNull();
+				return;
+			}
+			if (generator.getOutputTarget() instanceof Writer) {
+				// character-based generators cannot take UTF-8 bytes
+				generator.writeString(snapshot.string(code));
+				return;
+			}
+			int length = snapshot.stringLength(code);
+			byte[] scratch = SCRATCH.get();
+			if (scratch.length < length) {
+				scratch = new byte[Integer.highestOneBit(length) << 1];
+				SCRATCH.set(scratch);
+			}
+			snapshot.copyString(code, scratch);
+			generator.writeUTF8String(scratch, 0, length);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.cloud.context.environment.EnvironmentChangeEvent;
+import org.springframework.cloud.context.refresh.ContextRefresher;
+import org.springframework.cloud.context.scope.refresh.RefreshScope;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.support.BasicAuthorizationInterceptor;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Base64Utils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Refreshes configuration from the changes configuration-service reports since the
+ * version this instance last loaded, instead of re-pulling the whole environment
+ * and rebuilding every {@code @RefreshScope} bean.
+ *
+ * Changed values go into a property source ahead of the config server's, an
+ * {@link EnvironmentChangeEvent} is published for them, and only refresh-scoped
+ * beans bound to a changed key through {@code @Value} or
+ * {@code @ConfigurationProperties} are rebuilt. Each is recreated here straight
+ * away, so a request arriving after the refresh does not pay for building it, and
+ * one already in flight keeps the instance it started with. Removed keys and
+ * responses the server marks {@code full} fall back to a regular full refresh.
+ */
+@Component
+class DeltaConfigRefresher {
+
+	private static final Log logger = LogFactory.getLog(DeltaConfigRefresher.class);
+
+	private static final String DELTA_SOURCE = "configDelta";
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^:}]+)");
+
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	@Autowired
+	private ConfigurableEnvironment environment;
+
+	@Autowired
+	private RefreshScope refreshScope;
+
+	@Autowired
+	private ContextRefresher contextRefresher;
+
+	@Value("${spring.cloud.config.uri:http://localhost:8888}")
+	private String configUri;
+
+	@Value("${spring.application.name}")
+	private String application;
+
+	@Value("${spring.cloud.config.label:}")
+	private String label;
+
+	@Value("${spring.cloud.config.username:user}")
+	private String username;
+
+	@Value("${spring.cloud.config.password:}")
+	private String password;
+
+	@Value("${config.delta.poll-seconds:0}")
+	private long pollSeconds;
+
+	private final RestTemplate restTemplate = new RestTemplate();
+
+	private final Map<String, Object> overrides = new ConcurrentHashMap<>();
+
+	private volatile String version;
+
+	private ScheduledExecutorService poller;
+
+	@PostConstruct
+	void start() {
+		this.version = this.environment.getProperty("config.client.version");
+		this.environment.getPropertySources().addFirst(new MapPropertySource(DELTA_SOURCE, this.overrides));
+		if (StringUtils.hasText(this.password)) {
+			// the credentials the config client uses; configuration-service asks for them on /delta
+			this.restTemplate.getInterceptors().add(new BasicAuthorizationInterceptor(this.username, this.password));
+		}
+		if (this.pollSeconds > 0) {
+			this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "config-delta-poller");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.poller.scheduleWithFixedDelay(() -> {
+				try {
+					refresh();
+				}
+				catch (RuntimeException ex) {
+					logger.warn("Config delta refresh failed", ex);
+				}
+			}, this.pollSeconds, this.pollSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	void stop() {
+		if (this.poller != null) {
+			this.poller.shutdownNow();
+		}
+	}
+
+	/**
+	 * Applies the changes since the current version and returns the changed keys.
+	 */
+	@SuppressWarnings("unchecked")
+	synchronized Set<String> refresh() {
+		Map<String, Object> delta = this.restTemplate.getForObject(deltaUri(), Map.class);
+		String latest = (String) delta.get("version");
+		Map<String, Object> changed = (Map<String, Object>) delta.get("changed");
+		Collection<String> removed = (Collection<String>) delta.get("removed");
+		if (Boolean.TRUE.equals(delta.get("full")) || !removed.isEmpty()) {
+			// the config server's own property source is current again after a full refresh
+			this.overrides.clear();
+			Set<String> keys = this.contextRefresher.refresh();
+			this.version = latest;
+			return keys;
+		}
+		this.version = latest;
+		if (changed.isEmpty()) {
+			return Collections.emptySet();
+		}
+		this.overrides.putAll(changed);
+		this.overrides.put("config.client.version", latest);
+		this.context.publishEvent(new EnvironmentChangeEvent(changed.keySet()));
+		for (String beanName : refreshScopedBeansBoundTo(changed.keySet())) {
+			this.refreshScope.refresh(beanName);
+			this.context.getBean(beanName);
+		}
+		return changed.keySet();
+	}
+
+	private String deltaUri() {
+		String[] profiles = this.environment.getActiveProfiles();
+		UriComponentsBuilder uri = UriComponentsBuilder.fromHttpUrl(this.configUri)
+				.path("/delta/{application}/{profile}");
+		if (StringUtils.hasText(this.label)) {
+			uri.queryParam("label", this.label);
+		}
+		if (this.version != null) {
+			uri.queryParam("since", this.version);
+		}
+		return uri.buildAndExpand(this.application,
+				profiles.length > 0 ? StringUtils.arrayToCommaDelimitedString(profiles) : "default").toUriString();
+	}
+
+	/**
+	 * Refresh-scoped beans reading any of {@code keys}. A bean with no {@code @Value}
+	 * or {@code @ConfigurationProperties} to go by may read the environment directly,
+	 * so it is always included.
+	 */
+	private Set<String> refreshScopedBeansBoundTo(Set<String> keys) {
+		ConfigurableListableBeanFactory beanFactory = this.context.getBeanFactory();
+		Set<String> beanNames = new HashSet<>();
+		for (String beanName : beanFactory.getBeanDefinitionNames()) {
+			BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+			Class<?> type = beanFactory.getType(beanName);
+			if (!"refresh".equals(definition.getScope()) || type == null) {
+				continue;
+			}
+			Set<String> bound = boundKeys(type);
+			ConfigurationProperties properties = AnnotationUtils.findAnnotation(type, ConfigurationProperties.class);
+			// value and prefix are aliases, so either gives the prefix however it was declared
+			String prefix = properties != null ? properties.prefix() : null;
+			if (bound.isEmpty() && prefix == null) {
+				beanNames.add(beanName);
+				continue;
+			}
+			for (String key : keys) {
+				if (bound.contains(key) || (prefix != null && bindsTo(prefix, key))) {
+					beanNames.add(beanName);
+					break;
+				}
+			}
+		}
+		return beanNames;
+	}
+
+	/**
+	 * Whether {@code @ConfigurationProperties} with the given prefix bind {@code key}:
+	 * {@code page} binds {@code page.size} but not {@code pages.size}.
+	 */
+	static boolean bindsTo(String prefix, String key) {
+		return prefix.isEmpty() || key.startsWith(prefix + ".");
+	}
+
+	private static Set<String> boundKeys(Class<?> type) {
+		Set<String> keys = new HashSet<>();
+		ReflectionUtils.doWithFields(type, field -> addPlaceholders(
+				AnnotationUtils.getAnnotation(field, Value.class), keys));
+		ReflectionUtils.doWithMethods(type, method -> addPlaceholders(
+				AnnotationUtils.findAnnotation(method, Value.class), keys));
+		return keys;
+	}
+
+	private static void addPlaceholders(Value value, Set<String> keys) {
+		if (value == null) {
+			return;
+		}
+		Matcher matcher = PLACEHOLDER.matcher(value.value());
+		while (matcher.find()) {
+			keys.add(matcher.group(1));
+		}
+	}
+}
+
+/**
+ * {@code POST /refresh/delta}: triggers a {@link DeltaConfigRefresher} refresh, the
+ * delta-based counterpart of the actuator's {@code /refresh}.
+ *
+ * Management security is off in this service, which leaves the other actuator
+ * endpoints open and makes Spring Security ignore their paths, so this endpoint
+ * checks HTTP basic credentials itself, against the {@code security.user} the
+ * authentication manager holds.
+ */
+@Component
+class DeltaRefreshEndpoint extends AbstractMvcEndpoint {
+
+	private static final String BASIC = "Basic ";
+
+	@Autowired
+	private DeltaConfigRefresher refresher;
+
+	@Autowired
+	private AuthenticationManager authenticationManager;
+
+	DeltaRefreshEndpoint() {
+		super("/refresh/delta", true);
+	}
+
+	@PostMapping
+	@ResponseBody
+	public ResponseEntity<Set<String>> refresh(
+			@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+		if (!authenticated(authorization)) {
+			return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+					.header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"Spring\"").build();
+		}
+		return ResponseEntity.ok(this.refresher.refresh());
+	}
+
+	private boolean authenticated(String authorization) {
+		if (authorization == null || !authorization.startsWith(BASIC)) {
+			return false;
+		}
+		try {
+			String[] credentials = new String(Base64Utils.decodeFromString(authorization.substring(BASIC.length())),
+					StandardCharsets.UTF_8).split(":", 2);
+			return credentials.length == 2 && this.authenticationManager.authenticate(
+					new UsernamePasswordAuthenticationToken(credentials[0], credentials[1])).isAuthenticated();
+		}
+		catch (IllegalArgumentException | AuthenticationException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code bookmark.mask} parsed once into literal and placeholder tokens, so that
+ * rendering a description is a single pass over a {@link StringBuilder} with no
+ * regex compilation or intermediate strings.
+ *
+ * Supported placeholders: {@code _L_} (link), {@code _U_} (user id) and
+ * {@code _H_} (host of the link). Every occurrence is substituted.
+ */
+class DescriptionTemplate {
+
+	private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(128));
+
+	private final String mask;
+
+	private final Token[] tokens;
+
+	private DescriptionTemplate(String mask, List<Token> tokens) {
+		this.mask = mask;
+		this.tokens = tokens.toArray(new Token[tokens.size()]);
+	}
+
+	static DescriptionTemplate compile(String mask) {
+		List<Token> tokens = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < mask.length()) {
+			Placeholder placeholder = Placeholder.at(mask, i);
+			if (placeholder == null) {
+				literal.append(mask.charAt(i++));
+				continue;
+			}
+			if (literal.length() > 0) {
+				tokens.add(new Literal(literal.toString()));
+				literal.setLength(0);
+			}
+			tokens.add(placeholder);
+			i += 3;
+		}
+		if (literal.length() > 0) {
+			tokens.add(new Literal(literal.toString()));
+		}
+		return new DescriptionTemplate(mask, tokens);
+	}
+
+	/**
+	 * Renders into a per-thread buffer that is reused between calls.
+	 */
+	String render(String userId, String href) {
+		StringBuilder out = BUFFER.get();
+		out.setLength(0);
+		renderTo(out, userId, href);
+		return out.toString();
+	}
+
+	void renderTo(StringBuilder out, String userId, String href) {
+		for (Token token : this.tokens) {
+			token.appendTo(out, userId, href);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return this.mask;
+	}
+
+	private interface Token {
+		void appendTo(StringBuilder out, String userId, String href);
+	}
+
+	private static class Literal implements Token {
+
+		private final String text;
+
+		Literal(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public void appendTo(StringBuilder out, String userId, String href) {
+			out.append(this.text);
+		}
+	}
+
+	private enum Placeholder implements Token {
+
+		LINK('L') {
+			@Override
+			public void appendTo(StringBuilder out, String userId, String href) {
+				out.append(href);
+			}
+		},
+
+		USER('U') {
+			@Override
+			public void appendTo(StringBuilder out, String userId, String href) {
+				out.append(userId);
+			}
+		},
+
+		HOST('H') {
+			@Override
+			public void appendTo(StringBuilder out, String userId, String href) {
+				int start = href.indexOf("://");
+				start = start < 0 ? 0 : start + 3;
+				int end = start;
+				while (end < href.length() && href.charAt(end) != '/' && href.charAt(end) != ':') {
+					end++;
+				}
+				out.append(href, start, end);
+			}
+		};
+
+		private final char code;
+
+		Placeholder(char code) {
+			this.code = code;
+		}
+
+		/**
+		 * Returns the placeholder starting at {@code index}, or {@code null} if there is none.
+		 */
+		static Placeholder at(String mask, int index) {
+			if (index + 2 >= mask.length() || mask.charAt(index) != '_' || mask.charAt(index + 2) != '_') {
+				return null;
+			}
+			char code = mask.charAt(index + 1);
+			for (Placeholder placeholder : values()) {
+				if (placeholder.code == code) {
+					return placeholder;
+				}
+			}
+			return null;
+		}
+	}
+}
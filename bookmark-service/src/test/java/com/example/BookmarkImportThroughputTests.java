@@ -0,0 +1,124 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Imports {@code import.rows} generated CSV rows into a file-backed H2 database and
+ * checks that the importer sustains {@code import.min-rows-per-second} (100k by
+ * default). The rows are produced as they are read, so the input never sits on the
+ * heap either.
+ *
+ * The target is not met yet: with plain JDBC batches a million rows go in at about
+ * 20k rows/s on a development machine, twice the rate of the JPA importer, and
+ * nearly all of the time is spent inside H2 maintaining the primary key and
+ * {@code user_id} index and committing MVCC chunks.
+ *
+ * The timing depends on the machine, so the test only runs when asked for, e.g.
+ * {@code mvn test -Dtest=BookmarkImportThroughputTests -Dimport.rows=1000000}. The
+ * database files are deleted once the context closes.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:file:${java.io.tmpdir}/bookmark-import-test;MVCC=TRUE;CACHE_SIZE=65536",
+		"spring.jpa.hibernate.ddl-auto=create",
+		"bookmark.mask=_L_@_U_",
+		"message=test"})
+@DirtiesContext
+public class BookmarkImportThroughputTests {
+
+	private static final Log logger = LogFactory.getLog(BookmarkImportThroughputTests.class);
+
+	private static final int ROWS = Integer.getInteger("import.rows", 0);
+
+	private static final int MIN_ROWS_PER_SECOND = Integer.getInteger("import.min-rows-per-second", 100_000);
+
+	@Autowired
+	private BookmarkImporter bookmarkImporter;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeClass
+	public static void onlyWhenAskedFor() {
+		Assume.assumeTrue("set -Dimport.rows to run", ROWS > 0);
+	}
+
+	@After
+	public void deleteDatabase() {
+		// H2 removes the files when the last connection closes, with the context
+		this.jdbcTemplate.execute("DROP ALL OBJECTS DELETE FILES");
+	}
+
+	@Test
+	public void importSustainsTheTargetRate() throws Exception {
+		long start = System.nanoTime();
+		long imported = this.bookmarkImporter.importCsv(new GeneratedCsv(ROWS));
+		long nanos = System.nanoTime() - start;
+
+		assertThat(imported).isEqualTo(ROWS);
+		double rowsPerSecond = imported / (nanos / (double) TimeUnit.SECONDS.toNanos(1));
+		logger.info(String.format("imported %d rows in %d ms, %.0f rows/s", imported,
+				TimeUnit.NANOSECONDS.toMillis(nanos), rowsPerSecond));
+		assertThat(rowsPerSecond).isGreaterThanOrEqualTo(MIN_ROWS_PER_SECOND);
+	}
+
+	/**
+	 * A CSV of {@code rows} bookmarks, four per user, generated a row at a time.
+	 */
+	private static class GeneratedCsv extends Reader {
+
+		private final int rows;
+
+		private int row = -1;
+
+		private String current = "userId,href,description\n";
+
+		private int position;
+
+		GeneratedCsv(int rows) {
+			this.rows = rows;
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) {
+			int read = 0;
+			while (read < length) {
+				if (this.position == this.current.length()) {
+					if (this.row + 1 == this.rows) {
+						break;
+					}
+					this.row++;
+					this.current = "user-" + this.row / 4 + ",http://" + this.row + "-link.com,\"bookmark, " + this.row + "\"\n";
+					this.position = 0;
+				}
+				int count = Math.min(length - read, this.current.length() - this.position);
+				this.current.getChars(this.position, this.position + count, buffer, offset + read);
+				this.position += count;
+				read += count;
+			}
+			return read == 0 && length > 0 ? -1 : read;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:mem:bookmark-import-test;MVCC=TRUE",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"bookmark.import.chunk-size=2",
+		"bookmark.mask=_L_@_U_",
+		"message=test"})
+public class BookmarkImporterTests {
+
+	@Autowired
+	private BookmarkImporter bookmarkImporter;
+
+	@Autowired
+	private BookmarkRepository bookmarkRepository;
+
+	@Autowired
+	private UserVersions userVersions;
+
+	@After
+	public void tearDown() {
+		this.bookmarkRepository.deleteAll();
+	}
+
+	@Test
+	public void csvFieldsMayBeQuotedAndColumnsReordered() throws Exception {
+		long imported = this.bookmarkImporter.importCsv(new StringReader(
+				"href,description,userId\n"
+						+ "http://a-link.com,\"one, with a comma\",Importer\n"
+						+ "http://b-link.com,\"two \"\"quoted\"\"\nand wrapped\",Importer\n"
+						+ "\"http://c-link.com\",,Importer\n"));
+
+		assertThat(imported).isEqualTo(3);
+		List<Bookmark> bookmarks = bookmarks("Importer");
+		assertThat(bookmarks).extracting("href")
+				.containsExactly("http://a-link.com", "http://b-link.com", "http://c-link.com");
+		assertThat(bookmarks).extracting("description")
+				.containsExactly("one, with a comma", "two \"quoted\"\nand wrapped", "http://c-link.com@Importer");
+	}
+
+	@Test
+	public void invalidRowReportsItsLineAndTheCommittedChunks() throws Exception {
+		try {
+			this.bookmarkImporter.importCsv(new StringReader(
+					"userId,href\n"
+							+ "Importer,http://a-link.com\n"
+							+ "Importer,\"http://b-\nlink.com\"\n"
+							+ "Importer,http://c-link.com\n"
+							+ "Importer,\n"
+							+ "Importer,http://d-link.com\n"));
+			fail("expected an ImportException");
+		}
+		catch (ImportException ex) {
+			assertThat(ex.getLine()).isEqualTo(6);
+			assertThat(ex.getMessage()).contains("href is missing");
+			// the first chunk of two was committed, the third row was not
+			assertThat(ex.getCommitted()).isEqualTo(2);
+		}
+		assertThat(bookmarks("Importer")).hasSize(2);
+	}
+
+	@Test
+	public void malformedCsvRowReportsItsLine() throws Exception {
+		try {
+			this.bookmarkImporter.importCsv(new StringReader(
+					"userId,href\n"
+							+ "Importer,http://a-link.com\n"
+							+ "Importer,http://b-link.com,extra\n"));
+			fail("expected an ImportException");
+		}
+		catch (ImportException ex) {
+			assertThat(ex.getLine()).isEqualTo(3);
+			assertThat(ex.getCommitted()).isEqualTo(0);
+		}
+		assertThat(bookmarks("Importer")).isEmpty();
+	}
+
+	@Test
+	public void malformedNdjsonRowReportsItsLine() throws Exception {
+		try {
+			this.bookmarkImporter.importNdjson(new StringReader(
+					"{\"userId\":\"Importer\",\"href\":\"http://a-link.com\"}\n"
+							+ "\n"
+							+ "{\"userId\":\"Importer\",\"href\":\"http://b-link.com\"}\n"
+							+ "{\"userId\":\"Importer\",\"href\":\n"));
+			fail("expected an ImportException");
+		}
+		catch (ImportException ex) {
+			assertThat(ex.getLine()).isEqualTo(5);
+			assertThat(ex.getCommitted()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	public void importedRowsShareTheIdsAndVersionsOfSavedOnes() throws Exception {
+		this.bookmarkRepository.save(new Bookmark("http://a-link.com", "Importer", "saved"));
+		String saved = this.userVersions.version("Importer");
+
+		this.bookmarkImporter.importCsv(new StringReader(
+				"userId,href\nImporter,http://b-link.com\nImporter,http://c-link.com\nImporter,http://d-link.com\n"));
+		this.bookmarkRepository.save(new Bookmark("http://e-link.com", "Importer", "saved"));
+
+		List<Bookmark> bookmarks = bookmarks("Importer");
+		assertThat(bookmarks).extracting("href").containsExactly("http://a-link.com", "http://b-link.com",
+				"http://c-link.com", "http://d-link.com", "http://e-link.com");
+		assertThat(bookmarks).extracting("id").doesNotHaveDuplicates();
+		assertThat(this.userVersions.version("Importer")).isNotEqualTo(saved);
+	}
+
+	private List<Bookmark> bookmarks(String userId) {
+		Collection<Bookmark> found = this.bookmarkRepository.findByUserId(userId);
+		List<Bookmark> sorted = new ArrayList<>(found);
+		sorted.sort(Comparator.comparing(Bookmark::getId));
+		return sorted;
+	}
+}
@@ -0,0 +1,180 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.Rule;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes bookmarks through JPA, builds a snapshot from them and checks that every
+ * user's list, in JSON and in Smile, has the fields {@code findByUserId} gives.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:mem:bookmark-snapshot-test;MVCC=TRUE",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"bookmark.mask=_L_@_U_",
+		"message=test"})
+public class BookmarkSnapshotTests {
+
+	// "Aa" and "BB" have the same hash, and so does any string made of them
+	private static final List<String> USERS = Arrays.asList("Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB",
+			"Zalando", "Snapdeal", "Grüße");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Autowired
+	private BookmarkRepository bookmarkRepository;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private final ObjectMapper json = Jackson2ObjectMapperBuilder.json().build();
+
+	private final ObjectMapper smile = new SmileHttpMessageConverter(Jackson2ObjectMapperBuilder.json()).getObjectMapper();
+
+	private UserVersions userVersions;
+
+	private BookmarkSnapshot snapshot;
+
+	@Before
+	public void setUp() {
+		for (String userId : USERS) {
+			for (int i = 0; i < USERS.indexOf(userId) + 1; i++) {
+				this.bookmarkRepository.save(new Bookmark("http://" + userId + "-link.com/" + i, userId,
+						"bookmark " + i + " of " + userId));
+			}
+		}
+		this.bookmarkRepository.save(new Bookmark(null, "Zalando", null));
+		this.bookmarkRepository.save(new Bookmark("http://zalando-link.com/ü", "Zalando", "☃ 😀"));
+
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+		this.userVersions = new UserVersions("bookmark");
+		ReflectionTestUtils.setField(this.userVersions, "jdbcTemplate", jdbcTemplate);
+		this.snapshot = new BookmarkSnapshot();
+		ReflectionTestUtils.setField(this.snapshot, "userVersions", this.userVersions);
+		ReflectionTestUtils.setField(this.snapshot, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(this.snapshot, "directory", this.folder.getRoot());
+		ReflectionTestUtils.setField(this.snapshot, "maxAgeSeconds", 300L);
+		this.snapshot.rebuild();
+	}
+
+	@After
+	public void tearDown() {
+		this.snapshot.stop();
+		this.bookmarkRepository.deleteAll();
+	}
+
+	@Test
+	public void jsonMatchesFindByUserId() throws Exception {
+		for (String userId : users()) {
+			JsonNode expected = this.json.readTree(this.json.writeValueAsBytes(
+					sorted(this.bookmarkRepository.findByUserId(userId))));
+			JsonNode bytes = this.json.readTree(this.json.writeValueAsBytes(fromSnapshot(userId)));
+			JsonNode chars = this.json.readTree(this.json.writeValueAsString(fromSnapshot(userId)));
+			assertSameBookmarks(userId, bytes, expected);
+			assertSameBookmarks(userId, chars, expected);
+		}
+	}
+
+	@Test
+	public void smileMatchesFindByUserId() throws Exception {
+		for (String userId : users()) {
+			JsonNode expected = this.json.readTree(this.json.writeValueAsBytes(
+					sorted(this.bookmarkRepository.findByUserId(userId))));
+			JsonNode actual = this.smile.readTree(this.smile.writeValueAsBytes(fromSnapshot(userId)));
+			assertSameBookmarks(userId, actual, expected);
+		}
+	}
+
+	@Test
+	public void userWithoutBookmarksGetsAnEmptyList() {
+		assertThat(this.snapshot.bookmarks("Nobody", this.userVersions.version("Nobody"))).isEmpty();
+	}
+
+	@Test
+	public void changedUserIsNotServedFromTheSnapshot() {
+		String before = this.userVersions.version("Zalando");
+		this.bookmarkRepository.save(new Bookmark("http://zalando-link.com/new", "Zalando", "new"));
+		assertThat(this.snapshot.bookmarks("Zalando", this.userVersions.version("Zalando"))).isNull();
+		// an ETag read before the change still matches what the snapshot holds
+		Collection<Bookmark> old = this.snapshot.bookmarks("Zalando", before);
+		assertThat(old).isNotNull();
+		((BookmarkSnapshot.SnapshotBookmarks) old).release();
+	}
+
+	@Test
+	public void replacedSnapshotIsUnmappedOnceItsLastListIsWritten() throws Exception {
+		Collection<Bookmark> held = fromSnapshot("Snapdeal");
+		File[] first = this.folder.getRoot().listFiles();
+		assertThat(first).hasSize(1);
+
+		this.snapshot.rebuild();
+		assertThat(this.folder.getRoot().listFiles()).hasSize(2);
+
+		JsonNode written = this.json.readTree(this.json.writeValueAsBytes(held));
+		assertThat(written).hasSize(this.bookmarkRepository.findByUserId("Snapdeal").size());
+		assertThat(this.folder.getRoot().listFiles()).hasSize(1).doesNotContain(first[0]);
+	}
+
+	private List<String> users() {
+		List<String> users = new ArrayList<>(USERS);
+		users.add("Nobody");
+		return users;
+	}
+
+	private Collection<Bookmark> fromSnapshot(String userId) {
+		Collection<Bookmark> bookmarks = this.snapshot.bookmarks(userId, this.userVersions.version(userId));
+		assertThat(bookmarks).as(userId).isNotNull();
+		return bookmarks;
+	}
+
+	private static List<Bookmark> sorted(Collection<Bookmark> bookmarks) {
+		List<Bookmark> sorted = new ArrayList<>(bookmarks);
+		sorted.sort(Comparator.comparing(Bookmark::getId));
+		return sorted;
+	}
+
+	private static void assertSameBookmarks(String userId, JsonNode actual, JsonNode expected) {
+		assertThat(actual.isArray()).isTrue();
+		assertThat(actual.size()).as(userId).isEqualTo(expected.size());
+		for (int i = 0; i < expected.size(); i++) {
+			JsonNode expectedBookmark = expected.get(i);
+			JsonNode actualBookmark = actual.get(i);
+			assertThat(fieldNames(actualBookmark)).as(userId).isEqualTo(fieldNames(expectedBookmark));
+			for (String field : fieldNames(expectedBookmark)) {
+				assertThat(actualBookmark.get(field)).as(userId + "." + field).isEqualTo(expectedBookmark.get(field));
+			}
+		}
+	}
+
+	private static List<String> fieldNames(JsonNode node) {
+		List<String> names = new ArrayList<>();
+		node.fieldNames().forEachRemaining(names::add);
+		names.sort(null);
+		return names;
+	}
+}
@@ -0,0 +1,153 @@
+package com.example;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.context.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.autoconfigure.RefreshAutoConfiguration;
+import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.header;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+/**
+ * Applies a delta from a mocked configuration-service and checks which
+ * refresh-scoped beans are rebuilt: those bound to a changed key, by {@code @Value}
+ * or by {@code @ConfigurationProperties} prefix, and no others.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = DeltaConfigRefresherTests.Config.class,
+		webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+		"spring.cloud.config.enabled=false",
+		"spring.application.name=bookmark-service",
+		"spring.cloud.config.password=secret",
+		"config.client.version=v1",
+		"message=test",
+		"other=test"})
+public class DeltaConfigRefresherTests {
+
+	@Autowired
+	private ApplicationContext context;
+
+	@Autowired
+	private DeltaConfigRefresher refresher;
+
+	@Test
+	public void onlyBeansBoundToChangedKeysAreRebuilt() {
+		MockRestServiceServer server = MockRestServiceServer.createServer(
+				(RestTemplate) ReflectionTestUtils.getField(this.refresher, "restTemplate"));
+		server.expect(requestTo("http://localhost:8888/delta/bookmark-service/default?since=v1"))
+				.andExpect(header("Authorization", "Basic dXNlcjpzZWNyZXQ="))
+				.andRespond(withSuccess("{\"version\":\"v2\",\"changed\":{\"message\":\"hi\",\"pages.size\":\"5\"},"
+						+ "\"removed\":[],\"full\":false}", MediaType.APPLICATION_JSON));
+		Object message = target("message");
+		Object page = target("page");
+		Object pages = target("pages");
+		Object other = target("other");
+
+		assertThat(this.refresher.refresh()).containsOnly("message", "pages.size");
+
+		server.verify();
+		assertThat(target("message")).isNotSameAs(message);
+		assertThat(target("pages")).isNotSameAs(pages);
+		// "page" is a prefix of "pages.size" but does not bind it
+		assertThat(target("page")).isSameAs(page);
+		assertThat(target("other")).isSameAs(other);
+		assertThat(this.context.getBean(Message.class).getMessage()).isEqualTo("hi");
+		assertThat(this.context.getBean(PagesProperties.class).getSize()).isEqualTo(5);
+	}
+
+	private Object target(String beanName) {
+		return this.context.getBean("scopedTarget." + beanName);
+	}
+
+	@Configuration
+	@EnableConfigurationProperties
+	@Import({RefreshAutoConfiguration.class, PropertyPlaceholderAutoConfiguration.class,
+			DeltaConfigRefresher.class})
+	static class Config {
+
+		@Bean
+		@RefreshScope
+		Message message() {
+			return new Message();
+		}
+
+		@Bean
+		@RefreshScope
+		PageProperties page() {
+			return new PageProperties();
+		}
+
+		@Bean
+		@RefreshScope
+		PagesProperties pages() {
+			return new PagesProperties();
+		}
+
+		@Bean
+		@RefreshScope
+		Other other() {
+			return new Other();
+		}
+	}
+
+	static class Message {
+
+		@Value("${message}")
+		private String message;
+
+		String getMessage() {
+			return this.message;
+		}
+	}
+
+	static class Other {
+
+		@Value("${other}")
+		private String other;
+	}
+
+	@ConfigurationProperties("page")
+	static class PageProperties {
+
+		private int size = 10;
+
+		public int getSize() {
+			return this.size;
+		}
+
+		public void setSize(int size) {
+			this.size = size;
+		}
+	}
+
+	@ConfigurationProperties("pages")
+	static class PagesProperties {
+
+		private int size = 10;
+
+		public int getSize() {
+			return this.size;
+		}
+
+		public void setSize(int size) {
+			this.size = size;
+		}
+	}
+}
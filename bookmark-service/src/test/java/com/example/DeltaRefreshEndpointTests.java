@@ -0,0 +1,79 @@
+package com.example;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.Base64Utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * {@code /refresh/delta} takes the {@code security.user} credentials, while the
+ * service's own endpoints and the other actuator endpoints stay open.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:mem:delta-refresh-endpoint-test;MVCC=TRUE",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"bookmark.mask=_L_@_U_",
+		"message=test",
+		"security.user.password=secret"})
+@AutoConfigureMockMvc
+public class DeltaRefreshEndpointTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@MockBean
+	private DeltaConfigRefresher refresher;
+
+	@Test
+	public void refreshNeedsCredentials() throws Exception {
+		this.mvc.perform(post("/refresh/delta")).andExpect(status().isUnauthorized());
+		this.mvc.perform(post("/refresh/delta").header("Authorization", basic("user", "wrong")))
+				.andExpect(status().isUnauthorized());
+		this.mvc.perform(post("/refresh/delta").header("Authorization", "Basic not-base64!"))
+				.andExpect(status().isUnauthorized());
+		verify(this.refresher, never()).refresh();
+	}
+
+	@Test
+	public void refreshWithCredentials() throws Exception {
+		given(this.refresher.refresh()).willReturn(Collections.singleton("message"));
+		this.mvc.perform(post("/refresh/delta").header("Authorization", basic("user", "secret")))
+				.andExpect(status().isOk())
+				.andExpect(content().json("[\"message\"]"));
+	}
+
+	@Test
+	public void serviceEndpointsStayOpen() throws Exception {
+		this.mvc.perform(get("/message")).andExpect(status().isOk());
+	}
+
+	@Test
+	public void otherActuatorEndpointsStayOpen() throws Exception {
+		this.mvc.perform(get("/metrics")).andExpect(status().isOk());
+		this.mvc.perform(get("/env")).andExpect(status().isOk());
+		this.mvc.perform(get("/latency")).andExpect(status().isOk());
+	}
+
+	private static String basic(String user, String password) {
+		return "Basic " + Base64Utils.encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+	}
+}
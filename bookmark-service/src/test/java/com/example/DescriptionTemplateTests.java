@@ -0,0 +1,58 @@
+package com.example;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DescriptionTemplateTests {
+
+	@Test
+	public void linkAndUserPlaceholders() {
+		assertThat(render("_L_@_U_", "Google", "http://Google-link.com")).isEqualTo("http://Google-link.com@Google");
+	}
+
+	@Test
+	public void hostPlaceholder() {
+		assertThat(render("_H_", "Google", "http://google.com/search?q=a")).isEqualTo("google.com");
+		assertThat(render("_H_", "Google", "https://google.com:8443/")).isEqualTo("google.com");
+		assertThat(render("_H_", "Google", "google.com/search")).isEqualTo("google.com");
+		assertThat(render("_H_", "Google", "http://google.com")).isEqualTo("google.com");
+	}
+
+	@Test
+	public void everyOccurrenceIsSubstituted() {
+		assertThat(render("_U_/_U_ _L_", "Amazon", "http://a")).isEqualTo("Amazon/Amazon http://a");
+	}
+
+	@Test
+	public void literalTextIsKept() {
+		assertThat(render("no placeholders here", "Amazon", "http://a")).isEqualTo("no placeholders here");
+		assertThat(render("", "Amazon", "http://a")).isEmpty();
+		assertThat(render("[_U_]", "Amazon", "http://a")).isEqualTo("[Amazon]");
+	}
+
+	@Test
+	public void unknownAndIncompleteTokensAreLiteral() {
+		assertThat(render("_X_ _u_ __ _L", "Amazon", "http://a")).isEqualTo("_X_ _u_ __ _L");
+		assertThat(render("__U_", "Amazon", "http://a")).isEqualTo("_Amazon");
+	}
+
+	@Test
+	public void replacementSyntaxInValuesIsLiteral() {
+		assertThat(render("_L_ by _U_", "$1\\", "http://a/$0")).isEqualTo("http://a/$0 by $1\\");
+	}
+
+	@Test
+	public void reusedBufferDoesNotLeakBetweenCalls() {
+		DescriptionTemplate template = DescriptionTemplate.compile("_U_:_L_");
+		String first = template.render("Yahoo", "http://a-longer-link");
+		String second = template.render("Myntra", "http://b");
+		assertThat(first).isEqualTo("Yahoo:http://a-longer-link");
+		assertThat(second).isEqualTo("Myntra:http://b");
+		assertThat(template.toString()).isEqualTo("_U_:_L_");
+	}
+
+	private static String render(String mask, String userId, String href) {
+		return DescriptionTemplate.compile(mask).render(userId, href);
+	}
+}
@@ -0,0 +1,389 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.cloud.config.server.environment.SearchPathLocator;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves resolved {@link Environment}s from memory, keyed on application, profile
+ * and label, so a fleet booting at once does not turn into one git fetch and YAML
+ * parse per instance.
+ *
+ * Only the first request for a key goes to the git repository; concurrent requests
+ * for the same key wait for that one load. After that, entries are refreshed in the
+ * background: the commit each key resolves to is checked first, and the environment
+ * is rebuilt only when it moved. Reads never wait on git, and a refresh that fails
+ * leaves the previous environment in place.
+ *
+ * An environment's version is the commit it was read from. If the repository does
+ * not report one, a digest of its properties is used instead, so an unchanged
+ * environment is not replaced and deltas still work.
+ */
+class CachingEnvironmentRepository implements EnvironmentRepository, PublicMetrics {
+
+	private static final Log logger = LogFactory.getLog(CachingEnvironmentRepository.class);
+
+	private static final int HISTORY_SIZE = 8;
+
+	private final EnvironmentRepository delegate;
+
+	@Value("${config.cache.refresh-seconds:30}")
+	private long refreshSeconds;
+
+	@Value("${config.cache.expire-after-idle-seconds:3600}")
+	private long expireAfterIdleSeconds;
+
+	private final ConcurrentMap<String, CompletableFuture<Entry>> entries = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Map<String, Map<String, Object>>> history = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong hitNanos = new AtomicLong();
+	private final AtomicLong loadNanos = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong rebuilds = new AtomicLong();
+	private final AtomicLong refreshFailures = new AtomicLong();
+	private volatile long lastRefreshMillis;
+
+	private ScheduledExecutorService scheduler;
+
+	CachingEnvironmentRepository(EnvironmentRepository delegate) {
+		this.delegate = delegate;
+	}
+
+	@PostConstruct
+	void start() {
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "environment-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::refresh, this.refreshSeconds, this.refreshSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		this.scheduler.shutdownNow();
+	}
+
+	@Override
+	public Environment findOne(String application, String profile, String label) {
+		return entry(application, profile, label).environment;
+	}
+
+	/**
+	 * What changed for the key since the client's {@code since} version, for the last
+	 * few versions seen; older or unknown versions, and changes the delta cannot
+	 * express, are answered with {@code full} so the client reloads everything.
+	 */
+	ConfigDelta delta(String application, String profile, String label, String since) {
+		Entry current = entry(application, profile, label);
+		if (current.version.equals(since)) {
+			return new ConfigDelta(current.version, false, Collections.emptyMap(), Collections.emptySet());
+		}
+		Map<String, Object> previous = previous(application + "/" + profile + "/" + label, since);
+		if (previous == null) {
+			return ConfigDelta.full(current.version);
+		}
+		Map<String, Object> changed = new HashMap<>();
+		current.properties.forEach((name, value) -> {
+			if (!previous.containsKey(name) || !Objects.equals(value, previous.get(name))) {
+				changed.put(name, value);
+			}
+		});
+		Set<String> removed = new HashSet<>(previous.keySet());
+		removed.removeAll(current.properties.keySet());
+		for (Object value : changed.values()) {
+			if (value instanceof String && ((String) value).startsWith("{cipher}")) {
+				// decrypted only on the full path
+				return ConfigDelta.full(current.version);
+			}
+		}
+		return new ConfigDelta(current.version, false, changed, removed);
+	}
+
+	private Map<String, Object> previous(String key, String version) {
+		Map<String, Map<String, Object>> versions = this.history.get(key);
+		if (versions == null || version == null) {
+			return null;
+		}
+		synchronized (versions) {
+			return versions.get(version);
+		}
+	}
+
+	private Entry entry(String application, String profile, String label) {
+		long start = System.nanoTime();
+		String key = application + "/" + profile + "/" + label;
+		CompletableFuture<Entry> pending = this.entries.get(key);
+		if (pending != null && pending.isDone() && !pending.isCompletedExceptionally()) {
+			Entry entry = pending.join();
+			entry.lastRead = System.currentTimeMillis();
+			this.hits.incrementAndGet();
+			this.hitNanos.addAndGet(System.nanoTime() - start);
+			return entry;
+		}
+		CompletableFuture<Entry> load = new CompletableFuture<>();
+		pending = this.entries.putIfAbsent(key, load);
+		if (pending == null) {
+			this.misses.incrementAndGet();
+			try {
+				// one trip to git: the environment carries the commit it was read from
+				load.complete(remember(key, load(application, profile, label)));
+			}
+			catch (RuntimeException ex) {
+				// not cached, so the next request tries again
+				this.entries.remove(key, load);
+				load.completeExceptionally(ex);
+				throw ex;
+			}
+			finally {
+				this.loadNanos.addAndGet(System.nanoTime() - start);
+			}
+			return load.join();
+		}
+		try {
+			return pending.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted loading " + key, ex);
+		}
+		catch (ExecutionException ex) {
+			throw ex.getCause() instanceof RuntimeException
+					? (RuntimeException) ex.getCause() : new IllegalStateException(ex.getCause());
+		}
+	}
+
+	/**
+	 * Keeps the flattened properties of the last few versions of a key, for {@link #delta}.
+	 */
+	private Entry remember(String key, Entry entry) {
+		Map<String, Map<String, Object>> versions = this.history.computeIfAbsent(key,
+				k -> new LinkedHashMap<String, Map<String, Object>>() {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+						return size() > HISTORY_SIZE;
+					}
+				});
+		synchronized (versions) {
+			versions.put(entry.version, entry.properties);
+		}
+		return entry;
+	}
+
+	private Entry load(String application, String profile, String label) {
+		return new Entry(application, profile, label, this.delegate.findOne(application, profile, label));
+	}
+
+	/**
+	 * Commit the key currently resolves to, or {@code null} if the repository cannot
+	 * tell, in which case a refresh loads the environment to compare it.
+	 */
+	private String version(String application, String profile, String label) {
+		if (this.delegate instanceof SearchPathLocator) {
+			return ((SearchPathLocator) this.delegate).getLocations(application, profile, label).getVersion();
+		}
+		return null;
+	}
+
+	synchronized void refresh() {
+		long start = System.currentTimeMillis();
+		long idleCutoff = start - TimeUnit.SECONDS.toMillis(this.expireAfterIdleSeconds);
+		this.entries.forEach((key, pending) -> {
+			if (!pending.isDone() || pending.isCompletedExceptionally()) {
+				return;
+			}
+			Entry entry = pending.join();
+			if (entry.lastRead < idleCutoff) {
+				this.entries.remove(key, pending);
+				this.history.remove(key);
+				return;
+			}
+			try {
+				// per key: with several repositories, the profile can pick which one serves it
+				String version = version(entry.application, entry.profile, entry.label);
+				if (entry.version.equals(version)) {
+					return;
+				}
+				Entry rebuilt = load(entry.application, entry.profile, entry.label);
+				if (rebuilt.version.equals(entry.version)) {
+					return;
+				}
+				remember(key, rebuilt);
+				rebuilt.lastRead = entry.lastRead;
+				this.entries.replace(key, pending, CompletableFuture.completedFuture(rebuilt));
+				this.rebuilds.incrementAndGet();
+			}
+			catch (RuntimeException ex) {
+				this.refreshFailures.incrementAndGet();
+				logger.warn("Unable to refresh " + key, ex);
+			}
+		});
+		this.refreshes.incrementAndGet();
+		this.lastRefreshMillis = System.currentTimeMillis() - start;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		long hit = this.hits.get();
+		long miss = this.misses.get();
+		return Arrays.<Metric<?>>asList(
+				new Metric<>("config-cache.size", this.entries.size()),
+				new Metric<>("config-cache.hits", hit),
+				new Metric<>("config-cache.misses", miss),
+				new Metric<>("config-cache.hit-micros.avg", hit > 0 ? this.hitNanos.get() / hit / 1e3 : 0.0),
+				new Metric<>("config-cache.load-millis.avg", miss > 0 ? this.loadNanos.get() / miss / 1e6 : 0.0),
+				new Metric<>("config-cache.refreshes", this.refreshes.get()),
+				new Metric<>("config-cache.rebuilds", this.rebuilds.get()),
+				new Metric<>("config-cache.refresh-failures", this.refreshFailures.get()),
+				new Metric<>("config-cache.refresh-millis.last", this.lastRefreshMillis));
+	}
+
+	private static class Entry {
+
+		private final String application;
+		private final String profile;
+		private final String label;
+		private final Environment environment;
+		private final String version;
+		private final Map<String, Object> properties;
+		private volatile long lastRead = System.currentTimeMillis();
+
+		Entry(String application, String profile, String label, Environment environment) {
+			this.application = application;
+			this.profile = profile;
+			this.label = label;
+			this.environment = environment;
+			this.properties = flatten(environment);
+			this.version = environment.getVersion() != null
+					? environment.getVersion() : digest(this.properties);
+		}
+
+		/**
+		 * The effective value of every property, with earlier property sources winning.
+		 */
+		private static Map<String, Object> flatten(Environment environment) {
+			List<PropertySource> sources = new ArrayList<>(environment.getPropertySources());
+			Collections.reverse(sources);
+			Map<String, Object> properties = new HashMap<>();
+			for (PropertySource source : sources) {
+				source.getSource().forEach((name, value) -> properties.put(String.valueOf(name), value));
+			}
+			return properties;
+		}
+
+		private static String digest(Map<String, Object> properties) {
+			return DigestUtils.md5DigestAsHex(new TreeMap<>(properties).toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
+
+/**
+ * The properties of an application that changed between two config versions.
+ */
+class ConfigDelta {
+
+	private final String version;
+	private final boolean full;
+	private final Map<String, Object> changed;
+	private final Collection<String> removed;
+
+	ConfigDelta(String version, boolean full, Map<String, Object> changed, Collection<String> removed) {
+		this.version = version;
+		this.full = full;
+		this.changed = changed;
+		this.removed = removed;
+	}
+
+	static ConfigDelta full(String version) {
+		return new ConfigDelta(version, true, Collections.emptyMap(), Collections.emptySet());
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public boolean isFull() {
+		return full;
+	}
+
+	public Map<String, Object> getChanged() {
+		return changed;
+	}
+
+	public Collection<String> getRemoved() {
+		return removed;
+	}
+}
+
+/**
+ * Serves {@link ConfigDelta}s, so clients can refresh only what changed.
+ */
+@RestController
+class ConfigDeltaController {
+
+	@Autowired
+	private CachingEnvironmentRepository repository;
+
+	@GetMapping("/delta/{application}/{profile}")
+	public ConfigDelta delta(@PathVariable String application, @PathVariable String profile,
+							 @RequestParam(required = false) String label,
+							 @RequestParam(required = false) String since) {
+		return this.repository.delta(application, profile, label, since);
+	}
+}
+
+/**
+ * Lets a git push hook, sending the {@code security.user} credentials, trigger a
+ * refresh instead of waiting for the next scheduled one.
+ */
+@RestController
+class CacheRefreshController {
+
+	@Autowired
+	private CachingEnvironmentRepository repository;
+
+	@PostMapping("/cache/refresh")
+	public void refresh() {
+		this.repository.refresh();
+	}
+}
@@ -2,12 +2,34 @@ package com.example;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.cloud.config.server.EnableConfigServer;
+import org.springframework.cloud.config.server.environment.MultipleJGitEnvironmentRepository;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.ConfigurableEnvironment;
 
 @SpringBootApplication
 @EnableConfigServer
 public class ConfigurationServiceApplication {
 
+	/**
+	 * The git repository the config server would otherwise create itself, still bound
+	 * to {@code spring.cloud.config.server.git.*}; declaring it here lets the cache
+	 * below sit in front of it.
+	 */
+	@Bean
+	@ConfigurationProperties("spring.cloud.config.server.git")
+	public MultipleJGitEnvironmentRepository gitEnvironmentRepository(ConfigurableEnvironment environment) {
+		return new MultipleJGitEnvironmentRepository(environment);
+	}
+
+	@Primary
+	@Bean
+	public CachingEnvironmentRepository environmentRepository(MultipleJGitEnvironmentRepository gitEnvironmentRepository) {
+		return new CachingEnvironmentRepository(gitEnvironmentRepository);
+	}
+
 	public static void main(String[] args) {
 		SpringApplication.run(ConfigurationServiceApplication.class, args);
 	}
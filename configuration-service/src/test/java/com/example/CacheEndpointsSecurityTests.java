@@ -0,0 +1,66 @@
+package com.example;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.util.Base64Utils;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * {@code /delta} and {@code /cache/refresh} take the {@code security.user}
+ * credentials.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "security.user.password=secret")
+@AutoConfigureMockMvc
+public class CacheEndpointsSecurityTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@SpyBean
+	private CachingEnvironmentRepository repository;
+
+	@Test
+	public void endpointsNeedCredentials() throws Exception {
+		this.mvc.perform(get("/delta/app/default").param("since", "v1")).andExpect(status().isUnauthorized());
+		this.mvc.perform(post("/cache/refresh")).andExpect(status().isUnauthorized());
+		this.mvc.perform(post("/cache/refresh").header("Authorization", basic("user", "wrong")))
+				.andExpect(status().isUnauthorized());
+		verify(this.repository, never()).delta(any(), any(), any(), any());
+		verify(this.repository, never()).refresh();
+	}
+
+	@Test
+	public void endpointsWithCredentials() throws Exception {
+		doReturn(ConfigDelta.full("v2")).when(this.repository).delta("app", "default", null, "v1");
+		doNothing().when(this.repository).refresh();
+		this.mvc.perform(get("/delta/app/default").param("since", "v1").header("Authorization", basic("user", "secret")))
+				.andExpect(status().isOk())
+				.andExpect(jsonPath("$.version").value("v2"))
+				.andExpect(jsonPath("$.full").value(true));
+		this.mvc.perform(post("/cache/refresh").header("Authorization", basic("user", "secret")))
+				.andExpect(status().isOk());
+		verify(this.repository).refresh();
+	}
+
+	private static String basic(String user, String password) {
+		return "Basic " + Base64Utils.encodeToString((user + ":" + password).getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,243 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.config.environment.Environment;
+import org.springframework.cloud.config.environment.PropertySource;
+import org.springframework.cloud.config.server.environment.EnvironmentRepository;
+import org.springframework.cloud.config.server.environment.SearchPathLocator;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+public class CachingEnvironmentRepositoryTests {
+
+	private final GitRepository git = new GitRepository();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+	@Before
+	public void setUp() {
+		this.git.commit("v1", "a", "1", "b", "2", "c", "3");
+	}
+
+	@After
+	public void tearDown() {
+		this.executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentMissesShareOneLoad() throws Exception {
+		CachingEnvironmentRepository repository = repository(this.git);
+		this.git.release = new CountDownLatch(1);
+		List<Future<Environment>> results = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			results.add(this.executor.submit(() -> repository.findOne("app", "default", "master")));
+		}
+		// the others arrive while the first load is held in git
+		Thread.sleep(200);
+		this.git.release.countDown();
+
+		Environment first = results.get(0).get(5, TimeUnit.SECONDS);
+		for (Future<Environment> result : results) {
+			assertThat(result.get(5, TimeUnit.SECONDS)).isSameAs(first);
+		}
+		assertThat(this.git.finds.get()).isEqualTo(1);
+		// the environment carries its commit, so a miss needs no separate lookup
+		assertThat(this.git.lookups.get()).isEqualTo(0);
+	}
+
+	@Test
+	public void failedLoadIsNotCached() {
+		CachingEnvironmentRepository repository = repository(this.git);
+		this.git.failing = true;
+		assertThatThrownBy(() -> repository.findOne("app", "default", "master"))
+				.isInstanceOf(IllegalStateException.class);
+		this.git.failing = false;
+
+		assertThat(repository.findOne("app", "default", "master").getVersion()).isEqualTo("v1");
+		assertThat(this.git.finds.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void refreshRebuildsOnlyWhenTheCommitMoves() {
+		CachingEnvironmentRepository repository = repository(this.git);
+		Environment loaded = repository.findOne("app", "default", "master");
+
+		repository.refresh();
+		assertThat(repository.findOne("app", "default", "master")).isSameAs(loaded);
+		assertThat(this.git.finds.get()).isEqualTo(1);
+
+		this.git.commit("v2", "a", "10");
+		repository.refresh();
+		assertThat(repository.findOne("app", "default", "master").getVersion()).isEqualTo("v2");
+		assertThat(this.git.finds.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void eachKeyChecksItsOwnCommit() {
+		CachingEnvironmentRepository repository = repository(this.git);
+		Environment dev = repository.findOne("app", "dev", "master");
+		repository.findOne("app", "prod", "master");
+
+		// another repository serves prod, and only its commit moves
+		this.git.versionsByProfile.put("prod", "p2");
+		repository.refresh();
+
+		assertThat(repository.findOne("app", "dev", "master")).isSameAs(dev);
+		assertThat(repository.findOne("app", "prod", "master").getVersion()).isEqualTo("p2");
+		assertThat(this.git.lookups.get()).isEqualTo(2);
+	}
+
+	@Test
+	public void deltaSinceAnEarlierVersion() {
+		CachingEnvironmentRepository repository = repository(this.git);
+		repository.findOne("app", "default", "master");
+		this.git.commit("v2", "a", "1", "b", "20", "d", "4");
+		repository.refresh();
+
+		ConfigDelta delta = repository.delta("app", "default", "master", "v1");
+		assertThat(delta.isFull()).isFalse();
+		assertThat(delta.getVersion()).isEqualTo("v2");
+		assertThat(delta.getChanged()).containsOnly(entry("b", "20"), entry("d", "4"));
+		assertThat(delta.getRemoved()).containsOnly("c");
+
+		ConfigDelta current = repository.delta("app", "default", "master", "v2");
+		assertThat(current.isFull()).isFalse();
+		assertThat(current.getChanged()).isEmpty();
+		assertThat(current.getRemoved()).isEmpty();
+
+		assertThat(repository.delta("app", "default", "master", "v0").isFull()).isTrue();
+		assertThat(repository.delta("app", "default", "master", null).isFull()).isTrue();
+	}
+
+	@Test
+	public void deltaWithEncryptedValuesIsFull() {
+		CachingEnvironmentRepository repository = repository(this.git);
+		repository.findOne("app", "default", "master");
+		this.git.commit("v2", "a", "{cipher}abc");
+		repository.refresh();
+
+		ConfigDelta delta = repository.delta("app", "default", "master", "v1");
+		assertThat(delta.isFull()).isTrue();
+		assertThat(delta.getVersion()).isEqualTo("v2");
+	}
+
+	@Test
+	public void withoutCommitsRefreshComparesContent() {
+		UnversionedRepository unversioned = new UnversionedRepository(this.git);
+		CachingEnvironmentRepository repository = repository(unversioned);
+		Environment loaded = repository.findOne("app", "default", "master");
+		String version = repository.delta("app", "default", "master", null).getVersion();
+		assertThat(version).isNotNull();
+
+		repository.refresh();
+		assertThat(repository.findOne("app", "default", "master")).isSameAs(loaded);
+
+		this.git.commit(null, "b", "20");
+		repository.refresh();
+		assertThat(repository.findOne("app", "default", "master")).isNotSameAs(loaded);
+		ConfigDelta delta = repository.delta("app", "default", "master", version);
+		assertThat(delta.isFull()).isFalse();
+		assertThat(delta.getChanged()).containsOnly(entry("b", "20"));
+		assertThat(delta.getRemoved()).containsOnly("a", "c");
+	}
+
+	private static CachingEnvironmentRepository repository(EnvironmentRepository delegate) {
+		CachingEnvironmentRepository repository = new CachingEnvironmentRepository(delegate);
+		ReflectionTestUtils.setField(repository, "expireAfterIdleSeconds", 3600L);
+		return repository;
+	}
+
+	/**
+	 * A git repository: {@code findOne} and {@code getLocations} each count as a trip
+	 * to git, and report the commit for the profile.
+	 */
+	private static class GitRepository implements EnvironmentRepository, SearchPathLocator {
+
+		private final AtomicInteger finds = new AtomicInteger();
+
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		private final Map<String, String> versionsByProfile = new ConcurrentHashMap<>();
+
+		private volatile String version;
+
+		private volatile Map<String, Object> properties;
+
+		private volatile CountDownLatch release = new CountDownLatch(0);
+
+		private volatile boolean failing;
+
+		void commit(String version, String... properties) {
+			Map<String, Object> source = new HashMap<>();
+			for (int i = 0; i < properties.length; i += 2) {
+				source.put(properties[i], properties[i + 1]);
+			}
+			this.properties = source;
+			this.version = version;
+		}
+
+		@Override
+		public Environment findOne(String application, String profile, String label) {
+			this.finds.incrementAndGet();
+			try {
+				this.release.await();
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+			if (this.failing) {
+				throw new IllegalStateException("Cannot clone");
+			}
+			Environment environment = new Environment(application, profile);
+			environment.add(new PropertySource("git:" + application + ".yml", this.properties));
+			environment.setVersion(version(profile));
+			return environment;
+		}
+
+		@Override
+		public Locations getLocations(String application, String profile, String label) {
+			this.lookups.incrementAndGet();
+			return new Locations(application, profile, label, version(profile), new String[0]);
+		}
+
+		private String version(String profile) {
+			return this.versionsByProfile.getOrDefault(profile, this.version);
+		}
+	}
+
+	/**
+	 * A repository that cannot tell which version it serves.
+	 */
+	private static class UnversionedRepository implements EnvironmentRepository {
+
+		private final GitRepository git;
+
+		UnversionedRepository(GitRepository git) {
+			this.git = git;
+		}
+
+		@Override
+		public Environment findOne(String application, String profile, String label) {
+			Environment environment = this.git.findOne(application, profile, label);
+			environment.setVersion(null);
+			return environment;
+		}
+	}
+}
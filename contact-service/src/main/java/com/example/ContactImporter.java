@@ -0,0 +1,45 @@
+package com.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports contacts: a CSV header names {@code userId}, {@code firstName},
+ * {@code lastName} and {@code email}, in any order. Parsing, chunking and the JDBC
+ * batches are {@link RowImporter}'s.
+ */
+@Component
+class ContactImporter extends RowImporter<Contact> {
+
+	ContactImporter(@Value("${contact.import.chunk-size:20000}") int chunkSize) {
+		super(Contact.class, "contact", "contacts", chunkSize, "user_id", "first_name", "last_name", "email");
+	}
+
+	@Override
+	String validate(Contact contact) {
+		if (isEmpty(contact.getUserId())) {
+			return "userId is missing";
+		}
+		if (isEmpty(contact.getFirstName()) && isEmpty(contact.getLastName())) {
+			return "firstName and lastName are both missing";
+		}
+		if (!isEmpty(contact.getEmail()) && contact.getEmail().indexOf('@') < 1) {
+			return "email is not an address";
+		}
+		if (tooLong(contact.getUserId()) || tooLong(contact.getFirstName()) || tooLong(contact.getLastName())
+				|| tooLong(contact.getEmail())) {
+			return "fields are limited to " + MAX_LENGTH + " characters";
+		}
+		return null;
+	}
+
+	@Override
+	String userId(Contact contact) {
+		return contact.getUserId();
+	}
+
+	@Override
+	Object[] values(Contact contact) {
+		return new Object[] {contact.getUserId(), contact.getFirstName(), contact.getLastName(), contact.getEmail()};
+	}
+}
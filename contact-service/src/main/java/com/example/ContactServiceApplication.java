@@ -1,22 +1,64 @@
 package com.example;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.cloud.client.SpringCloudApplication;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
 import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.EntityManager;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import javax.persistence.QueryHint;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 @SpringCloudApplication
 public class ContactServiceApplication {
@@ -25,22 +67,83 @@ public class ContactServiceApplication {
 		SpringApplication.run(ContactServiceApplication.class, args);
 	}
 
+	/**
+	 * Offers Smile to clients that ask for it; appended so JSON stays the default.
+	 */
+	@Bean
+	WebMvcConfigurerAdapter smileMessageConverter(Jackson2ObjectMapperBuilder jacksonBuilder) {
+		return new WebMvcConfigurerAdapter() {
+			@Override
+			public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+				converters.add(new SmileHttpMessageConverter(jacksonBuilder));
+			}
+		};
+	}
+
+	/**
+	 * Per-user versions of the contact table, the index they are computed on, and the
+	 * change events carrying them; shared with the other services through service-support.
+	 */
+	@Bean
+	UserVersions userVersions() {
+		return new UserVersions("contact");
+	}
+
+	@Bean
+	UserIdIndex userIdIndex() {
+		return new UserIdIndex("contact");
+	}
+
+	@Bean
+	UserChangePublisher userChangePublisher() {
+		return new UserChangePublisher();
+	}
+
+	/**
+	 * Seeds the sample contacts into an empty database; the H2 file keeps them across restarts.
+	 */
 	@Bean
 	CommandLineRunner init(ContactRepository contactRepository) {
-		return args ->
-				Arrays.asList("Google,Amazon,Yahoo,Myntra,Flipkart".split(",")).forEach(
-						userId ->
-								Arrays.asList("Dave,Syer;Phil,Webb;Juergen,Hoeller".split(";"))
-										.stream()
-										.map(n -> n.split(","))
-										.forEach(name ->
-												contactRepository.save(new Contact(
-												userId, name[0], name[1], name[0].toLowerCase() + "@email.com"))));
+		return args -> {
+			if (contactRepository.count() > 0) {
+				return;
+			}
+			Arrays.asList("Google,Amazon,Yahoo,Myntra,Flipkart".split(",")).forEach(
+					userId ->
+							Arrays.asList("Dave,Syer;Phil,Webb;Juergen,Hoeller".split(";"))
+									.stream()
+									.map(n -> n.split(","))
+									.forEach(name ->
+											contactRepository.save(new Contact(
+											userId, name[0], name[1], name[0].toLowerCase() + "@email.com"))));
+		};
 	}
 }
 
 interface ContactRepository extends JpaRepository<Contact, Long> {
+
+	/**
+	 * With the {@code second-level-cache} profile, the ids found per userId are cached
+	 * in the {@code contact-by-user} region and the entities in {@code contact}, so a
+	 * repeated lookup touches neither the database nor the hydration code. Any write to
+	 * the table through Hibernate invalidates the cached results.
+	 */
+	@QueryHints({
+			@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+			@QueryHint(name = "org.hibernate.cacheRegion", value = "contact-by-user")})
 	Collection<Contact> findByUserId(String userId);
+
+	Collection<Contact> findByUserIdIn(Collection<String> userIds);
+
+	/**
+	 * Keyset page: the next {@code pageable.getPageSize()} rows after {@code afterId},
+	 * served from the {@code (userId, id)} index without an offset scan.
+	 */
+	Slice<Contact> findByUserIdAndIdGreaterThanOrderByIdAsc(String userId, Long afterId, Pageable pageable);
+
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "100"))
+	@Query("select c from Contact c where c.userId = ?1")
+	Stream<Contact> streamByUserId(String userId);
 }
 
 @RestController
@@ -48,26 +151,157 @@ class ContactRestController {
 	@Autowired
 	private ContactRepository contactRepository;
 
-    public Collection<Contact> contactsFallBack(String userId){
-		System.out.println("contactsFallBack");
-        return Arrays.asList();
-    }
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private UserVersions userVersions;
+
+	@Autowired
+	private ContactImporter contactImporter;
+
+	@Autowired
+	private Instrumentation instrumentation;
+
+	@Value("${contact.page.max-size:1000}")
+	private int maxPageSize;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	// a 503, not an empty list that callers would cache as the user's contacts
+    public ResponseEntity<Collection<Contact>> contactsFallBack(String userId, String ifNoneMatch, Throwable cause){
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("contacts", cause)).build();
+	}
 
+	/**
+	 * Answers {@code If-None-Match} with 304 when the user's version is unchanged.
+	 * The ETag is read before the query, so a concurrent change can only make the
+	 * tag older than the body, never newer.
+	 */
 	@HystrixCommand(fallbackMethod = "contactsFallBack")
 	@RequestMapping("/{userId}/contacts")
-	public Collection<Contact> contacts(@PathVariable String userId) {
-		return this.contactRepository.findByUserId(userId);
+	public ResponseEntity<Collection<Contact>> contacts(@PathVariable String userId,
+			@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+		String eTag = this.userVersions.eTag(userId);
+		if (eTag.equals(ifNoneMatch)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		}
+		return ResponseEntity.ok().eTag(eTag).body(this.contactRepository.findByUserId(userId));
+	}
+
+	public ResponseEntity<List<Contact>> contactsPageFallBack(String userId, long after, int size, Throwable cause) {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("contactsPage", cause)).build();
+	}
+
+	/**
+	 * Returns up to {@code size} contacts with ids above {@code after}. When more remain,
+	 * the id to pass as the next {@code after} is sent in the {@code X-Next-Cursor} header.
+	 * A {@code size} outside 1 to {@code contact.page.max-size} is answered with 400.
+	 */
+	@HystrixCommand(fallbackMethod = "contactsPageFallBack")
+	@RequestMapping(value = "/{userId}/contacts", method = RequestMethod.GET, params = "size")
+	public ResponseEntity<List<Contact>> contactsPage(@PathVariable String userId,
+			@RequestParam(value = "after", defaultValue = "0") long after,
+			@RequestParam("size") int size) {
+		if (size < 1 || size > this.maxPageSize) {
+			return ResponseEntity.badRequest().build();
+		}
+		Slice<Contact> page = this.contactRepository.findByUserIdAndIdGreaterThanOrderByIdAsc(
+				userId, after, new PageRequest(0, size));
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+		if (page.hasNext()) {
+			List<Contact> content = page.getContent();
+			response.header("X-Next-Cursor", String.valueOf(content.get(content.size() - 1).getId()));
+		}
+		return response.body(page.getContent());
+	}
+
+	@RequestMapping(value = "/contacts/import", method = RequestMethod.POST, consumes = "text/csv")
+	public long importContactsCsv(HttpServletRequest request) throws IOException {
+		return this.contactImporter.importCsv(request.getReader());
+	}
+
+	@RequestMapping(value = "/contacts/import", method = RequestMethod.POST, consumes = "application/x-ndjson")
+	public long importContactsNdjson(HttpServletRequest request) throws IOException {
+		return this.contactImporter.importNdjson(request.getReader());
+	}
+
+	/**
+	 * Answers a failed import with 400, saying which line failed and how many rows
+	 * were committed before it.
+	 */
+	@ExceptionHandler(ImportException.class)
+	public ResponseEntity<Map<String, Object>> importFailed(ImportException ex) {
+		Map<String, Object> body = new LinkedHashMap<>();
+		body.put("line", ex.getLine());
+		body.put("committed", ex.getCommitted());
+		body.put("message", ex.getMessage());
+		return ResponseEntity.badRequest().body(body);
+	}
+
+	/**
+	 * Writes one contact per line as it is read, detaching each entity once
+	 * written so memory stays flat however many contacts the user has.
+	 */
+	@Transactional(readOnly = true)
+	@RequestMapping(value = "/{userId}/contacts", method = RequestMethod.GET, produces = "application/x-ndjson")
+	public void streamContacts(@PathVariable String userId, HttpServletResponse response) throws IOException {
+		response.setContentType("application/x-ndjson");
+		OutputStream out = response.getOutputStream();
+		try (Stream<Contact> contacts = this.contactRepository.streamByUserId(userId)) {
+			Iterator<Contact> iterator = contacts.iterator();
+			while (iterator.hasNext()) {
+				Contact contact = iterator.next();
+				out.write(this.objectMapper.writeValueAsBytes(contact));
+				out.write('\n');
+				this.entityManager.detach(contact);
+			}
+		}
+		out.flush();
+	}
+
+	public ResponseEntity<Collection<Contact>> contactsForUsersFallBack(List<String> userIds, Throwable cause){
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(Instrumentation.OUTCOME_HEADER, this.instrumentation.fallback("contactsForUsers", cause)).build();
+	}
+
+	/**
+	 * The contacts of all the given users. {@code X-User-Versions} lists each user's
+	 * version, in request order, so callers can cache every user's part under the
+	 * ETag {@code /{userId}/contacts} would send. The versions are read before the query.
+	 * The header grows with the list, so callers send at most a few hundred users at
+	 * a time; passport-service sends 100.
+	 */
+	@HystrixCommand(fallbackMethod = "contactsForUsersFallBack")
+	@RequestMapping(value = "/contacts", method = RequestMethod.POST)
+	public ResponseEntity<Collection<Contact>> contactsForUsers(@RequestBody List<String> userIds) {
+		List<String> versions = this.userVersions.versions(userIds);
+		return ResponseEntity.ok()
+				.header("X-User-Versions", String.join(",", versions))
+				.body(this.contactRepository.findByUserIdIn(userIds));
 	}
 }
 
 @Entity
+@Table(indexes = @Index(name = "idx_contact_user_id_id_version", columnList = "userId,id,version"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "contact")
 class Contact {
 
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "contact_seq")
+	@SequenceGenerator(name = "contact_seq", sequenceName = "contact_seq", allocationSize = 500)
 	private Long id;
 	private String userId, firstName, lastName, email;
 
+	// not serialized; feeds the user's version in UserVersions
+	@Version
+	@Column(columnDefinition = "BIGINT DEFAULT 0 NOT NULL")
+	private long version;
+
 	public Contact() {
 	}
 
@@ -89,6 +323,13 @@ class Contact {
 				'}';
 	}
 
+	@PostPersist
+	@PostUpdate
+	@PostRemove
+	void changed() {
+		UserChangePublisher.changed("contacts", this.userId);
+	}
+
 	public Long getId() {
 		return id;
 	}
@@ -0,0 +1,91 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:mem:contact-import-test;MVCC=TRUE",
+		"spring.jpa.hibernate.ddl-auto=create-drop",
+		"contact.import.chunk-size=2"})
+public class ContactImporterTests {
+
+	@Autowired
+	private ContactImporter contactImporter;
+
+	@Autowired
+	private ContactRepository contactRepository;
+
+	@After
+	public void tearDown() {
+		this.contactRepository.deleteAll();
+	}
+
+	@Test
+	public void csvFieldsMayBeQuotedAndColumnsReordered() throws Exception {
+		long imported = this.contactImporter.importCsv(new StringReader(
+				"email,lastName,firstName,userId\n"
+						+ "dave@example.com,\"Syer, Jr\",Dave,Importer\n"
+						+ ",\"O\"\"Brien\",Phil,Importer\n"));
+
+		assertThat(imported).isEqualTo(2);
+		List<Contact> contacts = contacts("Importer");
+		assertThat(contacts).extracting("firstName").containsExactly("Dave", "Phil");
+		assertThat(contacts).extracting("lastName").containsExactly("Syer, Jr", "O\"Brien");
+		assertThat(contacts).extracting("email").containsExactly("dave@example.com", "");
+	}
+
+	@Test
+	public void invalidRowReportsItsLineAndTheCommittedChunks() throws Exception {
+		try {
+			this.contactImporter.importCsv(new StringReader(
+					"userId,firstName,lastName,email\n"
+							+ "Importer,Dave,Syer,dave@example.com\n"
+							+ "Importer,Phil,Webb,phil@example.com\n"
+							+ "Importer,Juergen,Hoeller,juergen@example.com\n"
+							+ "Importer,Josh,Long,not-an-address\n"));
+			fail("expected an ImportException");
+		}
+		catch (ImportException ex) {
+			assertThat(ex.getLine()).isEqualTo(5);
+			assertThat(ex.getMessage()).contains("email");
+			assertThat(ex.getCommitted()).isEqualTo(2);
+		}
+		assertThat(contacts("Importer")).hasSize(2);
+	}
+
+	@Test
+	public void unknownCsvColumnIsRejected() throws Exception {
+		try {
+			this.contactImporter.importCsv(new StringReader(
+					"userId,firstName,nickName\n"
+							+ "Importer,Dave,dsyer\n"));
+			fail("expected an ImportException");
+		}
+		catch (ImportException ex) {
+			assertThat(ex.getMessage()).contains("nickName");
+			assertThat(ex.getCommitted()).isEqualTo(0);
+		}
+		assertThat(contacts("Importer")).isEmpty();
+	}
+
+	private List<Contact> contacts(String userId) {
+		List<Contact> sorted = new ArrayList<>(this.contactRepository.findByUserId(userId));
+		sorted.sort(Comparator.comparing(Contact::getId));
+		return sorted;
+	}
+}
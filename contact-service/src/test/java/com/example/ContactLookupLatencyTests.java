@@ -0,0 +1,92 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Grows the contact table to {@code lookup.rows} rows (two million by default) in a
+ * file-backed H2 database and checks that {@code findByUserId} stays on the userId
+ * index and under a millisecond at the median.
+ *
+ * Filling the table takes a while and the timing depends on the machine, so the test
+ * only runs when asked for, e.g. {@code mvn test -Dlookup.rows=2000000}. The database
+ * files are deleted once the context closes.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {
+		"spring.cloud.config.enabled=false",
+		"eureka.client.enabled=false",
+		"spring.datasource.url=jdbc:h2:file:${java.io.tmpdir}/contact-lookup-test;MVCC=TRUE;CACHE_SIZE=65536",
+		"spring.jpa.hibernate.ddl-auto=create"})
+@DirtiesContext
+public class ContactLookupLatencyTests {
+
+	private static final int ROWS = Integer.getInteger("lookup.rows", 0);
+
+	private static final int ROWS_PER_USER = 4;
+
+	private static final int BATCH = 100_000;
+
+	// above the ids the sequence hands out to the sample data
+	private static final long FIRST_ID = 1_000_000_000L;
+
+	@Autowired
+	private ContactRepository contactRepository;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@BeforeClass
+	public static void onlyWhenAskedFor() {
+		Assume.assumeTrue("set -Dlookup.rows to run", ROWS > 0);
+	}
+
+	@After
+	public void deleteDatabase() {
+		// H2 removes the files when the last connection closes, with the context
+		this.jdbcTemplate.execute("DROP ALL OBJECTS DELETE FILES");
+	}
+
+	@Test
+	public void findByUserIdStaysSubMillisecond() {
+		for (long from = 0; from < ROWS; from += BATCH) {
+			this.jdbcTemplate.update("INSERT INTO contact (id, user_id, first_name, last_name, email) "
+					+ "SELECT x, 'user-' || ((x - ?) / ?), 'First' || x, 'Last' || x, x || '@email.com' FROM SYSTEM_RANGE(?, ?)",
+					FIRST_ID, ROWS_PER_USER, FIRST_ID + from, FIRST_ID + Math.min(from + BATCH, ROWS) - 1);
+		}
+		this.jdbcTemplate.execute("ANALYZE");
+		assertThat(this.jdbcTemplate.queryForObject("EXPLAIN SELECT * FROM contact WHERE user_id = 'user-1'", String.class))
+				.containsIgnoringCase("idx_contact_user_id_id_version");
+
+		int users = ROWS / ROWS_PER_USER;
+		Random random = new Random(0);
+		for (int i = 0; i < 5_000; i++) {
+			this.contactRepository.findByUserId("user-" + random.nextInt(users));
+		}
+		long[] nanos = new long[1_000];
+		for (int i = 0; i < nanos.length; i++) {
+			String userId = "user-" + random.nextInt(users);
+			long start = System.nanoTime();
+			Collection<Contact> contacts = this.contactRepository.findByUserId(userId);
+			nanos[i] = System.nanoTime() - start;
+			assertThat(contacts).hasSize(ROWS_PER_USER);
+		}
+		Arrays.sort(nanos);
+		assertThat(nanos[nanos.length / 2]).isLessThan(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+}
@@ -0,0 +1,75 @@
+package com.example;
+
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.discovery.shared.Application;
+import com.netflix.eureka.registry.PeerAwareInstanceRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compact view of the registry: the {@code host:port} of every UP instance per
+ * application, and a digest of exactly those entries as version and ETag. The
+ * registry's own apps hash code only counts instances per status, so it would stay
+ * the same when an instance is replaced by one at another address.
+ *
+ * A few hundred instances fit in a few kilobytes, against the full
+ * {@code /eureka/apps} document with its per-instance metadata, leases and data
+ * center info. A client that still has the current version gets a 304 with no body.
+ * It is the same shape clients persist as their registry snapshot.
+ */
+@RestController
+class RegistrySnapshotController {
+
+	@Autowired
+	private PeerAwareInstanceRegistry registry;
+
+	@GetMapping("/registry/snapshot")
+	public ResponseEntity<Map<String, Object>> snapshot(
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		Map<String, List<String>> apps = new TreeMap<>();
+		for (Application application : this.registry.getApplications().getRegisteredApplications()) {
+			List<String> instances = new ArrayList<>();
+			for (InstanceInfo instance : application.getInstances()) {
+				if (instance.getStatus() == InstanceInfo.InstanceStatus.UP) {
+					instances.add(instance.getHostName() + ":" + instance.getPort());
+				}
+			}
+			if (!instances.isEmpty()) {
+				Collections.sort(instances);
+				apps.put(application.getName(), instances);
+			}
+		}
+		String version = version(apps);
+		String eTag = "\"" + version + "\"";
+		if (eTag.equals(ifNoneMatch)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).build();
+		}
+		Map<String, Object> snapshot = new TreeMap<>();
+		snapshot.put("version", version);
+		snapshot.put("apps", apps);
+		return ResponseEntity.ok().eTag(eTag).body(snapshot);
+	}
+
+	/**
+	 * MD5 of the sorted application and {@code host:port} entries.
+	 */
+	static String version(Map<String, List<String>> apps) {
+		StringBuilder content = new StringBuilder();
+		apps.forEach((name, instances) -> content.append(name).append('=')
+				.append(String.join(",", instances)).append('\n'));
+		return DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+}
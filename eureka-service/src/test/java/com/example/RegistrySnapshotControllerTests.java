@@ -0,0 +1,146 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.appinfo.DataCenterInfo;
+import com.netflix.appinfo.InstanceInfo;
+import com.netflix.appinfo.LeaseInfo;
+import com.netflix.appinfo.MyDataCenterInfo;
+import com.netflix.discovery.converters.wrappers.CodecWrappers;
+import com.netflix.discovery.shared.Application;
+import com.netflix.discovery.shared.Applications;
+import com.netflix.eureka.registry.PeerAwareInstanceRegistry;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class RegistrySnapshotControllerTests {
+
+	private static final Log logger = LogFactory.getLog(RegistrySnapshotControllerTests.class);
+
+	private static final int INSTANCES = 1000;
+
+	private static final int APPLICATIONS = 10;
+
+	private final Applications applications = new Applications();
+
+	private final RegistrySnapshotController controller = new RegistrySnapshotController();
+
+	@Before
+	public void setUp() {
+		for (int i = 0; i < INSTANCES; i++) {
+			String appName = "SERVICE-" + (i % APPLICATIONS);
+			Application application = this.applications.getRegisteredApplications(appName);
+			if (application == null) {
+				application = new Application(appName);
+				this.applications.addApplication(application);
+			}
+			// one in a hundred is going down and must not be routed to
+			application.addInstance(instance(appName, i,
+					i % 100 == 99 ? InstanceInfo.InstanceStatus.DOWN : InstanceInfo.InstanceStatus.UP));
+		}
+		this.applications.setAppsHashCode(this.applications.getReconcileHashCode());
+		PeerAwareInstanceRegistry registry = mock(PeerAwareInstanceRegistry.class);
+		given(registry.getApplications()).willReturn(this.applications);
+		ReflectionTestUtils.setField(this.controller, "registry", registry);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void snapshotIsAFractionOfTheFullRegistry() throws IOException {
+		ResponseEntity<Map<String, Object>> response = this.controller.snapshot(null);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(response.getHeaders().getETag()).isEqualTo("\"" + response.getBody().get("version") + "\"");
+		Map<String, List<String>> apps = (Map<String, List<String>>) response.getBody().get("apps");
+		assertThat(apps).hasSize(APPLICATIONS);
+		assertThat(apps.values().stream().mapToInt(List::size).sum()).isEqualTo(INSTANCES - INSTANCES / 100);
+
+		byte[] full = new CodecWrappers.JacksonJson().encode(this.applications).getBytes(StandardCharsets.UTF_8);
+		byte[] snapshot = new ObjectMapper().writeValueAsBytes(response.getBody());
+		logger.info(String.format("%d instances: full registry=%d bytes (%d gzipped), snapshot=%d bytes (%d gzipped)",
+				INSTANCES, full.length, gzip(full), snapshot.length, gzip(snapshot)));
+		assertThat(snapshot.length).isLessThan(full.length / 20);
+		assertThat(gzip(snapshot)).isLessThan(gzip(full) / 10);
+	}
+
+	@Test
+	public void unchangedRegistryIsAnsweredWith304() {
+		String eTag = this.controller.snapshot(null).getHeaders().getETag();
+		ResponseEntity<Map<String, Object>> response = this.controller.snapshot(eTag);
+		assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+		assertThat(response.getBody()).isNull();
+		assertThat(this.controller.snapshot("\"0\"").getStatusCode()).isEqualTo(HttpStatus.OK);
+	}
+
+	@Test
+	public void replacedInstanceChangesTheVersion() {
+		ResponseEntity<Map<String, Object>> before = this.controller.snapshot(null);
+		String eTag = before.getHeaders().getETag();
+		String appsHashCode = this.applications.getAppsHashCode();
+
+		// same application, same count and status: only the address differs
+		Application application = this.applications.getRegisteredApplications("SERVICE-3");
+		InstanceInfo replaced = application.getInstances().get(0);
+		application.removeInstance(replaced);
+		application.addInstance(instance("SERVICE-3", INSTANCES + 3, InstanceInfo.InstanceStatus.UP));
+		this.applications.setAppsHashCode(this.applications.getReconcileHashCode());
+		// which the registry's own hash code cannot tell
+		assertThat(this.applications.getAppsHashCode()).isEqualTo(appsHashCode);
+
+		ResponseEntity<Map<String, Object>> after = this.controller.snapshot(eTag);
+		assertThat(after.getStatusCode()).isEqualTo(HttpStatus.OK);
+		assertThat(after.getHeaders().getETag()).isNotEqualTo(eTag);
+		assertThat(after.getBody().get("version")).isNotEqualTo(before.getBody().get("version"));
+	}
+
+	@Test
+	public void versionDoesNotDependOnInstanceOrder() {
+		String eTag = this.controller.snapshot(null).getHeaders().getETag();
+		Application application = this.applications.getRegisteredApplications("SERVICE-3");
+		InstanceInfo first = application.getInstances().get(0);
+		application.removeInstance(first);
+		application.addInstance(first);
+		assertThat(this.controller.snapshot(eTag).getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+	}
+
+	private static InstanceInfo instance(String appName, int i, InstanceInfo.InstanceStatus status) {
+		String host = "10.0." + (i / 250) + "." + (i % 250 + 1);
+		return InstanceInfo.Builder.newBuilder()
+				.setAppName(appName)
+				.setInstanceId(host + ":" + appName.toLowerCase() + ":8080")
+				.setHostName(host)
+				.setIPAddr(host)
+				.setPort(8080)
+				.setVIPAddress(appName.toLowerCase())
+				.setSecureVIPAddress(appName.toLowerCase())
+				.setStatus(status)
+				.setDataCenterInfo(new MyDataCenterInfo(DataCenterInfo.Name.MyOwn))
+				.setLeaseInfo(LeaseInfo.Builder.newBuilder().build())
+				.setHomePageUrl("/", null)
+				.setStatusPageUrl("/info", null)
+				.setHealthCheckUrls("/health", null, null)
+				.build();
+	}
+
+	private static int gzip(byte[] bytes) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(bytes);
+		}
+		return out.size();
+	}
+}
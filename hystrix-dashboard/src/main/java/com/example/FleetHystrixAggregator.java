@@ -0,0 +1,279 @@
+package com.example;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Fleet-wide view of the {@code hystrix.stream} of every instance: one entry per
+ * command and thread pool, with the counters of all instances summed and the
+ * latency percentiles taken from a merged histogram rather than averaged.
+ *
+ * Only the latest report of each instance is kept, and instances that stop
+ * reporting drop out after {@code dashboard.aggregator.stale-seconds}, so memory
+ * follows the number of live instances and commands, not the traffic. Instances
+ * only publish percentiles, not their histograms: each percentile interval of an
+ * instance is recorded into a fixed-size HdrHistogram with its share of that
+ * instance's requests, so a few slow instances move the fleet's tail the way
+ * their requests do.
+ *
+ * The aggregate is rebuilt every {@code dashboard.aggregator.publish-millis} and
+ * handed to the listeners serving it.
+ */
+@Component
+class FleetHystrixAggregator {
+
+	private static final Log logger = LogFactory.getLog(FleetHystrixAggregator.class);
+
+	static final String[] PERCENTILES = {"0", "25", "50", "75", "90", "95", "99", "99.5", "100"};
+
+	private static final double[] PERCENTILE_VALUES = {0, 25, 50, 75, 90, 95, 99, 99.5, 100};
+
+	private static final String[] LATENCIES = {"latencyExecute", "latencyTotal"};
+
+	private static final long HIGHEST_LATENCY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+	private static final TypeReference<Map<String, Object>> REPORT = new TypeReference<Map<String, Object>>() {};
+
+	@Value("${dashboard.aggregator.stale-seconds:10}")
+	private long staleSeconds = 10;
+
+	@Value("${dashboard.aggregator.publish-millis:1000}")
+	private long publishMillis = 1000;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	// "HystrixCommand:getBookmarks" -> instance -> latest report
+	private final Map<String, Map<String, Report>> reports = new ConcurrentHashMap<>();
+
+	private final Histogram histogram = new Histogram(HIGHEST_LATENCY_MILLIS, 2);
+
+	private final List<Consumer<List<Map<String, Object>>>> listeners = new CopyOnWriteArrayList<>();
+
+	private final AtomicLong events = new AtomicLong();
+
+	private final AtomicLong malformedEvents = new AtomicLong();
+
+	private volatile List<Map<String, Object>> fleet = Collections.emptyList();
+
+	private ScheduledExecutorService publisher;
+
+	@PostConstruct
+	void start() {
+		this.publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hystrix-fleet-publisher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.publisher.scheduleAtFixedRate(() -> {
+			try {
+				this.fleet = aggregate(System.currentTimeMillis());
+				this.listeners.forEach(listener -> listener.accept(this.fleet));
+			}
+			catch (RuntimeException ex) {
+				logger.warn("Hystrix fleet aggregation failed", ex);
+			}
+		}, this.publishMillis, this.publishMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		if (this.publisher != null) {
+			this.publisher.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads an instance's {@code text/event-stream} until it ends.
+	 */
+	void consume(String instance, BufferedReader reader) throws IOException {
+		String line;
+		while (!Thread.currentThread().isInterrupted() && (line = reader.readLine()) != null) {
+			if (line.startsWith("data:")) {
+				accept(instance, line.substring("data:".length()).trim());
+			}
+		}
+	}
+
+	/**
+	 * Takes one report; anything but a command or thread pool report is ignored.
+	 */
+	void accept(String instance, String json) {
+		Map<String, Object> data;
+		try {
+			data = this.objectMapper.readValue(json, REPORT);
+		}
+		catch (IOException ex) {
+			this.malformedEvents.incrementAndGet();
+			return;
+		}
+		this.events.incrementAndGet();
+		Object type = data.get("type");
+		if ("HystrixCommand".equals(type) || "HystrixThreadPool".equals(type)) {
+			this.reports.computeIfAbsent(type + ":" + data.get("name"), key -> new ConcurrentHashMap<>())
+					.put(instance, new Report(System.currentTimeMillis(), data));
+		}
+	}
+
+	void addListener(Consumer<List<Map<String, Object>>> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * The aggregate as of the last publish.
+	 */
+	List<Map<String, Object>> fleet() {
+		return this.fleet;
+	}
+
+	long events() {
+		return this.events.get();
+	}
+
+	long malformedEvents() {
+		return this.malformedEvents.get();
+	}
+
+	/**
+	 * Drops reports older than the stale period and merges the rest, one map per
+	 * command or thread pool in the shape of a single instance's report.
+	 */
+	synchronized List<Map<String, Object>> aggregate(long now) {
+		long staleBefore = now - TimeUnit.SECONDS.toMillis(this.staleSeconds);
+		List<Map<String, Object>> fleet = new ArrayList<>();
+		Iterator<Map<String, Report>> entries = this.reports.values().iterator();
+		while (entries.hasNext()) {
+			Map<String, Report> byInstance = entries.next();
+			byInstance.values().removeIf(report -> report.receivedAt < staleBefore);
+			if (byInstance.isEmpty()) {
+				entries.remove();
+				continue;
+			}
+			fleet.add(merge(byInstance.values()));
+		}
+		return fleet;
+	}
+
+	private Map<String, Object> merge(Collection<Report> reports) {
+		Map<String, Object> merged = new LinkedHashMap<>();
+		for (Report report : reports) {
+			for (Map.Entry<String, Object> field : report.data.entrySet()) {
+				if (field.getValue() == null) {
+					continue;
+				}
+				merged.merge(field.getKey(), field.getValue(), FleetHystrixAggregator::combine);
+			}
+		}
+		merged.put("reportingHosts", reports.size());
+		merged.put("currentTime", reports.stream().mapToLong(report -> asLong(report.data.get("currentTime"))).max().getAsLong());
+		if ("HystrixCommand".equals(merged.get("type"))) {
+			long requests = asLong(merged.get("requestCount"));
+			merged.put("errorPercentage", requests == 0 ? 0 : asLong(merged.get("errorCount")) * 100 / requests);
+			for (String latency : LATENCIES) {
+				merged.put(latency + "_mean", weightedMean(reports, latency + "_mean"));
+				merged.put(latency, percentiles(reports, latency));
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Numbers are summed, as Turbine does, flags are true if any instance's is, and
+	 * anything else keeps the first instance's value.
+	 */
+	private static Object combine(Object first, Object second) {
+		if (first instanceof Number && second instanceof Number) {
+			if (isIntegral(first) && isIntegral(second)) {
+				return ((Number) first).longValue() + ((Number) second).longValue();
+			}
+			return ((Number) first).doubleValue() + ((Number) second).doubleValue();
+		}
+		if (first instanceof Boolean && second instanceof Boolean) {
+			return (Boolean) first || (Boolean) second;
+		}
+		return first;
+	}
+
+	private static long weightedMean(Collection<Report> reports, String field) {
+		long requests = 0;
+		long total = 0;
+		for (Report report : reports) {
+			long weight = asLong(report.data.get("requestCount"));
+			requests += weight;
+			total += weight * asLong(report.data.get(field));
+		}
+		return requests == 0 ? 0 : total / requests;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Long> percentiles(Collection<Report> reports, String field) {
+		this.histogram.reset();
+		for (Report report : reports) {
+			long weight = asLong(report.data.get("requestCount"));
+			Object latency = report.data.get(field);
+			if (weight == 0 || !(latency instanceof Map)) {
+				continue;
+			}
+			Map<String, Object> values = (Map<String, Object>) latency;
+			for (int i = 1; i < PERCENTILES.length; i++) {
+				// intervals are multiples of half a percent, so this is a whole number of requests
+				long count = Math.round((PERCENTILE_VALUES[i] - PERCENTILE_VALUES[i - 1]) * 2) * weight;
+				long value = Math.min(Math.max(asLong(values.get(PERCENTILES[i])), 0), HIGHEST_LATENCY_MILLIS);
+				this.histogram.recordValueWithCount(value, count);
+			}
+		}
+		Map<String, Long> percentiles = new LinkedHashMap<>();
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			long value = 0;
+			if (this.histogram.getTotalCount() > 0) {
+				value = i == 0 ? this.histogram.getMinValue()
+						: i == PERCENTILES.length - 1 ? this.histogram.getMaxValue()
+						: this.histogram.getValueAtPercentile(PERCENTILE_VALUES[i]);
+			}
+			percentiles.put(PERCENTILES[i], value);
+		}
+		return percentiles;
+	}
+
+	private static boolean isIntegral(Object number) {
+		return number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte;
+	}
+
+	private static long asLong(Object value) {
+		return value instanceof Number ? ((Number) value).longValue() : 0;
+	}
+
+	private static class Report {
+
+		private final long receivedAt;
+		private final Map<String, Object> data;
+
+		Report(long receivedAt, Map<String, Object> data) {
+			this.receivedAt = receivedAt;
+			this.data = data;
+		}
+	}
+}
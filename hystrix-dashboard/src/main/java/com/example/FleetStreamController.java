@@ -0,0 +1,172 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serves the {@link FleetHystrixAggregator} aggregate: {@code /fleet.stream} as one
+ * stream the dashboard can monitor in place of a stream per instance, and
+ * {@code /prometheus} in the Prometheus text format.
+ *
+ * The dashboard divides error percentages, means and latency percentiles by
+ * {@code reportingHosts}, expecting Turbine's sums, so the stream carries those
+ * multiplied back up; {@code /prometheus} has the real values.
+ */
+@RestController
+class FleetStreamController {
+
+	private static final Log logger = LogFactory.getLog(FleetStreamController.class);
+
+	private static final String[] SCALED = {"errorPercentage", "latencyExecute_mean", "latencyTotal_mean"};
+
+	private static final String[] COMMAND_EVENTS = {"Success", "Failure", "Timeout", "ShortCircuited",
+			"ThreadPoolRejected", "SemaphoreRejected", "FallbackSuccess", "FallbackFailure", "ResponsesFromCache"};
+
+	@Autowired
+	private FleetHystrixAggregator aggregator;
+
+	@Autowired
+	private HystrixInstanceStreams streams;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+	@PostConstruct
+	void start() {
+		this.aggregator.addListener(this::publish);
+	}
+
+	@GetMapping("/fleet.stream")
+	public SseEmitter stream() {
+		SseEmitter emitter = new SseEmitter(0L);
+		emitter.onCompletion(() -> this.emitters.remove(emitter));
+		emitter.onTimeout(() -> this.emitters.remove(emitter));
+		this.emitters.add(emitter);
+		return emitter;
+	}
+
+	/**
+	 * Writes each entry once and sends the same text to every subscriber.
+	 */
+	private void publish(List<Map<String, Object>> fleet) {
+		if (this.emitters.isEmpty()) {
+			return;
+		}
+		List<String> events = new ArrayList<>();
+		for (Map<String, Object> entry : fleet) {
+			try {
+				events.add(this.objectMapper.writeValueAsString(forDashboard(entry)));
+			}
+			catch (JsonProcessingException ex) {
+				logger.warn("Unable to write fleet entry " + entry.get("name"), ex);
+			}
+		}
+		for (SseEmitter emitter : this.emitters) {
+			try {
+				for (String event : events) {
+					emitter.send(SseEmitter.event().data(event));
+				}
+			}
+			catch (IOException | IllegalStateException ex) {
+				this.emitters.remove(emitter);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> forDashboard(Map<String, Object> entry) {
+		if (!"HystrixCommand".equals(entry.get("type"))) {
+			return entry;
+		}
+		long hosts = ((Number) entry.get("reportingHosts")).longValue();
+		Map<String, Object> scaled = new LinkedHashMap<>(entry);
+		for (String field : SCALED) {
+			scaled.put(field, ((Number) entry.get(field)).longValue() * hosts);
+		}
+		for (String latency : new String[] {"latencyExecute", "latencyTotal"}) {
+			Map<String, Long> percentiles = new LinkedHashMap<>();
+			((Map<String, Long>) entry.get(latency)).forEach((percentile, value) -> percentiles.put(percentile, value * hosts));
+			scaled.put(latency, percentiles);
+		}
+		return scaled;
+	}
+
+	@GetMapping(value = "/prometheus", produces = "text/plain; version=0.0.4; charset=utf-8")
+	public String prometheus() {
+		Map<String, StringBuilder> metrics = new LinkedHashMap<>();
+		for (Map<String, Object> entry : this.aggregator.fleet()) {
+			if ("HystrixCommand".equals(entry.get("type"))) {
+				String labels = "command=\"" + escape(entry.get("name")) + "\",group=\"" + escape(entry.get("group")) + "\"";
+				sample(metrics, "hystrix_command_requests", labels, entry.get("requestCount"));
+				sample(metrics, "hystrix_command_errors", labels, entry.get("errorCount"));
+				sample(metrics, "hystrix_command_error_percentage", labels, entry.get("errorPercentage"));
+				for (String event : COMMAND_EVENTS) {
+					sample(metrics, "hystrix_command_events", labels + ",event=\"" + snakeCase(event) + "\"",
+							entry.get("rollingCount" + event));
+				}
+				sample(metrics, "hystrix_command_circuit_open", labels,
+						Boolean.TRUE.equals(entry.get("isCircuitBreakerOpen")) ? 1 : 0);
+				sample(metrics, "hystrix_command_reporting_hosts", labels, entry.get("reportingHosts"));
+				latencies(metrics, "hystrix_command_latency_execute_millis", labels, entry.get("latencyExecute"));
+				latencies(metrics, "hystrix_command_latency_total_millis", labels, entry.get("latencyTotal"));
+			}
+			else if ("HystrixThreadPool".equals(entry.get("type"))) {
+				String labels = "pool=\"" + escape(entry.get("name")) + "\"";
+				sample(metrics, "hystrix_threadpool_active_threads", labels, entry.get("currentActiveCount"));
+				sample(metrics, "hystrix_threadpool_queue_size", labels, entry.get("currentQueueSize"));
+				sample(metrics, "hystrix_threadpool_pool_size", labels, entry.get("currentPoolSize"));
+				sample(metrics, "hystrix_threadpool_executions", labels, entry.get("rollingCountThreadsExecuted"));
+				sample(metrics, "hystrix_threadpool_rejections", labels, entry.get("rollingCountCommandRejections"));
+				sample(metrics, "hystrix_threadpool_reporting_hosts", labels, entry.get("reportingHosts"));
+			}
+		}
+		sample(metrics, "hystrix_fleet_streams", "state=\"subscribed\"", this.streams.subscribed());
+		sample(metrics, "hystrix_fleet_streams", "state=\"connected\"", this.streams.connected());
+
+		StringBuilder text = new StringBuilder();
+		metrics.forEach((name, samples) -> text.append("# TYPE ").append(name).append(" gauge\n").append(samples));
+		text.append("# TYPE hystrix_fleet_events_total counter\n")
+				.append("hystrix_fleet_events_total ").append(this.aggregator.events()).append('\n')
+				.append("# TYPE hystrix_fleet_malformed_events_total counter\n")
+				.append("hystrix_fleet_malformed_events_total ").append(this.aggregator.malformedEvents()).append('\n');
+		return text.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void latencies(Map<String, StringBuilder> metrics, String name, String labels, Object latency) {
+		if (latency instanceof Map) {
+			((Map<String, Object>) latency).forEach((percentile, value) -> sample(metrics, name,
+					labels + ",quantile=\"" + Double.parseDouble(percentile) / 100 + "\"", value));
+		}
+	}
+
+	private static void sample(Map<String, StringBuilder> metrics, String name, String labels, Object value) {
+		if (value instanceof Number) {
+			metrics.computeIfAbsent(name, key -> new StringBuilder())
+					.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+		}
+	}
+
+	private static String snakeCase(String event) {
+		return event.replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase();
+	}
+
+	private static String escape(Object value) {
+		return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,146 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps one {@code hystrix.stream} subscription open to every instance Eureka lists
+ * for {@code dashboard.aggregator.services}, feeding {@link FleetHystrixAggregator}.
+ *
+ * Instances are reconciled against the registry every
+ * {@code dashboard.aggregator.reconcile-seconds}: new ones are subscribed, gone ones
+ * dropped, and streams that ended are reconnected. Hystrix pings an idle stream, so
+ * one silent for the read timeout is treated as dead.
+ */
+@Component
+class HystrixInstanceStreams {
+
+	private static final Log logger = LogFactory.getLog(HystrixInstanceStreams.class);
+
+	@Autowired
+	private DiscoveryClient discoveryClient;
+
+	@Autowired
+	private FleetHystrixAggregator aggregator;
+
+	@Value("${dashboard.aggregator.services:passport-service,bookmark-service,contact-service}")
+	private String[] services;
+
+	@Value("${dashboard.aggregator.stream-path:/hystrix.stream}")
+	private String streamPath;
+
+	@Value("${dashboard.aggregator.reconcile-seconds:30}")
+	private long reconcileSeconds;
+
+	@Value("${dashboard.aggregator.read-timeout-seconds:10}")
+	private int readTimeoutSeconds;
+
+	// stream uri -> the task reading it
+	private final Map<String, Future<?>> streams = new ConcurrentHashMap<>();
+
+	private final AtomicInteger connected = new AtomicInteger();
+
+	private final AtomicInteger threads = new AtomicInteger();
+
+	// a stream holds its thread for as long as it is open
+	private final ExecutorService readers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "hystrix-stream-" + this.threads.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private ScheduledExecutorService reconciler;
+
+	@PostConstruct
+	void start() {
+		this.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hystrix-stream-reconciler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.reconciler.scheduleWithFixedDelay(() -> {
+			try {
+				reconcile();
+			}
+			catch (RuntimeException ex) {
+				logger.warn("Hystrix stream reconciliation failed", ex);
+			}
+		}, 0, this.reconcileSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	void stop() {
+		this.reconciler.shutdownNow();
+		this.readers.shutdownNow();
+	}
+
+	private void reconcile() {
+		Map<String, String> current = new HashMap<>();
+		for (String service : this.services) {
+			for (ServiceInstance instance : this.discoveryClient.getInstances(service)) {
+				current.put(instance.getUri() + this.streamPath, service + "@" + instance.getHost() + ":" + instance.getPort());
+			}
+		}
+		this.streams.entrySet().removeIf(stream -> {
+			boolean gone = !current.containsKey(stream.getKey());
+			if (gone) {
+				stream.getValue().cancel(true);
+			}
+			return gone || stream.getValue().isDone();
+		});
+		current.forEach((uri, instance) -> this.streams.computeIfAbsent(uri,
+				key -> this.readers.submit(() -> subscribe(uri, instance))));
+	}
+
+	private void subscribe(String uri, String instance) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+			connection.setConnectTimeout((int) TimeUnit.SECONDS.toMillis(this.readTimeoutSeconds));
+			connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(this.readTimeoutSeconds));
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+				this.connected.incrementAndGet();
+				try {
+					this.aggregator.consume(instance, reader);
+				}
+				finally {
+					this.connected.decrementAndGet();
+				}
+			}
+		}
+		catch (IOException ex) {
+			logger.info("Hystrix stream " + uri + " closed: " + ex.getMessage());
+		}
+	}
+
+	int subscribed() {
+		return this.streams.size();
+	}
+
+	int connected() {
+		return this.connected.get();
+	}
+}
@@ -0,0 +1,107 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class FleetHystrixAggregatorTests {
+
+	private static final int INSTANCES = 200;
+
+	private static final int SLOW_INSTANCES = 10;
+
+	private static final int REPORTS = 5;
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void mergesManyInstanceStreams() throws Exception {
+		FleetHystrixAggregator aggregator = new FleetHystrixAggregator();
+		ExecutorService executor = Executors.newFixedThreadPool(32);
+		List<Callable<Void>> streams = new ArrayList<>();
+		for (int i = 0; i < INSTANCES; i++) {
+			String instance = "bookmark-service@10.0.0." + i + ":8080";
+			String stream = stream(i < SLOW_INSTANCES ? 1000 : 10, i == 0);
+			streams.add(() -> {
+				aggregator.consume(instance, new BufferedReader(new StringReader(stream)));
+				return null;
+			});
+		}
+		for (Future<Void> future : executor.invokeAll(streams)) {
+			future.get();
+		}
+		executor.shutdown();
+
+		List<Map<String, Object>> fleet = aggregator.aggregate(System.currentTimeMillis());
+		assertThat(fleet).hasSize(2);
+		Map<String, Object> command = entry(fleet, "HystrixCommand");
+		// only the latest report of each instance counts
+		assertThat(command.get("reportingHosts")).isEqualTo(INSTANCES);
+		assertThat(command.get("requestCount")).isEqualTo(10L * INSTANCES);
+		assertThat(command.get("errorCount")).isEqualTo((long) INSTANCES);
+		assertThat(command.get("errorPercentage")).isEqualTo(10L);
+		assertThat(command.get("latencyExecute_mean")).isEqualTo(59L);
+
+		// 5% of requests take a second: averaging per-instance percentiles would say 59ms
+		Map<String, Long> latency = (Map<String, Long>) command.get("latencyExecute");
+		assertThat(latency.get("50")).isCloseTo(10L, within(1L));
+		assertThat(latency.get("90")).isCloseTo(10L, within(1L));
+		assertThat(latency.get("99")).isCloseTo(1000L, within(10L));
+		assertThat(latency.get("100")).isCloseTo(1000L, within(10L));
+
+		Map<String, Object> pool = entry(fleet, "HystrixThreadPool");
+		assertThat(pool.get("currentActiveCount")).isEqualTo(2L * INSTANCES);
+		assertThat(aggregator.events()).isEqualTo(2L * REPORTS * INSTANCES);
+		assertThat(aggregator.malformedEvents()).isEqualTo(1L);
+
+		// instances that stop reporting drop out
+		assertThat(aggregator.aggregate(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(11))).isEmpty();
+	}
+
+	private static String stream(long latencyMillis, boolean malformed) {
+		StringBuilder stream = new StringBuilder();
+		for (int report = 1; report <= REPORTS; report++) {
+			stream.append("ping: \n\n");
+			stream.append("data: {\"type\":\"HystrixCommand\",\"name\":\"getBookmarks\",\"group\":\"BookmarkClient\",")
+					.append("\"currentTime\":").append(System.currentTimeMillis())
+					.append(",\"isCircuitBreakerOpen\":false,\"requestCount\":").append(report * 2)
+					.append(",\"errorCount\":").append(report / REPORTS)
+					.append(",\"errorPercentage\":").append(report / REPORTS * 100 / (report * 2))
+					.append(",\"rollingCountSuccess\":").append(report * 2 - report / REPORTS)
+					.append(",\"latencyExecute_mean\":").append(latencyMillis)
+					.append(",\"latencyExecute\":").append(percentiles(latencyMillis))
+					.append(",\"latencyTotal_mean\":").append(latencyMillis)
+					.append(",\"latencyTotal\":").append(percentiles(latencyMillis))
+					.append(",\"propertyValue_executionIsolationStrategy\":\"THREAD\",\"reportingHosts\":1}\n\n");
+			stream.append("data: {\"type\":\"HystrixThreadPool\",\"name\":\"BookmarkClient\",\"currentTime\":")
+					.append(System.currentTimeMillis()).append(",\"currentActiveCount\":2,\"reportingHosts\":1}\n\n");
+			if (malformed && report == 1) {
+				stream.append("data: {\"type\":\"HystrixCommand\n\n");
+			}
+		}
+		return stream.toString();
+	}
+
+	private static String percentiles(long latencyMillis) {
+		StringBuilder percentiles = new StringBuilder("{");
+		for (String percentile : FleetHystrixAggregator.PERCENTILES) {
+			percentiles.append(percentiles.length() > 1 ? "," : "").append('"').append(percentile).append("\":").append(latencyMillis);
+		}
+		return percentiles.append('}').toString();
+	}
+
+	private static Map<String, Object> entry(List<Map<String, Object>> fleet, String type) {
+		return fleet.stream().filter(entry -> type.equals(entry.get("type"))).findFirst().get();
+	}
+}
@@ -0,0 +1,390 @@
+package com.example;
+
+import com.netflix.util.Pair;
+import com.netflix.zuul.ZuulFilter;
+import com.netflix.zuul.context.RequestContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of proxied GET responses, keyed on route, path, query and
+ * {@code Accept} header. Concurrent misses for the same key are coalesced: the
+ * first request goes upstream and the others wait for its response.
+ *
+ * A change event for a user, see {@link UserChangeSubscriber}, drops every entry
+ * with that userId as a path segment, and keeps a response that was already in
+ * flight when the event arrived from being stored.
+ */
+@Component
+class EdgeResponseCache implements PublicMetrics {
+
+	@Value("${passport.edge-cache.max-entries:1000}")
+	private int maxEntries;
+
+	@Value("${passport.edge-cache.default-ttl-seconds:5}")
+	private long defaultTtlSeconds;
+
+	@Value("${passport.edge-cache.coalesce-timeout-millis:2000}")
+	private long coalesceTimeoutMillis;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	private final ConcurrentMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+
+	// userId -> System.nanoTime() of its last change event
+	private final ConcurrentMap<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+	private final LinkedHashMap<String, CachedResponse> entries =
+			new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+					if (size() > maxEntries) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+
+	static String keyFor(RequestContext ctx) {
+		HttpServletRequest request = ctx.getRequest();
+		return ctx.get("proxy") + " " + request.getRequestURI() + "?" + request.getQueryString()
+				+ " " + request.getHeader("Accept");
+	}
+
+	synchronized CachedResponse get(String key) {
+		CachedResponse response = this.entries.get(key);
+		if (response != null && response.isExpired()) {
+			this.entries.remove(key);
+			response = null;
+		}
+		(response != null ? this.hits : this.misses).incrementAndGet();
+		return response;
+	}
+
+	/**
+	 * Registers the caller as the request going upstream for {@code key}. Returns
+	 * {@code null} if it is, or the pending response of the request that already is.
+	 */
+	CompletableFuture<CachedResponse> lead(String key) {
+		return this.inFlight.putIfAbsent(key, new CompletableFuture<>());
+	}
+
+	/**
+	 * Waits for the leading request; {@code null} means the caller must go upstream itself.
+	 * A leader that has not answered within the timeout is dropped so a later request can lead.
+	 */
+	CachedResponse await(String key, CompletableFuture<CachedResponse> leader) {
+		try {
+			CachedResponse response = leader.get(this.coalesceTimeoutMillis, TimeUnit.MILLISECONDS);
+			if (response != null) {
+				this.coalesced.incrementAndGet();
+			}
+			return response;
+		}
+		catch (TimeoutException ex) {
+			this.inFlight.remove(key, leader);
+			return null;
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Releases the requests waiting on {@code key} and caches the response, if any,
+	 * unless one of the users in the key changed after the request was sent at
+	 * {@code startedNanos}.
+	 */
+	void complete(String key, CachedResponse response, long startedNanos) {
+		if (response != null && !changedSince(key, startedNanos)) {
+			synchronized (this) {
+				this.entries.put(key, response);
+			}
+		}
+		CompletableFuture<CachedResponse> leader = this.inFlight.remove(key);
+		if (leader != null) {
+			leader.complete(response);
+		}
+	}
+
+	void countNotModified() {
+		this.notModified.incrementAndGet();
+	}
+
+	/**
+	 * Drops the entries of every path that has {@code userId} as a segment.
+	 */
+	void invalidateUser(String userId) {
+		long now = System.nanoTime();
+		this.invalidatedAt.put(userId, now);
+		// only requests still in flight need the time, and none outlives the coalesce timeout by much
+		long forgetBefore = now - TimeUnit.MILLISECONDS.toNanos(10 * this.coalesceTimeoutMillis);
+		this.invalidatedAt.values().removeIf(time -> time - forgetBefore < 0);
+		synchronized (this) {
+			Iterator<String> keys = this.entries.keySet().iterator();
+			while (keys.hasNext()) {
+				if (pathSegments(keys.next()).contains(userId)) {
+					keys.remove();
+					this.invalidations.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private boolean changedSince(String key, long startedNanos) {
+		if (this.invalidatedAt.isEmpty()) {
+			return false;
+		}
+		for (String segment : pathSegments(key)) {
+			Long changedAt = this.invalidatedAt.get(segment);
+			if (changedAt != null && changedAt - startedNanos >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<String> pathSegments(String key) {
+		// "<route> <path>?<query> <accept>"
+		int start = key.indexOf(' ') + 1;
+		int end = key.indexOf('?', start);
+		return Arrays.asList(key.substring(start, end < 0 ? key.length() : end).split("/"));
+	}
+
+	/**
+	 * Time to live allowed by the response's {@code Cache-Control}, or 0 if it must not
+	 * be cached. A malformed {@code max-age} counts as already stale, as RFC 7234 asks.
+	 */
+	long ttlMillis(List<Pair<String, String>> headers) {
+		for (Pair<String, String> header : headers) {
+			if (!"Cache-Control".equalsIgnoreCase(header.first())) {
+				continue;
+			}
+			for (String directive : header.second().toLowerCase().split(",")) {
+				directive = directive.trim();
+				if (directive.equals("no-store") || directive.equals("no-cache") || directive.equals("private")) {
+					return 0;
+				}
+				if (directive.startsWith("max-age=")) {
+					return maxAgeMillis(directive.substring("max-age=".length()));
+				}
+			}
+		}
+		return TimeUnit.SECONDS.toMillis(this.defaultTtlSeconds);
+	}
+
+	private static long maxAgeMillis(String seconds) {
+		try {
+			return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(seconds.trim())), 0);
+		}
+		catch (NumberFormatException ex) {
+			return 0;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		int size;
+		synchronized (this) {
+			size = this.entries.size();
+		}
+		return Arrays.<Metric<?>>asList(
+				new Metric<>("edge-cache.size", size),
+				new Metric<>("edge-cache.hits", hits.get()),
+				new Metric<>("edge-cache.misses", misses.get()),
+				new Metric<>("edge-cache.coalesced", coalesced.get()),
+				new Metric<>("edge-cache.not-modified", notModified.get()),
+				new Metric<>("edge-cache.evictions", evictions.get()),
+				new Metric<>("edge-cache.invalidations", invalidations.get()));
+	}
+
+	static class CachedResponse {
+
+		private final byte[] body;
+		private final boolean gzipped;
+		private final List<Pair<String, String>> headers;
+		private final long expiresAt;
+
+		CachedResponse(byte[] body, boolean gzipped, List<Pair<String, String>> headers, long ttlMillis) {
+			this.body = body;
+			this.gzipped = gzipped;
+			this.headers = headers;
+			this.expiresAt = System.currentTimeMillis() + ttlMillis;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() > this.expiresAt;
+		}
+
+		String getETag() {
+			for (Pair<String, String> header : this.headers) {
+				if ("ETag".equalsIgnoreCase(header.first())) {
+					return header.second();
+				}
+			}
+			return null;
+		}
+
+		void writeTo(RequestContext ctx) {
+			ctx.setResponseStatusCode(200);
+			for (Pair<String, String> header : this.headers) {
+				ctx.addZuulResponseHeader(header.first(), header.second());
+			}
+			ctx.setResponseGZipped(this.gzipped);
+			ctx.setResponseDataStream(new ByteArrayInputStream(this.body));
+		}
+	}
+}
+
+/**
+ * Answers proxied GETs from {@link EdgeResponseCache}, or lines the request up
+ * behind an identical one already in flight. Runs after route decoration.
+ */
+@Component
+class EdgeCachePreFilter extends ZuulFilter {
+
+	static final String LEADER_KEY = EdgeCachePreFilter.class.getName() + ".key";
+
+	static final String STARTED_KEY = EdgeCachePreFilter.class.getName() + ".started";
+
+	@Autowired
+	private EdgeResponseCache cache;
+
+	@Override
+	public String filterType() {
+		return "pre";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 10;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		HttpServletRequest request = ctx.getRequest();
+		String cacheControl = request.getHeader("Cache-Control");
+		return "GET".equals(request.getMethod()) && ctx.get("proxy") != null
+				&& (cacheControl == null || !cacheControl.contains("no-cache"));
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		String key = EdgeResponseCache.keyFor(ctx);
+		EdgeResponseCache.CachedResponse cached = this.cache.get(key);
+		if (cached == null) {
+			CompletableFuture<EdgeResponseCache.CachedResponse> leader = this.cache.lead(key);
+			if (leader == null) {
+				ctx.set(LEADER_KEY, key);
+				ctx.set(STARTED_KEY, System.nanoTime());
+				return null;
+			}
+			cached = this.cache.await(key, leader);
+			if (cached == null) {
+				return null;
+			}
+		}
+		ctx.setSendZuulResponse(false);
+		String etag = cached.getETag();
+		if (etag != null && etag.equals(ctx.getRequest().getHeader("If-None-Match"))) {
+			this.cache.countNotModified();
+			ctx.setResponseStatusCode(304);
+			ctx.addZuulResponseHeader("ETag", etag);
+			return null;
+		}
+		cached.writeTo(ctx);
+		return null;
+	}
+}
+
+/**
+ * Captures the upstream response of a leading request, stores it if its
+ * {@code Cache-Control} allows and releases any coalesced requests.
+ */
+@Component
+class EdgeCachePostFilter extends ZuulFilter {
+
+	@Autowired
+	private EdgeResponseCache cache;
+
+	@Override
+	public String filterType() {
+		return "post";
+	}
+
+	@Override
+	public int filterOrder() {
+		return 900;
+	}
+
+	@Override
+	public boolean shouldFilter() {
+		return RequestContext.getCurrentContext().get(EdgeCachePreFilter.LEADER_KEY) != null;
+	}
+
+	@Override
+	public Object run() {
+		RequestContext ctx = RequestContext.getCurrentContext();
+		String key = (String) ctx.get(EdgeCachePreFilter.LEADER_KEY);
+		EdgeResponseCache.CachedResponse response = null;
+		try {
+			if (ctx.getResponseStatusCode() == 200 && ctx.getResponseDataStream() != null) {
+				long ttlMillis = this.cache.ttlMillis(ctx.getZuulResponseHeaders());
+				if (ttlMillis > 0) {
+					byte[] body = StreamUtils.copyToByteArray(ctx.getResponseDataStream());
+					ctx.setResponseDataStream(new ByteArrayInputStream(body));
+					List<Pair<String, String>> headers = new ArrayList<>();
+					for (Pair<String, String> header : ctx.getZuulResponseHeaders()) {
+						if (!"Content-Length".equalsIgnoreCase(header.first())
+								&& !"Transfer-Encoding".equalsIgnoreCase(header.first())) {
+							headers.add(header);
+						}
+					}
+					response = new EdgeResponseCache.CachedResponse(body, ctx.getResponseGZipped(), headers, ttlMillis);
+				}
+			}
+		}
+		catch (IOException ex) {
+			ReflectionUtils.rethrowRuntimeException(ex);
+		}
+		finally {
+			this.cache.complete(key, response, (Long) ctx.get(EdgeCachePreFilter.STARTED_KEY));
+		}
+		return null;
+	}
+}
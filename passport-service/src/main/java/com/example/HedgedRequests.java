@@ -0,0 +1,306 @@
+package com.example;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedges backend calls: if the first attempt has not answered within the observed
+ * latency percentile for that kind of call, a second attempt goes to a different
+ * instance and whichever succeeds first is used. The other is abandoned rather than
+ * interrupted, since a blocking socket read would not notice: it finishes in the
+ * background within the read timeout and its answer is dropped.
+ *
+ * Hedges are paid for from a token bucket refilled by a fixed share of calls, so
+ * hedging never adds more than {@code budget-percent} to backend load, even when a
+ * whole backend slows down and every call crosses the threshold.
+ *
+ * Attempts run on a pool of at most {@code max-threads}, abandoned ones included.
+ * When it is full a call runs on the caller's thread and is not hedged, and a
+ * hedge that cannot start is not sent: hedging degrades to plain calls rather than
+ * queueing or adding threads.
+ */
+@Component
+class HedgedRequests implements PublicMetrics {
+
+	private static final ThreadLocal<Attempt> CURRENT = new ThreadLocal<>();
+
+	/** A bucket never holds more than this many hedges, to bound bursts after a quiet spell. */
+	private static final long MAX_TOKENS = 10;
+
+	@Value("${passport.hedging.enabled:false}")
+	private boolean enabled;
+
+	@Value("${passport.hedging.percentile:0.95}")
+	private double percentile;
+
+	@Value("${passport.hedging.budget-percent:5}")
+	private double budgetPercent;
+
+	@Value("${passport.hedging.min-delay-millis:5}")
+	private long minDelayMillis;
+
+	@Value("${passport.hedging.max-threads:200}")
+	private int maxThreads;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong hedgesSent = new AtomicLong();
+	private final AtomicLong hedgesWon = new AtomicLong();
+	private final AtomicLong overBudget = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	private double tokens = MAX_TOKENS;
+
+	private final ConcurrentMap<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+	private ThreadPoolExecutor executor;
+
+	@PostConstruct
+	void init() {
+		// no queue: an attempt that cannot start at once is better not made
+		this.executor = new ThreadPoolExecutor(0, this.maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+				runnable -> {
+					Thread thread = new Thread(runnable, "hedged-request");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * The attempt running on this thread, used by {@link LatencyAwareRule} to keep a
+	 * hedge away from the instance the first attempt went to.
+	 */
+	static Attempt currentAttempt() {
+		return CURRENT.get();
+	}
+
+	<T> T call(String name, Supplier<T> call) {
+		if (!this.enabled) {
+			return call.get();
+		}
+		this.calls.incrementAndGet();
+		refill();
+		LatencyWindow window = window(name);
+		long delayNanos = window.percentileNanos(this.percentile);
+		Attempt first = new Attempt(null);
+		long start = System.nanoTime();
+		CompletableFuture<T> primary;
+		try {
+			primary = submit(first, call);
+		}
+		catch (RejectedExecutionException ex) {
+			this.rejected.incrementAndGet();
+			return call.get();
+		}
+		// every successful first attempt counts, including those overtaken by a hedge
+		primary.thenRun(() -> window.add(System.nanoTime() - start));
+		try {
+			if (delayNanos <= 0) {
+				return primary.get();
+			}
+			try {
+				return primary.get(Math.max(delayNanos, TimeUnit.MILLISECONDS.toNanos(this.minDelayMillis)),
+						TimeUnit.NANOSECONDS);
+			}
+			catch (TimeoutException ex) {
+				if (!takeToken()) {
+					this.overBudget.incrementAndGet();
+					return primary.get();
+				}
+			}
+			CompletableFuture<T> hedge;
+			try {
+				hedge = submit(new Attempt(first.instance), call);
+			}
+			catch (RejectedExecutionException ex) {
+				returnToken();
+				this.rejected.incrementAndGet();
+				return primary.get();
+			}
+			this.hedgesSent.incrementAndGet();
+			return firstSuccessful(primary, hedge);
+		}
+		catch (InterruptedException ex) {
+			// the Hystrix command timed out
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted waiting for " + name, ex);
+		}
+		catch (ExecutionException ex) {
+			throw propagate(ex);
+		}
+	}
+
+	/**
+	 * The recent primary latencies of one kind of call.
+	 */
+	LatencyWindow window(String name) {
+		return this.windows.computeIfAbsent(name, key -> new LatencyWindow());
+	}
+
+	private <T> CompletableFuture<T> submit(Attempt attempt, Supplier<T> call) {
+		return CompletableFuture.supplyAsync(() -> {
+			CURRENT.set(attempt);
+			try {
+				return call.get();
+			}
+			finally {
+				CURRENT.remove();
+			}
+		}, this.executor);
+	}
+
+	/**
+	 * Waits for the first of the two to succeed, or for both to fail.
+	 */
+	private <T> T firstSuccessful(CompletableFuture<T> primary, CompletableFuture<T> hedge)
+			throws InterruptedException, ExecutionException {
+		CompletableFuture<T> winner = new CompletableFuture<>();
+		primary.whenComplete((result, ex) -> {
+			if (ex == null) {
+				winner.complete(result);
+			}
+			else {
+				hedge.whenComplete((hedged, hedgeEx) -> {
+					if (hedgeEx == null) {
+						winner.complete(hedged);
+					}
+					else {
+						winner.completeExceptionally(ex);
+					}
+				});
+			}
+		});
+		hedge.thenAccept(result -> {
+			if (winner.complete(result)) {
+				this.hedgesWon.incrementAndGet();
+			}
+		});
+		return winner.get();
+	}
+
+	private synchronized void refill() {
+		this.tokens = Math.min(MAX_TOKENS, this.tokens + this.budgetPercent / 100);
+	}
+
+	private synchronized boolean takeToken() {
+		if (this.tokens < 1) {
+			return false;
+		}
+		this.tokens--;
+		return true;
+	}
+
+	private synchronized void returnToken() {
+		this.tokens = Math.min(MAX_TOKENS, this.tokens + 1);
+	}
+
+	private static RuntimeException propagate(ExecutionException ex) {
+		Throwable cause = ex.getCause();
+		if (cause instanceof RuntimeException) {
+			return (RuntimeException) cause;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	@PreDestroy
+	void shutdown() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>(Arrays.<Metric<?>>asList(
+				new Metric<>("hedging.calls", calls.get()),
+				new Metric<>("hedging.sent", hedgesSent.get()),
+				new Metric<>("hedging.won", hedgesWon.get()),
+				new Metric<>("hedging.over-budget", overBudget.get()),
+				new Metric<>("hedging.rejected", rejected.get())));
+		this.windows.forEach((name, window) ->
+				metrics.add(new Metric<>("hedging." + name + ".delay-millis",
+						window.percentileNanos(this.percentile) / 1e6)));
+		return metrics;
+	}
+
+	/**
+	 * One attempt of a hedged call: the instance to stay away from, if any, and the
+	 * instance the load balancer picked for it.
+	 */
+	static class Attempt {
+
+		private final String avoid;
+
+		private volatile String instance;
+
+		Attempt(String avoid) {
+			this.avoid = avoid;
+		}
+
+		String getAvoid() {
+			return this.avoid;
+		}
+
+		void chose(String hostPort) {
+			this.instance = hostPort;
+		}
+	}
+
+	/**
+	 * The latest primary latencies of one kind of call. The percentile is recomputed
+	 * every {@code RECOMPUTE_EVERY} samples rather than on every call, and is 0 until
+	 * the window has filled once, which disables hedging during warm-up.
+	 */
+	static class LatencyWindow {
+
+		private static final int SIZE = 1024;
+		private static final int RECOMPUTE_EVERY = 128;
+
+		private final long[] samples = new long[SIZE];
+		private int next;
+		private boolean full;
+		private int sinceRecompute;
+		private long cachedPercentile;
+		private double cachedFor = -1;
+
+		synchronized void add(long nanos) {
+			this.samples[this.next] = nanos;
+			this.next = (this.next + 1) % SIZE;
+			this.full |= this.next == 0;
+			this.sinceRecompute++;
+		}
+
+		synchronized long percentileNanos(double percentile) {
+			if (!this.full) {
+				return 0;
+			}
+			if (this.sinceRecompute >= RECOMPUTE_EVERY || percentile != this.cachedFor) {
+				long[] sorted = this.samples.clone();
+				Arrays.sort(sorted);
+				this.cachedPercentile = sorted[(int) Math.min(SIZE - 1, Math.ceil(percentile * SIZE) - 1)];
+				this.cachedFor = percentile;
+				this.sinceRecompute = 0;
+			}
+			return this.cachedPercentile;
+		}
+	}
+}
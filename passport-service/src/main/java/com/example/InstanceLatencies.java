@@ -0,0 +1,117 @@
+package com.example;
+
+import feign.Client;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.InterceptingClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests in flight and a peak-sensitive EWMA of response time for every backend
+ * instance passport-service calls, keyed on {@code host:port}. Fed by wrapping the
+ * Feign client and the RestTemplate request factory, which both see the instance
+ * Ribbon chose; read by {@link LatencyAwareRule}.
+ */
+@Component
+class InstanceLatencies {
+
+	/** Latency recorded for a request that failed, so a refusing instance does not look fast. */
+	private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	@Value("${passport.ribbon.latency-decay-seconds:10}")
+	private long decaySeconds = 10;
+
+	private final ConcurrentMap<String, Instance> instances = new ConcurrentHashMap<>();
+
+	Instance instance(String host, int port) {
+		return this.instances.computeIfAbsent(host + ":" + port,
+				hostPort -> new Instance(TimeUnit.SECONDS.toNanos(this.decaySeconds)));
+	}
+
+	Client recording(Client delegate) {
+		return (request, options) -> {
+			URI uri = URI.create(request.url());
+			return record(instance(uri.getHost(), uri.getPort()), () -> delegate.execute(request, options));
+		};
+	}
+
+	ClientHttpRequestFactory recording(ClientHttpRequestFactory delegate) {
+		ClientHttpRequestInterceptor interceptor = (request, body, execution) ->
+				record(instance(request.getURI().getHost(), request.getURI().getPort()),
+						() -> execution.execute(request, body));
+		return new InterceptingClientHttpRequestFactory(delegate, Collections.singletonList(interceptor));
+	}
+
+	private <T> T record(Instance instance, Call<T> call) throws IOException {
+		long start = instance.start();
+		boolean failed = true;
+		try {
+			T response = call.execute();
+			failed = false;
+			return response;
+		}
+		finally {
+			instance.end(start, failed);
+		}
+	}
+
+	private interface Call<T> {
+
+		T execute() throws IOException;
+	}
+
+	static class Instance {
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final double decayNanos;
+
+		private double ewmaNanos;
+		private long updatedAt = System.nanoTime();
+
+		Instance(long decayNanos) {
+			this.decayNanos = decayNanos;
+		}
+
+		long start() {
+			this.inFlight.incrementAndGet();
+			return System.nanoTime();
+		}
+
+		void end(long start, boolean failed) {
+			this.inFlight.decrementAndGet();
+			long now = System.nanoTime();
+			long rtt = failed ? Math.max(now - start, FAILURE_PENALTY_NANOS) : now - start;
+			synchronized (this) {
+				// jump to a slower sample at once, forget it gradually
+				double weight = Math.exp(-(now - this.updatedAt) / this.decayNanos);
+				this.ewmaNanos = rtt > this.ewmaNanos ? rtt : this.ewmaNanos * weight + rtt * (1 - weight);
+				this.updatedAt = now;
+			}
+		}
+
+		/**
+		 * The EWMA decayed for the time since the last sample, so an instance that was
+		 * avoided for being slow is eventually tried again.
+		 */
+		synchronized double latencyNanos() {
+			return this.ewmaNanos * Math.exp(-(System.nanoTime() - this.updatedAt) / this.decayNanos);
+		}
+
+		int inFlight() {
+			return this.inFlight.get();
+		}
+
+		double cost() {
+			return latencyNanos() * (inFlight() + 1);
+		}
+	}
+}
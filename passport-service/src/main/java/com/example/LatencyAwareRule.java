@@ -0,0 +1,163 @@
+package com.example;
+
+import com.netflix.client.config.IClientConfig;
+import com.netflix.loadbalancer.AbstractLoadBalancer;
+import com.netflix.loadbalancer.AbstractLoadBalancerRule;
+import com.netflix.loadbalancer.ILoadBalancer;
+import com.netflix.loadbalancer.IPing;
+import com.netflix.loadbalancer.LoadBalancerStats;
+import com.netflix.loadbalancer.Server;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two reachable instances at random and sends the request to the one with
+ * the lower {@code latency * (in-flight + 1)}, from {@link InstanceLatencies}.
+ *
+ * Comparing two random instances rather than taking the global minimum keeps
+ * concurrent callers from all piling onto the same instance between updates.
+ * Instances whose Ribbon circuit breaker is tripped are skipped, as with
+ * {@code AvailabilityFilteringRule}, and a hedged attempt skips the instance the
+ * first attempt went to.
+ */
+class LatencyAwareRule extends AbstractLoadBalancerRule {
+
+	private final InstanceLatencies latencies;
+
+	LatencyAwareRule(InstanceLatencies latencies) {
+		this.latencies = latencies;
+	}
+
+	@Override
+	public void initWithNiwsConfig(IClientConfig clientConfig) {
+	}
+
+	@Override
+	public Server choose(Object key) {
+		List<Server> candidates = available(getLoadBalancer());
+		HedgedRequests.Attempt attempt = HedgedRequests.currentAttempt();
+		if (attempt != null && attempt.getAvoid() != null && candidates.size() > 1) {
+			candidates.removeIf(server -> server.getHostPort().equals(attempt.getAvoid()));
+		}
+		Server chosen = pick(candidates);
+		if (attempt != null && chosen != null) {
+			attempt.chose(chosen.getHostPort());
+		}
+		return chosen;
+	}
+
+	private Server pick(List<Server> candidates) {
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		if (candidates.size() == 1) {
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(candidates.size());
+		int second = random.nextInt(candidates.size() - 1);
+		if (second >= first) {
+			second++;
+		}
+		Server a = candidates.get(first);
+		Server b = candidates.get(second);
+		return cost(a) <= cost(b) ? a : b;
+	}
+
+	private double cost(Server server) {
+		return this.latencies.instance(server.getHost(), server.getPort()).cost();
+	}
+
+	private List<Server> available(ILoadBalancer loadBalancer) {
+		List<Server> reachable = new ArrayList<>(loadBalancer.getReachableServers());
+		if (!(loadBalancer instanceof AbstractLoadBalancer)) {
+			return reachable;
+		}
+		LoadBalancerStats stats = ((AbstractLoadBalancer) loadBalancer).getLoadBalancerStats();
+		List<Server> available = new ArrayList<>(reachable.size());
+		for (Server server : reachable) {
+			if (!stats.getSingleServerStat(server).isCircuitBreakerTripped()) {
+				available.add(server);
+			}
+		}
+		// every circuit open: better to try one than to fail outright
+		return available.isEmpty() ? reachable : available;
+	}
+}
+
+/**
+ * Health check that never blocks Ribbon's ping timer. Each {@code isAlive} call
+ * answers from the previous check and starts a new one in the background, so a
+ * hung instance costs one background thread instead of stalling the pings of every
+ * other instance behind it. Instances not checked yet count as alive.
+ */
+class AsyncHealthCheck implements IPing {
+
+	private final HttpClient httpClient;
+	private final String path;
+	private final RequestConfig requestConfig;
+
+	private final ConcurrentMap<String, Boolean> alive = new ConcurrentHashMap<>();
+	private final Set<String> checking = ConcurrentHashMap.newKeySet();
+	private final ExecutorService executor = Executors.newFixedThreadPool(2, runnable -> {
+		Thread thread = new Thread(runnable, "ribbon-health-check");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	AsyncHealthCheck(HttpClient httpClient, String path, int timeoutMillis) {
+		this.httpClient = httpClient;
+		this.path = path;
+		this.requestConfig = RequestConfig.custom()
+				.setConnectTimeout(timeoutMillis)
+				.setSocketTimeout(timeoutMillis)
+				.setConnectionRequestTimeout(timeoutMillis)
+				.build();
+	}
+
+	@Override
+	public boolean isAlive(Server server) {
+		String hostPort = server.getHostPort();
+		if (this.checking.add(hostPort)) {
+			this.executor.execute(() -> {
+				try {
+					this.alive.put(hostPort, check(hostPort));
+				}
+				finally {
+					this.checking.remove(hostPort);
+				}
+			});
+		}
+		return this.alive.getOrDefault(hostPort, true);
+	}
+
+	private boolean check(String hostPort) {
+		HttpGet request = new HttpGet("http://" + hostPort + this.path);
+		request.setConfig(this.requestConfig);
+		try {
+			return this.httpClient.execute(request, response -> {
+				EntityUtils.consume(response.getEntity());
+				return response.getStatusLine().getStatusCode() == 200;
+			});
+		}
+		catch (IOException ex) {
+			return false;
+		}
+	}
+
+	public void close() {
+		this.executor.shutdownNow();
+	}
+}
@@ -1,49 +1,123 @@
 package com.example;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.netflix.client.config.IClientConfig;
+import com.netflix.hystrix.HystrixCollapser.Scope;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixCollapser;
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
-import com.netflix.loadbalancer.AvailabilityFilteringRule;
+import com.netflix.hystrix.contrib.javanica.annotation.HystrixProperty;
+import com.netflix.hystrix.contrib.javanica.command.AsyncResult;
 import com.netflix.loadbalancer.IPing;
 import com.netflix.loadbalancer.IRule;
-import com.netflix.loadbalancer.PingUrl;
+import feign.RequestInterceptor;
+import feign.Response;
+import feign.codec.Decoder;
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.web.HttpMessageConverters;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.SpringCloudApplication;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.cloud.netflix.feign.EnableFeignClients;
 import org.springframework.cloud.netflix.feign.FeignClient;
+import org.springframework.cloud.netflix.feign.support.ResponseEntityDecoder;
+import org.springframework.cloud.netflix.feign.support.SpringDecoder;
 import org.springframework.cloud.netflix.ribbon.RibbonClient;
+import org.springframework.cloud.netflix.ribbon.RibbonClients;
 import org.springframework.cloud.netflix.zuul.EnableZuulProxy;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 @SpringCloudApplication
 @EnableFeignClients
 @EnableZuulProxy
-@RibbonClient(name = "bookmark-service", configuration = BookmarkConfiguration.class)
+// the Feign client resolves its Ribbon client by the upper-case name in its URL
+@RibbonClients(value = {
+		@RibbonClient(name = "bookmark-service", configuration = BookmarkConfiguration.class),
+		@RibbonClient(name = "BOOKMARK-SERVICE", configuration = BookmarkConfiguration.class)
+}, defaultConfiguration = RegistrySnapshotRibbonConfiguration.class)
 public class PassportServiceApplication {
 
 	@LoadBalanced
 	@Bean
-	public RestTemplate restTemplate() {
-		return new RestTemplate();
+	public RestTemplate restTemplate(@Value("${passport.wire-format:json}") String wireFormat,
+									 ClientHttpRequestFactory pooledRequestFactory,
+									 Jackson2ObjectMapperBuilder jacksonBuilder) {
+		RestTemplate restTemplate = new RestTemplate(pooledRequestFactory);
+		if ("smile".equals(wireFormat)) {
+			// first converter, so its media type leads the Accept header and it decodes the answer
+			restTemplate.getMessageConverters().add(0, new SmileHttpMessageConverter(jacksonBuilder));
+		}
+		return restTemplate;
+	}
+
+	/**
+	 * Lets the Feign clients decode Smile responses as well as JSON.
+	 */
+	@Bean
+	public Decoder feignDecoder(ObjectFactory<HttpMessageConverters> messageConverters,
+								Jackson2ObjectMapperBuilder jacksonBuilder) {
+		List<HttpMessageConverter<?>> converters = new ArrayList<>(messageConverters.getObject().getConverters());
+		converters.add(new SmileHttpMessageConverter(jacksonBuilder));
+		HttpMessageConverters withSmile = new HttpMessageConverters(false, converters);
+		return new ResponseEntityDecoder(new SpringDecoder(() -> withSmile));
+	}
+
+	/**
+	 * With {@code passport.wire-format=smile}, Feign calls that do not ask for a
+	 * specific type prefer Smile and fall back to JSON.
+	 */
+	@Bean
+	public RequestInterceptor wireFormatInterceptor(@Value("${passport.wire-format:json}") String wireFormat) {
+		return template -> {
+			if ("smile".equals(wireFormat) && !template.headers().containsKey(HttpHeaders.ACCEPT)) {
+				template.header(HttpHeaders.ACCEPT,
+						SmileHttpMessageConverter.APPLICATION_SMILE_VALUE, MediaType.APPLICATION_JSON_VALUE);
+			}
+		};
 	}
 
 	/*@Order(2)
@@ -72,12 +146,42 @@ public class PassportServiceApplication {
 interface BookmarkClient {
 	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/bookmarks")
 	Collection<Bookmark> getBookmarks(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.POST, value = "/bookmarks")
+	ResponseEntity<Collection<Bookmark>> getBookmarksByUserIds(@RequestBody Collection<String> userIds);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/bookmarks", produces = "application/x-ndjson")
+	Response streamBookmarks(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/bookmarks")
+	Response getBookmarksResponse(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/bookmarks")
+	Response getBookmarksIfNoneMatch(@PathVariable("userId") String userId, @RequestHeader("If-None-Match") String eTag);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/bookmarks")
+	List<Bookmark> getBookmarksPage(@PathVariable("userId") String userId, @RequestParam("size") int size);
 }
 
 @FeignClient("CONTACT-SERVICE")
 interface ContactClient {
 	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/contacts")
 	Collection<Contact> getContacts(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.POST, value = "/contacts")
+	ResponseEntity<Collection<Contact>> getContactsByUserIds(@RequestBody Collection<String> userIds);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/contacts", produces = "application/x-ndjson")
+	Response streamContacts(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/contacts")
+	Response getContactsResponse(@PathVariable("userId") String userId);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/contacts")
+	Response getContactsIfNoneMatch(@PathVariable("userId") String userId, @RequestHeader("If-None-Match") String eTag);
+
+	@RequestMapping(method = RequestMethod.GET, value = "/{userId}/contacts")
+	List<Contact> getContactsPage(@PathVariable("userId") String userId, @RequestParam("size") int size);
 }
 
 @Order(1)
@@ -160,30 +264,413 @@ class FeignClientExample implements CommandLineRunner {
 @Component
 class ServicesRepo {
 
+	private static final TypeReference<Collection<Bookmark>> BOOKMARKS = new TypeReference<Collection<Bookmark>>() {};
+
+	private static final TypeReference<Collection<Contact>> CONTACTS = new TypeReference<Collection<Contact>>() {};
+
+	/**
+	 * The services answer a batch with every user's version in one
+	 * {@code X-User-Versions} header, a few dozen bytes per user; capping the batch
+	 * keeps that header far below the 8 KB a server accepts by default.
+	 */
+	static final int MAX_USERS_PER_BATCH = 100;
+
 	@Autowired
 	private ContactClient contactClient;
 
 	@Autowired
 	private BookmarkClient bookmarkClient;
 
-	public Collection<Bookmark> getBookmarksFallback(String userId) {
-		System.out.println("getBookmarksFallback");
-		return Arrays.asList();
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private HedgedRequests hedgedRequests;
+
+	@Autowired
+	private Instrumentation instrumentation;
+
+	@Autowired
+	private Jackson2ObjectMapperBuilder jacksonBuilder;
+
+	private ObjectMapper smileMapper;
+
+	@Value("${passport.cache.max-size:10000}")
+	private int cacheMaxSize;
+
+	@Value("${passport.cache.ttl-seconds:60}")
+	private long cacheTtlSeconds;
+
+	private UserCache<Collection<Bookmark>> bookmarksCache;
+
+	private UserCache<Collection<Contact>> contactsCache;
+
+	@PostConstruct
+	void init() {
+		this.smileMapper = new SmileHttpMessageConverter(this.jacksonBuilder).getObjectMapper();
+		long ttlMillis = TimeUnit.SECONDS.toMillis(this.cacheTtlSeconds);
+		this.bookmarksCache = new UserCache<>("bookmarks", this.cacheMaxSize, ttlMillis);
+		this.contactsCache = new UserCache<>("contacts", this.cacheMaxSize, ttlMillis);
+	}
+
+	UserCache<Collection<Bookmark>> getBookmarksCache() {
+		return bookmarksCache;
+	}
+
+	UserCache<Collection<Contact>> getContactsCache() {
+		return contactsCache;
+	}
+
+	/**
+	 * Drops a user's cached entry after bookmark-service or contact-service reports a
+	 * change, and keeps responses from before the change out of the cache.
+	 */
+	void announce(String collection, String userId, String version) {
+		String eTag = "\"" + version + "\"";
+		if ("bookmarks".equals(collection)) {
+			this.bookmarksCache.announce(userId, eTag);
+		}
+		else if ("contacts".equals(collection)) {
+			this.contactsCache.announce(userId, eTag);
+		}
+	}
+
+	/**
+	 * Returns the cached bookmarks if still fresh, {@code null} if they must be fetched.
+	 */
+	public Collection<Bookmark> getCachedBookmarks(String userId) {
+		return this.bookmarksCache.get(userId);
+	}
+
+	public Collection<Bookmark> getBookmarksFallback(String userId, Throwable cause) {
+		this.instrumentation.fallback("getBookmarks", cause);
+		return staleBookmarks(userId);
+	}
+
+	private Collection<Bookmark> staleBookmarks(String userId) {
+		Collection<Bookmark> stale = this.bookmarksCache.getStale(userId);
+		return stale != null ? stale : Arrays.asList();
 	}
 
 	@HystrixCommand(fallbackMethod = "getBookmarksFallback")
 	public Collection<Bookmark> getBookmarks(String userId) {
-		return this.bookmarkClient.getBookmarks(userId);
+		Collection<Bookmark> cached = this.bookmarksCache.get(userId);
+		if (cached != null) {
+			return cached;
+		}
+		return fetchBookmarks(userId);
+	}
+
+	/**
+	 * Whether an expired entry can be checked with a conditional GET instead of a full fetch.
+	 */
+	public boolean canRevalidateBookmarks(String userId) {
+		return this.bookmarksCache.getETag(userId) != null;
+	}
+
+	@HystrixCommand(fallbackMethod = "getBookmarksFallback")
+	public Future<Collection<Bookmark>> revalidateBookmarksAsync(String userId) {
+		return new AsyncResult<Collection<Bookmark>>() {
+			@Override
+			public Collection<Bookmark> invoke() {
+				return fetchBookmarks(userId);
+			}
+		};
+	}
+
+	private Collection<Bookmark> fetchBookmarks(String userId) {
+		return this.hedgedRequests.call("bookmarks", () -> fetchIfChanged(this.bookmarksCache, userId,
+				() -> this.bookmarkClient.getBookmarksResponse(userId),
+				eTag -> this.bookmarkClient.getBookmarksIfNoneMatch(userId, eTag), BOOKMARKS));
+	}
+
+	/**
+	 * Concurrent single-user lookups landing in the same window are merged
+	 * into one {@link #getBookmarksBatch(List)} call, of at most
+	 * {@value #MAX_USERS_PER_BATCH} users.
+	 */
+	@HystrixCollapser(batchMethod = "getBookmarksBatch", scope = Scope.GLOBAL, collapserProperties = {
+			@HystrixProperty(name = "timerDelayInMilliseconds", value = "10"),
+			@HystrixProperty(name = "maxRequestsInBatch", value = "" + MAX_USERS_PER_BATCH)})
+	public Future<Collection<Bookmark>> getBookmarksAsync(String userId) {
+		return null;
+	}
+
+	public Collection<Bookmark> getBookmarksPreviewFallback(String userId, int size, Throwable cause) {
+		this.instrumentation.fallback("getBookmarksPreview", cause);
+		return staleBookmarks(userId).stream().limit(size).collect(Collectors.toList());
+	}
+
+	/**
+	 * Fetches only the first {@code size} bookmarks, for previews.
+	 */
+	@HystrixCommand(fallbackMethod = "getBookmarksPreviewFallback")
+	public Future<Collection<Bookmark>> getBookmarksPreviewAsync(String userId, int size) {
+		return new AsyncResult<Collection<Bookmark>>() {
+			@Override
+			public Collection<Bookmark> invoke() {
+				return bookmarkClient.getBookmarksPage(userId, size);
+			}
+		};
+	}
+
+	public List<Collection<Bookmark>> getBookmarksBatchFallback(List<String> userIds, Throwable cause) {
+		this.instrumentation.fallback("getBookmarksBatch", cause);
+		return userIds.stream().map(this::staleBookmarks).collect(Collectors.toList());
+	}
+
+	@HystrixCommand(fallbackMethod = "getBookmarksBatchFallback")
+	public Future<List<Collection<Bookmark>>> getBookmarksBatchAsync(List<String> userIds) {
+		return new AsyncResult<List<Collection<Bookmark>>>() {
+			@Override
+			public List<Collection<Bookmark>> invoke() {
+				return getBookmarksBatch(userIds);
+			}
+		};
+	}
+
+	@HystrixCommand(fallbackMethod = "getBookmarksBatchFallback")
+	public List<Collection<Bookmark>> getBookmarksBatch(List<String> userIds) {
+		List<Collection<Bookmark>> bookmarks = new ArrayList<>(userIds.size());
+		for (List<String> slice : slices(userIds)) {
+			ResponseEntity<Collection<Bookmark>> response = this.hedgedRequests.call("bookmarks-batch",
+					() -> this.bookmarkClient.getBookmarksByUserIds(slice));
+			List<Collection<Bookmark>> part = groupByUserId(slice, response.getBody(), Bookmark::getUserId);
+			putAll(this.bookmarksCache, slice, part, response.getHeaders());
+			bookmarks.addAll(part);
+		}
+		return bookmarks;
+	}
+
+	/**
+	 * Returns the cached contacts if still fresh, {@code null} if they must be fetched.
+	 */
+	public Collection<Contact> getCachedContacts(String userId) {
+		return this.contactsCache.get(userId);
+	}
+
+	public Collection<Contact> getContactsFallback(String userId, Throwable cause) {
+		this.instrumentation.fallback("getContacts", cause);
+		return staleContacts(userId);
 	}
 
-	public Collection<Contact> getContactsFallback(String userId) {
-		System.out.println("getContactsFallback");
-		return Arrays.asList();
+	private Collection<Contact> staleContacts(String userId) {
+		Collection<Contact> stale = this.contactsCache.getStale(userId);
+		return stale != null ? stale : Arrays.asList();
 	}
 
 	@HystrixCommand(fallbackMethod = "getContactsFallback")
 	public Collection<Contact> getContacts(String userId) {
-		return this.contactClient.getContacts(userId);
+		Collection<Contact> cached = this.contactsCache.get(userId);
+		if (cached != null) {
+			return cached;
+		}
+		return fetchContacts(userId);
+	}
+
+	/**
+	 * Whether an expired entry can be checked with a conditional GET instead of a full fetch.
+	 */
+	public boolean canRevalidateContacts(String userId) {
+		return this.contactsCache.getETag(userId) != null;
+	}
+
+	@HystrixCommand(fallbackMethod = "getContactsFallback")
+	public Future<Collection<Contact>> revalidateContactsAsync(String userId) {
+		return new AsyncResult<Collection<Contact>>() {
+			@Override
+			public Collection<Contact> invoke() {
+				return fetchContacts(userId);
+			}
+		};
+	}
+
+	private Collection<Contact> fetchContacts(String userId) {
+		return this.hedgedRequests.call("contacts", () -> fetchIfChanged(this.contactsCache, userId,
+				() -> this.contactClient.getContactsResponse(userId),
+				eTag -> this.contactClient.getContactsIfNoneMatch(userId, eTag), CONTACTS));
+	}
+
+	/**
+	 * Sends the ETag of the cached entry, if any, so that an unchanged collection
+	 * costs a 304 and no body; otherwise decodes and caches the new body and ETag.
+	 * Without a cached ETag the request carries no {@code If-None-Match} at all.
+	 */
+	private <T> Collection<T> fetchIfChanged(UserCache<Collection<T>> cache, String userId,
+											 Supplier<Response> request, Function<String, Response> ifNoneMatch,
+											 TypeReference<Collection<T>> type) {
+		String eTag = cache.getETag(userId);
+		try (Response response = eTag != null ? ifNoneMatch.apply(eTag) : request.get()) {
+			if (response.status() == 304) {
+				Collection<T> unchanged = cache.revalidate(userId);
+				return unchanged != null ? unchanged : fetchIfChanged(cache, userId, request, ifNoneMatch, type);
+			}
+			if (response.status() != 200) {
+				throw new IllegalStateException("Unexpected status " + response.status() + " for " + userId);
+			}
+			Collection<T> values = mapperFor(response).readValue(response.body().asInputStream(), type);
+			cache.put(userId, values, header(response, "ETag"));
+			return values;
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private ObjectMapper mapperFor(Response response) {
+		String contentType = header(response, HttpHeaders.CONTENT_TYPE);
+		return contentType != null && contentType.startsWith(SmileHttpMessageConverter.APPLICATION_SMILE_VALUE)
+				? this.smileMapper : this.objectMapper;
+	}
+
+	private static String header(Response response, String name) {
+		for (Map.Entry<String, Collection<String>> header : response.headers().entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+				return header.getValue().iterator().next();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Concurrent single-user lookups landing in the same window are merged
+	 * into one {@link #getContactsBatch(List)} call, of at most
+	 * {@value #MAX_USERS_PER_BATCH} users.
+	 */
+	@HystrixCollapser(batchMethod = "getContactsBatch", scope = Scope.GLOBAL, collapserProperties = {
+			@HystrixProperty(name = "timerDelayInMilliseconds", value = "10"),
+			@HystrixProperty(name = "maxRequestsInBatch", value = "" + MAX_USERS_PER_BATCH)})
+	public Future<Collection<Contact>> getContactsAsync(String userId) {
+		return null;
+	}
+
+	public Collection<Contact> getContactsPreviewFallback(String userId, int size, Throwable cause) {
+		this.instrumentation.fallback("getContactsPreview", cause);
+		return staleContacts(userId).stream().limit(size).collect(Collectors.toList());
+	}
+
+	/**
+	 * Fetches only the first {@code size} contacts, for previews.
+	 */
+	@HystrixCommand(fallbackMethod = "getContactsPreviewFallback")
+	public Future<Collection<Contact>> getContactsPreviewAsync(String userId, int size) {
+		return new AsyncResult<Collection<Contact>>() {
+			@Override
+			public Collection<Contact> invoke() {
+				return contactClient.getContactsPage(userId, size);
+			}
+		};
+	}
+
+	public List<Collection<Contact>> getContactsBatchFallback(List<String> userIds, Throwable cause) {
+		this.instrumentation.fallback("getContactsBatch", cause);
+		return userIds.stream().map(this::staleContacts).collect(Collectors.toList());
+	}
+
+	@HystrixCommand(fallbackMethod = "getContactsBatchFallback")
+	public Future<List<Collection<Contact>>> getContactsBatchAsync(List<String> userIds) {
+		return new AsyncResult<List<Collection<Contact>>>() {
+			@Override
+			public List<Collection<Contact>> invoke() {
+				return getContactsBatch(userIds);
+			}
+		};
+	}
+
+	@HystrixCommand(fallbackMethod = "getContactsBatchFallback")
+	public List<Collection<Contact>> getContactsBatch(List<String> userIds) {
+		List<Collection<Contact>> contacts = new ArrayList<>(userIds.size());
+		for (List<String> slice : slices(userIds)) {
+			ResponseEntity<Collection<Contact>> response = this.hedgedRequests.call("contacts-batch",
+					() -> this.contactClient.getContactsByUserIds(slice));
+			List<Collection<Contact>> part = groupByUserId(slice, response.getBody(), Contact::getUserId);
+			putAll(this.contactsCache, slice, part, response.getHeaders());
+			contacts.addAll(part);
+		}
+		return contacts;
+	}
+
+	/**
+	 * The users in requests of at most {@value #MAX_USERS_PER_BATCH}, for callers such
+	 * as {@code /passports} that hand over lists of any size.
+	 */
+	private static List<List<String>> slices(List<String> userIds) {
+		List<List<String>> slices = new ArrayList<>();
+		for (int from = 0; from < userIds.size(); from += MAX_USERS_PER_BATCH) {
+			slices.add(userIds.subList(from, Math.min(from + MAX_USERS_PER_BATCH, userIds.size())));
+		}
+		return slices;
+	}
+
+	/**
+	 * Splits a flat bulk response back into one collection per requested userId,
+	 * in request order, as required by the collapser.
+	 */
+	private static <T> List<Collection<T>> groupByUserId(List<String> userIds, Collection<T> items,
+														 Function<T, String> userIdOf) {
+		Map<String, List<T>> byUserId = items.stream()
+				.collect(Collectors.groupingBy(userIdOf));
+		return userIds.stream()
+				.map(userId -> (Collection<T>) byUserId.getOrDefault(userId, new ArrayList<>()))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Hands the user's bookmarks to the consumer one at a time as they arrive,
+	 * without materializing the whole collection.
+	 */
+	public void forEachBookmark(String userId, Consumer<Bookmark> consumer) throws IOException {
+		readNdjson(this.bookmarkClient.streamBookmarks(userId), Bookmark.class, consumer);
+	}
+
+	/**
+	 * Hands the user's contacts to the consumer one at a time as they arrive,
+	 * without materializing the whole collection.
+	 */
+	public void forEachContact(String userId, Consumer<Contact> consumer) throws IOException {
+		readNdjson(this.contactClient.streamContacts(userId), Contact.class, consumer);
+	}
+
+	private <T> void readNdjson(Response response, Class<T> type, Consumer<T> consumer) throws IOException {
+		try (Response body = response;
+			 BufferedReader reader = new BufferedReader(body.body().asReader())) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					consumer.accept(this.objectMapper.readValue(line, type));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Caches each user's part of a bulk response under the ETag their single-user
+	 * lookup would have, taken from the {@code X-User-Versions} list, so it can be
+	 * revalidated later. Without a usable list the parts are cached without one.
+	 */
+	private static <T> void putAll(UserCache<Collection<T>> cache, List<String> userIds, List<Collection<T>> values,
+								   HttpHeaders headers) {
+		String versions = headers.getFirst("X-User-Versions");
+		String[] eTags = versions != null ? versions.split(",", -1) : new String[0];
+		for (int i = 0; i < userIds.size(); i++) {
+			cache.put(userIds.get(i), values.get(i),
+					eTags.length == userIds.size() ? "\"" + eTags[i].trim() + "\"" : null);
+		}
+	}
+}
+
+@Component
+class ServicesRepoCacheMetrics implements PublicMetrics {
+
+	@Autowired
+	private ServicesRepo servicesRepo;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.addAll(servicesRepo.getBookmarksCache().metrics());
+		metrics.addAll(servicesRepo.getContactsCache().metrics());
+		return metrics;
 	}
 }
 
@@ -200,9 +687,100 @@ class PassportRestController {
 	@Autowired
 	DiscoveryClient client;
 
+	@Value("${passport.preview.max-size:1000}")
+	private int maxPreviewSize;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
 	@RequestMapping("/{userId}/passport")
-	Passport passport(@PathVariable String userId) {
-		return new Passport(userId,servicesRepo.getContacts(userId),servicesRepo.getBookmarks(userId));
+	Passport passport(@PathVariable String userId) throws InterruptedException, ExecutionException {
+		// both lookups are started before either is awaited, so the two calls overlap
+		Future<Collection<Contact>> contacts = contactsFor(userId);
+		Future<Collection<Bookmark>> bookmarks = bookmarksFor(userId);
+		return new Passport(userId, contacts.get(), bookmarks.get());
+	}
+
+	/**
+	 * The passport, written as it is read: contacts and bookmarks are copied from the
+	 * services' NDJSON streams into the response one at a time, so however many a
+	 * user has, they never sit in this service's heap. Nothing is cached and there is
+	 * no fallback, since the status is committed with the first element.
+	 */
+	@RequestMapping("/{userId}/passport/stream")
+	void streamPassport(@PathVariable String userId, HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		try (JsonGenerator json = this.objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			json.writeStartObject();
+			json.writeStringField("userId", userId);
+			json.writeArrayFieldStart("contacts");
+			servicesRepo.forEachContact(userId, contact -> write(json, contact));
+			json.writeEndArray();
+			json.writeArrayFieldStart("bookmarks");
+			servicesRepo.forEachBookmark(userId, bookmark -> write(json, bookmark));
+			json.writeEndArray();
+			json.writeEndObject();
+		}
+	}
+
+	private static void write(JsonGenerator json, Object value) {
+		try {
+			json.writeObject(value);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * A fresh cache entry is used as is, an expired one with an ETag is revalidated
+	 * with a conditional GET, and anything else joins a collapsed batch.
+	 */
+	private Future<Collection<Contact>> contactsFor(String userId) {
+		Collection<Contact> cached = servicesRepo.getCachedContacts(userId);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		return servicesRepo.canRevalidateContacts(userId)
+				? servicesRepo.revalidateContactsAsync(userId) : servicesRepo.getContactsAsync(userId);
+	}
+
+	private Future<Collection<Bookmark>> bookmarksFor(String userId) {
+		Collection<Bookmark> cached = servicesRepo.getCachedBookmarks(userId);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		return servicesRepo.canRevalidateBookmarks(userId)
+				? servicesRepo.revalidateBookmarksAsync(userId) : servicesRepo.getBookmarksAsync(userId);
+	}
+
+	/**
+	 * A {@code size} outside 1 to {@code passport.preview.max-size} is answered with 400
+	 * here rather than by the backends, whose 400 would only trip the fallbacks.
+	 */
+	@RequestMapping("/{userId}/passport/preview")
+	ResponseEntity<Passport> passportPreview(@PathVariable String userId,
+			@RequestParam(value = "size", defaultValue = "10") int size) throws InterruptedException, ExecutionException {
+		if (size < 1 || size > this.maxPreviewSize) {
+			return ResponseEntity.badRequest().build();
+		}
+		Future<Collection<Contact>> contacts = servicesRepo.getContactsPreviewAsync(userId, size);
+		Future<Collection<Bookmark>> bookmarks = servicesRepo.getBookmarksPreviewAsync(userId, size);
+		return ResponseEntity.ok(new Passport(userId, contacts.get(), bookmarks.get()));
+	}
+
+	@RequestMapping(value = "/passports", method = RequestMethod.POST)
+	Collection<Passport> passports(@RequestBody List<String> userIds) throws InterruptedException, ExecutionException {
+		// both batches are started before either is awaited, so the two calls overlap
+		Future<List<Collection<Contact>>> contactsBatch = servicesRepo.getContactsBatchAsync(userIds);
+		Future<List<Collection<Bookmark>>> bookmarksBatch = servicesRepo.getBookmarksBatchAsync(userIds);
+		List<Collection<Contact>> contacts = contactsBatch.get();
+		List<Collection<Bookmark>> bookmarks = bookmarksBatch.get();
+		List<Passport> passports = new ArrayList<>(userIds.size());
+		for (int i = 0; i < userIds.size(); i++) {
+			passports.add(new Passport(userIds.get(i), contacts.get(i), bookmarks.get(i)));
+		}
+		return passports;
 	}
 
 	@RequestMapping("/bookmarks")
@@ -375,14 +953,20 @@ class BookmarkConfiguration {
 	@Autowired
 	IClientConfig ribbonClientConfig;
 
+	@Autowired
+	InstanceLatencies instanceLatencies;
+
+	@Autowired
+	CloseableHttpClient pooledHttpClient;
+
 	@Bean
 	public IPing ribbonPing(IClientConfig config) {
-		return new PingUrl();
+		return new AsyncHealthCheck(pooledHttpClient, "/health", 250);
 	}
 
 	@Bean
 	public IRule ribbonRule(IClientConfig config) {
-		return new AvailabilityFilteringRule();
+		return new LatencyAwareRule(instanceLatencies);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,249 @@
+package com.example;
+
+import feign.Client;
+import feign.httpclient.ApacheHttpClient;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.cloud.netflix.feign.ribbon.CachingSpringLoadBalancerFactory;
+import org.springframework.cloud.netflix.feign.ribbon.LoadBalancerFeignClient;
+import org.springframework.cloud.netflix.ribbon.SpringClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One pooled, keep-alive Apache HttpClient shared by the Feign clients and the
+ * {@code @LoadBalanced} RestTemplate, instead of a new {@code HttpURLConnection}
+ * per call.
+ *
+ * A call may take the lease timeout, plus connect and read timeouts for every
+ * attempt Ribbon makes, and all of that has to fit in the Hystrix command timeout,
+ * or the command is abandoned while its socket is still waiting. The defaults,
+ * 100 + 200 + 650 ms for a single attempt, stay under the 1s default. Feign calls
+ * take their timeouts and retries from the Ribbon {@code ConnectTimeout},
+ * {@code ReadTimeout}, {@code MaxAutoRetries} and {@code MaxAutoRetriesNextServer}
+ * settings, which should match; a mismatch is logged at startup.
+ */
+@Configuration
+class PooledHttpClientConfiguration {
+
+	private static final Log logger = LogFactory.getLog(PooledHttpClientConfiguration.class);
+
+	@Value("${passport.http.max-total:400}")
+	private int maxTotal;
+
+	@Value("${passport.http.max-per-route:100}")
+	private int maxPerRoute;
+
+	/** Comma separated {@code host:port=max} overrides of {@code max-per-route}. */
+	@Value("${passport.http.max-per-host:}")
+	private String maxPerHost;
+
+	@Value("${passport.http.connect-timeout-millis:200}")
+	private int connectTimeoutMillis;
+
+	@Value("${passport.http.read-timeout-millis:650}")
+	private int readTimeoutMillis;
+
+	@Value("${passport.http.lease-timeout-millis:100}")
+	private int leaseTimeoutMillis;
+
+	@Value("${passport.http.keep-alive-seconds:15}")
+	private long keepAliveSeconds;
+
+	@Value("${passport.http.idle-eviction-seconds:30}")
+	private long idleEvictionSeconds;
+
+	@Value("${ribbon.ConnectTimeout:1000}")
+	private int ribbonConnectTimeoutMillis;
+
+	@Value("${ribbon.ReadTimeout:1000}")
+	private int ribbonReadTimeoutMillis;
+
+	@Value("${ribbon.MaxAutoRetries:0}")
+	private int ribbonMaxAutoRetries;
+
+	@Value("${ribbon.MaxAutoRetriesNextServer:1}")
+	private int ribbonMaxAutoRetriesNextServer;
+
+	@Value("${hystrix.command.default.execution.isolation.thread.timeoutInMilliseconds:1000}")
+	private int hystrixTimeoutMillis;
+
+	@PostConstruct
+	void checkTimeoutBudget() {
+		long attempts = (1L + this.ribbonMaxAutoRetries) * (1L + this.ribbonMaxAutoRetriesNextServer);
+		long worstCase = this.leaseTimeoutMillis
+				+ attempts * (this.ribbonConnectTimeoutMillis + this.ribbonReadTimeoutMillis);
+		if (worstCase >= this.hystrixTimeoutMillis) {
+			logger.warn("Feign calls may take " + worstCase + "ms over " + attempts + " attempt(s), more than the "
+					+ this.hystrixTimeoutMillis + "ms Hystrix timeout; lower ribbon.ConnectTimeout, "
+					+ "ribbon.ReadTimeout or the Ribbon retries");
+		}
+		if (this.connectTimeoutMillis != this.ribbonConnectTimeoutMillis
+				|| this.readTimeoutMillis != this.ribbonReadTimeoutMillis) {
+			logger.warn("passport.http timeouts differ from the Ribbon ones used by Feign");
+		}
+	}
+
+	@Bean
+	public InstrumentedConnectionManager httpConnectionManager() {
+		InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager();
+		connectionManager.setMaxTotal(this.maxTotal);
+		connectionManager.setDefaultMaxPerRoute(this.maxPerRoute);
+		for (String override : this.maxPerHost.split(",")) {
+			if (override.trim().isEmpty()) {
+				continue;
+			}
+			String[] hostAndMax = override.trim().split("=");
+			HttpHost host = HttpHost.create(hostAndMax[0]);
+			connectionManager.setMaxPerRoute(new HttpRoute(host), Integer.parseInt(hostAndMax[1]));
+		}
+		// re-check a connection that sat idle, rather than failing the request on a socket the server closed
+		connectionManager.setValidateAfterInactivity(2000);
+		return connectionManager;
+	}
+
+	/**
+	 * Compression stays on, so requests send {@code Accept-Encoding: gzip,deflate}
+	 * and compressed responses are inflated transparently.
+	 */
+	@Bean(destroyMethod = "close")
+	public CloseableHttpClient pooledHttpClient(InstrumentedConnectionManager connectionManager) {
+		long keepAliveMillis = TimeUnit.SECONDS.toMillis(this.keepAliveSeconds);
+		return HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(this.connectTimeoutMillis)
+						.setSocketTimeout(this.readTimeoutMillis)
+						.setConnectionRequestTimeout(this.leaseTimeoutMillis)
+						.build())
+				// without a Keep-Alive header, close before Tomcat's 20s idle timeout does
+				.setKeepAliveStrategy((response, context) -> {
+					long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+					return keepAlive > 0 ? keepAlive : keepAliveMillis;
+				})
+				.evictExpiredConnections()
+				.evictIdleConnections(this.idleEvictionSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	@Bean
+	public Client feignClient(CloseableHttpClient pooledHttpClient, InstanceLatencies latencies,
+							  CachingSpringLoadBalancerFactory loadBalancerFactory, SpringClientFactory clientFactory) {
+		return new LoadBalancerFeignClient(latencies.recording(new ApacheHttpClient(pooledHttpClient)),
+				loadBalancerFactory, clientFactory);
+	}
+
+	@Bean
+	public ClientHttpRequestFactory pooledRequestFactory(CloseableHttpClient pooledHttpClient, InstanceLatencies latencies) {
+		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(pooledHttpClient);
+		requestFactory.setConnectTimeout(this.connectTimeoutMillis);
+		requestFactory.setReadTimeout(this.readTimeoutMillis);
+		requestFactory.setConnectionRequestTimeout(this.leaseTimeoutMillis);
+		return latencies.recording(requestFactory);
+	}
+}
+
+/**
+ * Connection pool that also counts how long callers wait to lease a connection,
+ * how often they give up and how many new connections it opens. A steady rise in
+ * {@code http.pool.connects} under constant load means connections are not being
+ * reused.
+ */
+class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager implements PublicMetrics {
+
+	private final AtomicLong leases = new AtomicLong();
+	private final AtomicLong leaseWaitNanos = new AtomicLong();
+	private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+	private final AtomicLong leaseTimeouts = new AtomicLong();
+	private final AtomicLong connects = new AtomicLong();
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		ConnectionRequest request = super.requestConnection(route, state);
+		return new ConnectionRequest() {
+
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit unit)
+					throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				try {
+					return request.get(timeout, unit);
+				}
+				catch (ConnectionPoolTimeoutException ex) {
+					leaseTimeouts.incrementAndGet();
+					throw ex;
+				}
+				finally {
+					long waited = System.nanoTime() - start;
+					leases.incrementAndGet();
+					leaseWaitNanos.addAndGet(waited);
+					maxLeaseWaitNanos.accumulateAndGet(waited, Math::max);
+				}
+			}
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+		};
+	}
+
+	@Override
+	public void connect(HttpClientConnection connection, HttpRoute route, int connectTimeout, HttpContext context)
+			throws IOException {
+		this.connects.incrementAndGet();
+		super.connect(connection, route, connectTimeout, context);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		PoolStats total = getTotalStats();
+		long leased = this.leases.get();
+		metrics.add(new Metric<>("http.pool.max", total.getMax()));
+		metrics.add(new Metric<>("http.pool.leased", total.getLeased()));
+		metrics.add(new Metric<>("http.pool.available", total.getAvailable()));
+		metrics.add(new Metric<>("http.pool.pending", total.getPending()));
+		metrics.add(new Metric<>("http.pool.utilization", total.getMax() > 0 ? (double) total.getLeased() / total.getMax() : 0.0));
+		metrics.add(new Metric<>("http.pool.leases", leased));
+		metrics.add(new Metric<>("http.pool.lease-timeouts", this.leaseTimeouts.get()));
+		metrics.add(new Metric<>("http.pool.lease-wait-millis.avg",
+				leased > 0 ? this.leaseWaitNanos.get() / leased / 1e6 : 0.0));
+		metrics.add(new Metric<>("http.pool.lease-wait-millis.max", this.maxLeaseWaitNanos.get() / 1e6));
+		metrics.add(new Metric<>("http.pool.connects", this.connects.get()));
+		for (HttpRoute route : getRoutes()) {
+			PoolStats stats = getStats(route);
+			String prefix = "http.pool.route." + route.getTargetHost().toHostString() + ".";
+			metrics.add(new Metric<>(prefix + "leased", stats.getLeased()));
+			metrics.add(new Metric<>(prefix + "available", stats.getAvailable()));
+			metrics.add(new Metric<>(prefix + "pending", stats.getPending()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,240 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.netflix.client.config.IClientConfig;
+import com.netflix.discovery.EurekaClient;
+import com.netflix.loadbalancer.Server;
+import com.netflix.loadbalancer.ServerList;
+import com.netflix.niws.loadbalancer.DiscoveryEnabledNIWSServerList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.discovery.event.HeartbeatEvent;
+import org.springframework.cloud.netflix.ribbon.eureka.DomainExtractingServerList;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Provider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last registry this instance saw, kept in a local file: the {@code host:port}
+ * of every UP instance per application and a digest of those entries as version,
+ * as eureka-service serves them from {@code /registry/snapshot}.
+ *
+ * At startup the file is read, so Ribbon can route straight away, and the snapshot
+ * is fetched in the background: a few kilobytes, against hundreds for the full
+ * registry. After every Eureka fetch it is checked again with {@code If-None-Match},
+ * which costs a 304 while the registry is unchanged, and saved when it changed.
+ * Once Eureka answers, its lists take over.
+ */
+@Component
+class RegistrySnapshot implements ApplicationListener<HeartbeatEvent> {
+
+	private static final Log logger = LogFactory.getLog(RegistrySnapshot.class);
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${passport.registry.snapshot-file:${java.io.tmpdir}/passport-service-registry.json}")
+	private File file;
+
+	/** The first Eureka server URL; the snapshot is served from the root of the same server. */
+	@Value("${eureka.client.serviceUrl.defaultZone:http://localhost:8761/eureka/}")
+	private String eurekaServiceUrls;
+
+	@Value("${passport.registry.fetch-timeout-millis:500}")
+	private int fetchTimeoutMillis;
+
+	private RestTemplate restTemplate;
+
+	private volatile Snapshot snapshot = new Snapshot();
+
+	private final AtomicLong fetches = new AtomicLong();
+
+	private final AtomicLong notModified = new AtomicLong();
+
+	@PostConstruct
+	void start() {
+		SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+		requestFactory.setConnectTimeout(this.fetchTimeoutMillis);
+		requestFactory.setReadTimeout(this.fetchTimeoutMillis);
+		this.restTemplate = new RestTemplate(requestFactory);
+		load();
+		// in the background, so startup never waits for eureka-service
+		CompletableFuture.runAsync(this::refresh);
+	}
+
+	/**
+	 * Reads the snapshot saved by a previous run, if any.
+	 */
+	void load() {
+		if (!this.file.isFile()) {
+			return;
+		}
+		try {
+			this.snapshot = this.objectMapper.readValue(this.file, Snapshot.class);
+		}
+		catch (IOException ex) {
+			logger.warn("Ignoring unreadable registry snapshot " + this.file + ": " + ex.getMessage());
+		}
+	}
+
+	@Override
+	public void onApplicationEvent(HeartbeatEvent event) {
+		refresh();
+	}
+
+	/**
+	 * Fetches the snapshot unless it is unchanged, and saves a new one. Returns
+	 * whether it changed.
+	 */
+	boolean refresh() {
+		HttpHeaders headers = new HttpHeaders();
+		if (this.snapshot.version != null) {
+			headers.setIfNoneMatch("\"" + this.snapshot.version + "\"");
+		}
+		ResponseEntity<Snapshot> response;
+		try {
+			this.fetches.incrementAndGet();
+			response = this.restTemplate.exchange(snapshotUrl(), HttpMethod.GET, new HttpEntity<>(headers), Snapshot.class);
+		}
+		catch (RestClientException ex) {
+			logger.debug("Registry snapshot not fetched: " + ex.getMessage());
+			return false;
+		}
+		if (response.getStatusCode() == HttpStatus.NOT_MODIFIED) {
+			this.notModified.incrementAndGet();
+			return false;
+		}
+		Snapshot current = response.getBody();
+		if (current == null || current.apps.isEmpty()) {
+			return false;
+		}
+		this.snapshot = current;
+		write(current);
+		return true;
+	}
+
+	URI snapshotUrl() {
+		return URI.create(this.eurekaServiceUrls.split(",")[0].trim()).resolve("/registry/snapshot");
+	}
+
+	/**
+	 * Instances of {@code application} in the snapshot, for Ribbon while Eureka has none.
+	 */
+	List<Server> servers(String application) {
+		List<Server> servers = new ArrayList<>();
+		for (String hostPort : this.snapshot.apps.getOrDefault(application.toUpperCase(), Collections.emptyList())) {
+			servers.add(new Server(hostPort));
+		}
+		return servers;
+	}
+
+	String version() {
+		return this.snapshot.version;
+	}
+
+	long fetches() {
+		return this.fetches.get();
+	}
+
+	long notModified() {
+		return this.notModified.get();
+	}
+
+	private void write(Snapshot current) {
+		try {
+			// replace in one step, so a crash mid-write never leaves a truncated snapshot
+			File temp = new File(this.file.getPath() + ".tmp");
+			this.objectMapper.writeValue(temp, current);
+			Files.move(temp.toPath(), this.file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException ex) {
+			logger.warn("Unable to write registry snapshot " + this.file + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * The body of {@code /registry/snapshot}, and the content of the file.
+	 */
+	static class Snapshot {
+
+		public String version;
+
+		public Map<String, List<String>> apps = Collections.emptyMap();
+	}
+}
+
+/**
+ * Server list used by Ribbon for every client: Eureka's, or the
+ * {@link RegistrySnapshot} entries while Eureka has returned nothing yet.
+ */
+class SnapshotFallbackServerList implements ServerList<Server> {
+
+	private final ServerList<? extends Server> delegate;
+	private final RegistrySnapshot snapshot;
+	private final String application;
+
+	SnapshotFallbackServerList(ServerList<? extends Server> delegate, RegistrySnapshot snapshot, String application) {
+		this.delegate = delegate;
+		this.snapshot = snapshot;
+		this.application = application;
+	}
+
+	@Override
+	public List<Server> getInitialListOfServers() {
+		return orSnapshot(this.delegate.getInitialListOfServers());
+	}
+
+	@Override
+	public List<Server> getUpdatedListOfServers() {
+		return orSnapshot(this.delegate.getUpdatedListOfServers());
+	}
+
+	private List<Server> orSnapshot(List<? extends Server> servers) {
+		return servers.isEmpty() ? this.snapshot.servers(this.application) : new ArrayList<>(servers);
+	}
+}
+
+/**
+ * Default Ribbon configuration putting {@link SnapshotFallbackServerList} in front
+ * of the Eureka server list. Primary, since Spring Cloud's own Eureka server list
+ * may be defined alongside it.
+ */
+class RegistrySnapshotRibbonConfiguration {
+
+	@Autowired
+	private RegistrySnapshot registrySnapshot;
+
+	@Bean
+	@Primary
+	public ServerList<Server> snapshotFallbackServerList(IClientConfig config, Provider<EurekaClient> eurekaClientProvider) {
+		DiscoveryEnabledNIWSServerList discoveryServerList = new DiscoveryEnabledNIWSServerList(config, eurekaClientProvider);
+		DomainExtractingServerList serverList = new DomainExtractingServerList(discoveryServerList, config, false);
+		return new SnapshotFallbackServerList(serverList, this.registrySnapshot, config.getClientName());
+	}
+}
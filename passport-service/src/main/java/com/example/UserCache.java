@@ -0,0 +1,173 @@
+package com.example;
+
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, least-recently-used cache of per-user values with a time-to-live.
+ *
+ * Expired entries are not returned by {@link #get(String)} but stay in the cache
+ * until evicted, so {@link #getStale(String)} can still answer while a backend is down,
+ * and so an entry stored with an ETag can be {@link #revalidate(String) revalidated}
+ * after a 304 instead of being downloaded again.
+ *
+ * A change {@link #announce(String, String) announced} for a user evicts their entry
+ * and, for one TTL, refuses to store any response for them whose ETag is not the
+ * announced one: a response that left the backend before the change must not
+ * replace the entry the change evicted.
+ */
+class UserCache<V> {
+
+	private final String name;
+	private final int maxSize;
+	private final long ttlMillis;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong refusedPuts = new AtomicLong();
+
+	private final LinkedHashMap<String, Timestamped<V>> entries;
+
+	private final LinkedHashMap<String, Timestamped<String>> announced;
+
+	UserCache(String name, int maxSize, long ttlMillis) {
+		this.name = name;
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, Timestamped<V>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Timestamped<V>> eldest) {
+				if (size() > UserCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.announced = new LinkedHashMap<String, Timestamped<String>>() {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Timestamped<String>> eldest) {
+				return size() > UserCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached value if present and younger than the TTL, otherwise {@code null}.
+	 */
+	synchronized V get(String userId) {
+		Timestamped<V> entry = this.entries.get(userId);
+		if (entry == null || entry.isOlderThan(this.ttlMillis)) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.value;
+	}
+
+	/**
+	 * Returns the cached value regardless of its age, or {@code null} if there is none.
+	 */
+	synchronized V getStale(String userId) {
+		Timestamped<V> entry = this.entries.get(userId);
+		if (entry == null) {
+			return null;
+		}
+		staleHits.incrementAndGet();
+		return entry.value;
+	}
+
+	synchronized void put(String userId, V value) {
+		put(userId, value, null);
+	}
+
+	/**
+	 * Stores the value unless a change announced for the user within the TTL carries
+	 * a different ETag. Returns whether the value was stored.
+	 */
+	synchronized boolean put(String userId, V value, String eTag) {
+		Timestamped<String> announcement = this.announced.get(userId);
+		if (announcement != null) {
+			if (announcement.isOlderThan(this.ttlMillis)) {
+				this.announced.remove(userId);
+			}
+			else if (!announcement.value.equals(eTag)) {
+				refusedPuts.incrementAndGet();
+				return false;
+			}
+		}
+		this.entries.put(userId, new Timestamped<>(value, eTag));
+		return true;
+	}
+
+	/**
+	 * Records the ETag a change left the user's data at and evicts their entry.
+	 */
+	synchronized void announce(String userId, String eTag) {
+		this.announced.remove(userId);
+		this.announced.put(userId, new Timestamped<>(eTag, null));
+		this.entries.remove(userId);
+	}
+
+	/**
+	 * Returns the ETag the current entry was stored with, fresh or not, or {@code null}.
+	 */
+	synchronized String getETag(String userId) {
+		Timestamped<V> entry = this.entries.get(userId);
+		return entry != null ? entry.eTag : null;
+	}
+
+	/**
+	 * Restarts the TTL of an entry the backend reported as unchanged and returns its
+	 * value, or {@code null} if the entry has been evicted in the meantime.
+	 */
+	synchronized V revalidate(String userId) {
+		Timestamped<V> entry = this.entries.get(userId);
+		if (entry == null) {
+			return null;
+		}
+		revalidations.incrementAndGet();
+		this.entries.put(userId, new Timestamped<>(entry.value, entry.eTag));
+		return entry.value;
+	}
+
+	synchronized int size() {
+		return this.entries.size();
+	}
+
+	Collection<Metric<?>> metrics() {
+		String prefix = "cache." + this.name + ".";
+		return Arrays.<Metric<?>>asList(
+				new Metric<>(prefix + "size", size()),
+				new Metric<>(prefix + "hits", hits.get()),
+				new Metric<>(prefix + "misses", misses.get()),
+				new Metric<>(prefix + "stale-hits", staleHits.get()),
+				new Metric<>(prefix + "revalidations", revalidations.get()),
+				new Metric<>(prefix + "evictions", evictions.get()),
+				new Metric<>(prefix + "refused-puts", refusedPuts.get()));
+	}
+
+	private static class Timestamped<V> {
+
+		private final V value;
+		private final String eTag;
+		private final long createdAt = System.currentTimeMillis();
+
+		Timestamped(V value, String eTag) {
+			this.value = value;
+			this.eTag = eTag;
+		}
+
+		boolean isOlderThan(long millis) {
+			return System.currentTimeMillis() - createdAt > millis;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package com.example;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Listens for the {@code <collection> <userId> <version>} datagrams sent by
+ * bookmark-service and contact-service and evicts the affected user from the
+ * {@link ServicesRepo} caches and the {@link EdgeResponseCache}. The version is kept,
+ * so a response older than the change is not cached again.
+ *
+ * Each instance binds its own port, ephemeral unless {@code passport.changes.port}
+ * names one, and registers it in its Eureka metadata under {@value #PORT_METADATA},
+ * where the publishers look it up. The datagrams carry no credentials, so only
+ * senders on this host are heard unless {@code passport.changes.trusted-senders}
+ * lists others.
+ */
+@Component
+class UserChangeSubscriber implements Runnable {
+
+	/**
+	 * The Eureka metadata key holding the port this instance listens on.
+	 */
+	static final String PORT_METADATA = "user-changes-port";
+
+	private static final Log logger = LogFactory.getLog(UserChangeSubscriber.class);
+
+	@Autowired
+	private ServicesRepo servicesRepo;
+
+	@Autowired
+	private EdgeResponseCache edgeResponseCache;
+
+	@Autowired(required = false)
+	private ApplicationInfoManager applicationInfoManager;
+
+	@Value("${passport.changes.port:0}")
+	private int port;
+
+	// addresses of other hosts allowed to send changes, comma separated
+	@Value("${passport.changes.trusted-senders:}")
+	private String trustedSenders;
+
+	private final Set<InetAddress> senders = new HashSet<>();
+
+	private DatagramSocket socket;
+
+	@PostConstruct
+	void start() throws SocketException, UnknownHostException {
+		for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+			this.senders.addAll(Collections.list(networkInterface.getInetAddresses()));
+		}
+		for (String sender : StringUtils.commaDelimitedListToSet(this.trustedSenders)) {
+			this.senders.add(InetAddress.getByName(sender.trim()));
+		}
+		this.socket = new DatagramSocket(this.port);
+		if (this.applicationInfoManager != null) {
+			this.applicationInfoManager.registerAppMetadata(
+					Collections.singletonMap(PORT_METADATA, Integer.toString(getPort())));
+		}
+		Thread listener = new Thread(this, "user-change-subscriber");
+		listener.setDaemon(true);
+		listener.start();
+	}
+
+	@PreDestroy
+	void stop() {
+		this.socket.close();
+	}
+
+	int getPort() {
+		return this.socket.getLocalPort();
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[512];
+		while (!this.socket.isClosed()) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				this.socket.receive(packet);
+			}
+			catch (IOException ex) {
+				continue;
+			}
+			if (!accepts(packet.getAddress())) {
+				logger.debug("Ignoring a change from untrusted sender " + packet.getAddress());
+				continue;
+			}
+			String[] event = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8).split(" ");
+			if (event.length == 3) {
+				this.servicesRepo.announce(event[0], event[1], event[2]);
+				this.edgeResponseCache.invalidateUser(event[1]);
+			}
+		}
+	}
+
+	/**
+	 * Whether changes from the address are heard: it belongs to this host or is
+	 * listed in {@code passport.changes.trusted-senders}.
+	 */
+	boolean accepts(InetAddress sender) {
+		return sender.isLoopbackAddress() || this.senders.contains(sender);
+	}
+}
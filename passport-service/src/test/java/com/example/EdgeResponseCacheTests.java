@@ -0,0 +1,178 @@
+package com.example;
+
+import com.netflix.util.Pair;
+import com.netflix.zuul.context.RequestContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EdgeResponseCacheTests {
+
+	private static final String PATH = "/bookmark-service/Myntra/bookmarks";
+
+	private EdgeResponseCache cache;
+
+	private EdgeCachePreFilter preFilter;
+
+	private EdgeCachePostFilter postFilter;
+
+	@Before
+	public void setUp() {
+		this.cache = new EdgeResponseCache();
+		ReflectionTestUtils.setField(this.cache, "maxEntries", 100);
+		ReflectionTestUtils.setField(this.cache, "defaultTtlSeconds", 5L);
+		ReflectionTestUtils.setField(this.cache, "coalesceTimeoutMillis", 2000L);
+		this.preFilter = new EdgeCachePreFilter();
+		ReflectionTestUtils.setField(this.preFilter, "cache", this.cache);
+		this.postFilter = new EdgeCachePostFilter();
+		ReflectionTestUtils.setField(this.postFilter, "cache", this.cache);
+	}
+
+	@After
+	public void tearDown() {
+		RequestContext.getCurrentContext().unset();
+	}
+
+	@Test
+	public void concurrentMissesGoUpstreamOnce() throws Exception {
+		int requests = 8;
+		AtomicInteger upstream = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(requests);
+		List<Future<String>> bodies = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			bodies.add(executor.submit(() -> {
+				start.await();
+				RequestContext ctx = context(null);
+				this.preFilter.run();
+				if (ctx.get(EdgeCachePreFilter.LEADER_KEY) != null) {
+					upstream.incrementAndGet();
+					// a slow upstream, so the other requests line up behind this one
+					Thread.sleep(200);
+					respond(ctx, "[1]", "\"v1\"", "max-age=60");
+					this.postFilter.run();
+				}
+				return body(ctx);
+			}));
+		}
+		start.countDown();
+		for (Future<String> body : bodies) {
+			assertThat(body.get(5, TimeUnit.SECONDS)).isEqualTo("[1]");
+		}
+		executor.shutdown();
+		assertThat(upstream.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void matchingETagIsAnsweredWith304() throws Exception {
+		cacheResponse("\"v1\"", "max-age=60");
+
+		RequestContext ctx = context("\"v1\"");
+		this.preFilter.run();
+		assertThat(ctx.sendZuulResponse()).isFalse();
+		assertThat(ctx.getResponseStatusCode()).isEqualTo(304);
+		assertThat(ctx.getResponseDataStream()).isNull();
+
+		ctx = context("\"v0\"");
+		this.preFilter.run();
+		assertThat(ctx.getResponseStatusCode()).isEqualTo(200);
+		assertThat(body(ctx)).isEqualTo("[1]");
+	}
+
+	@Test
+	public void entriesExpireWithMaxAge() throws Exception {
+		cacheResponse(null, "max-age=1");
+		String key = EdgeResponseCache.keyFor(context(null));
+		assertThat(this.cache.get(key)).isNotNull();
+		Thread.sleep(1100);
+		assertThat(this.cache.get(key)).isNull();
+	}
+
+	@Test
+	public void cacheControlIsParsedDefensively() {
+		assertThat(this.cache.ttlMillis(headers("max-age=30"))).isEqualTo(30000);
+		assertThat(this.cache.ttlMillis(headers("public, max-age=abc"))).isZero();
+		assertThat(this.cache.ttlMillis(headers("max-age=-5"))).isZero();
+		assertThat(this.cache.ttlMillis(headers("no-store"))).isZero();
+		assertThat(this.cache.ttlMillis(headers("public"))).isEqualTo(5000);
+	}
+
+	@Test
+	public void changeEventsInvalidateTheUser() throws Exception {
+		cacheResponse(null, "max-age=60");
+		String key = EdgeResponseCache.keyFor(context(null));
+		this.cache.invalidateUser("Amazon");
+		assertThat(this.cache.get(key)).isNotNull();
+		this.cache.invalidateUser("Myntra");
+		assertThat(this.cache.get(key)).isNull();
+	}
+
+	@Test
+	public void responseInFlightDuringAChangeIsNotCached() throws Exception {
+		RequestContext ctx = context(null);
+		this.preFilter.run();
+		assertThat(ctx.get(EdgeCachePreFilter.LEADER_KEY)).isNotNull();
+		this.cache.invalidateUser("Myntra");
+		respond(ctx, "[0]", null, "max-age=60");
+		this.postFilter.run();
+		assertThat(body(ctx)).isEqualTo("[0]");
+		assertThat(this.cache.get(EdgeResponseCache.keyFor(ctx))).isNull();
+	}
+
+	private void cacheResponse(String eTag, String cacheControl) throws Exception {
+		RequestContext ctx = context(null);
+		this.preFilter.run();
+		respond(ctx, "[1]", eTag, cacheControl);
+		this.postFilter.run();
+	}
+
+	private static RequestContext context(String ifNoneMatch) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", PATH);
+		request.addHeader("Accept", "application/json");
+		if (ifNoneMatch != null) {
+			request.addHeader("If-None-Match", ifNoneMatch);
+		}
+		// the filters read the context of the current thread
+		RequestContext.getCurrentContext().unset();
+		RequestContext ctx = RequestContext.getCurrentContext();
+		ctx.setRequest(request);
+		ctx.setResponse(new MockHttpServletResponse());
+		ctx.set("proxy", "bookmark-service");
+		return ctx;
+	}
+
+	private static void respond(RequestContext ctx, String body, String eTag, String cacheControl) {
+		ctx.setResponseStatusCode(200);
+		if (eTag != null) {
+			ctx.addZuulResponseHeader("ETag", eTag);
+		}
+		ctx.addZuulResponseHeader("Cache-Control", cacheControl);
+		ctx.setResponseDataStream(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String body(RequestContext ctx) throws Exception {
+		return StreamUtils.copyToString(ctx.getResponseDataStream(), StandardCharsets.UTF_8);
+	}
+
+	private static List<Pair<String, String>> headers(String cacheControl) {
+		return Arrays.asList(new Pair<>("Cache-Control", cacheControl));
+	}
+}
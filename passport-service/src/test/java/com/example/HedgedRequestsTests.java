@@ -0,0 +1,164 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgedRequestsTests {
+
+	private HedgedRequests hedgedRequests;
+
+	@After
+	public void tearDown() {
+		this.hedgedRequests.shutdown();
+	}
+
+	@Test
+	public void hedgeIsSentOnceTheFirstAttemptIsSlowerThanThePercentile() throws Exception {
+		hedgedRequests(0.5, 5, 200);
+		// 0.2ms to 204.8ms: p50 is 102.4ms and p95 194.6ms
+		fill("bookmarks", 200_000);
+
+		assertThat(attempts("bookmarks", 30)).isEqualTo(1);
+		assertThat(attempts("bookmarks", 300)).isEqualTo(2);
+	}
+
+	@Test
+	public void higherPercentileWaitsLonger() throws Exception {
+		hedgedRequests(0.95, 5, 200);
+		fill("bookmarks", 200_000);
+
+		// would have been hedged at p50
+		assertThat(attempts("bookmarks", 150)).isEqualTo(1);
+		assertThat(attempts("bookmarks", 300)).isEqualTo(2);
+	}
+
+	@Test
+	public void hedgesStayWithinTheBudget() throws Exception {
+		hedgedRequests(0.5, 5, 200);
+		fill("bookmarks", 10);
+
+		// every call is slower than the threshold; the bucket starts full with 10 hedges
+		// and each call adds a twentieth of one
+		int calls = 40;
+		for (int i = 0; i < calls; i++) {
+			attempts("bookmarks", 20);
+		}
+
+		Map<String, Number> metrics = metrics();
+		long sent = metrics.get("hedging.sent").longValue();
+		assertThat(sent).isBetween(10L, 12L);
+		assertThat(metrics.get("hedging.over-budget").longValue()).isEqualTo(calls - sent);
+	}
+
+	@Test
+	public void fullPoolRunsTheCallUnhedgedOnTheCallersThread() throws Exception {
+		hedgedRequests(0.5, 5, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		Thread busy = new Thread(() -> this.hedgedRequests.call("contacts", () -> await(release)));
+		busy.start();
+		try {
+			waitForRunning(1);
+
+			String caller = this.hedgedRequests.call("bookmarks", () -> Thread.currentThread().getName());
+
+			assertThat(caller).isEqualTo(Thread.currentThread().getName());
+			assertThat(metrics().get("hedging.rejected").longValue()).isEqualTo(1);
+		}
+		finally {
+			release.countDown();
+			busy.join();
+		}
+	}
+
+	@Test
+	public void hedgeThatCannotStartIsNotSent() throws Exception {
+		hedgedRequests(0.5, 5, 1);
+		fill("bookmarks", 10);
+
+		assertThat(attempts("bookmarks", 50)).isEqualTo(1);
+		Map<String, Number> metrics = metrics();
+		assertThat(metrics.get("hedging.sent").longValue()).isEqualTo(0);
+		assertThat(metrics.get("hedging.rejected").longValue()).isEqualTo(1);
+	}
+
+	private void hedgedRequests(double percentile, long minDelayMillis, int maxThreads) {
+		this.hedgedRequests = new HedgedRequests();
+		ReflectionTestUtils.setField(this.hedgedRequests, "enabled", true);
+		ReflectionTestUtils.setField(this.hedgedRequests, "percentile", percentile);
+		ReflectionTestUtils.setField(this.hedgedRequests, "budgetPercent", 5.0);
+		ReflectionTestUtils.setField(this.hedgedRequests, "minDelayMillis", minDelayMillis);
+		ReflectionTestUtils.setField(this.hedgedRequests, "maxThreads", maxThreads);
+		this.hedgedRequests.init();
+	}
+
+	/**
+	 * Fills the window with latencies of 1 to 1024 times {@code stepNanos}.
+	 */
+	private void fill(String name, long stepNanos) {
+		HedgedRequests.LatencyWindow window = this.hedgedRequests.window(name);
+		for (int i = 1; i <= 1024; i++) {
+			window.add(i * stepNanos);
+		}
+	}
+
+	/**
+	 * Makes a call whose attempts each take {@code millis} and returns how many were made.
+	 */
+	private int attempts(String name, long millis) {
+		AtomicInteger attempts = new AtomicInteger();
+		Supplier<String> call = () -> {
+			attempts.incrementAndGet();
+			sleep(millis);
+			return "ok";
+		};
+		assertThat(this.hedgedRequests.call(name, call)).isEqualTo("ok");
+		return attempts.get();
+	}
+
+	private void waitForRunning(int attempts) throws InterruptedException {
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) ReflectionTestUtils.getField(this.hedgedRequests, "executor");
+		for (int i = 0; i < 100 && executor.getActiveCount() < attempts; i++) {
+			Thread.sleep(10);
+		}
+		assertThat(executor.getActiveCount()).isEqualTo(attempts);
+	}
+
+	private Map<String, Number> metrics() {
+		Map<String, Number> metrics = new HashMap<>();
+		for (Metric<?> metric : this.hedgedRequests.metrics()) {
+			metrics.put(metric.getName(), metric.getValue());
+		}
+		return metrics;
+	}
+
+	private static String await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		return "ok";
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
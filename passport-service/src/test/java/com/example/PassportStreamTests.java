@@ -0,0 +1,76 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import feign.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class PassportStreamTests {
+
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private final BookmarkClient bookmarkClient = mock(BookmarkClient.class);
+
+	private final ContactClient contactClient = mock(ContactClient.class);
+
+	private final PassportRestController controller = new PassportRestController();
+
+	@Before
+	public void setUp() {
+		ServicesRepo servicesRepo = new ServicesRepo();
+		ReflectionTestUtils.setField(servicesRepo, "bookmarkClient", this.bookmarkClient);
+		ReflectionTestUtils.setField(servicesRepo, "contactClient", this.contactClient);
+		ReflectionTestUtils.setField(servicesRepo, "objectMapper", this.objectMapper);
+		ReflectionTestUtils.setField(this.controller, "servicesRepo", servicesRepo);
+		ReflectionTestUtils.setField(this.controller, "objectMapper", this.objectMapper);
+	}
+
+	@Test
+	public void passportIsCopiedFromTheServiceStreams() throws Exception {
+		given(this.contactClient.streamContacts("Myntra")).willReturn(ndjson(
+				"{\"id\":1,\"userId\":\"Myntra\",\"firstName\":\"Dave\",\"lastName\":\"Syer\",\"email\":\"dave@email.com\"}\n"
+						+ "\n"
+						+ "{\"id\":2,\"userId\":\"Myntra\",\"firstName\":\"Phil\",\"lastName\":\"Webb\",\"email\":\"phil@email.com\"}\n"));
+		given(this.bookmarkClient.streamBookmarks("Myntra")).willReturn(ndjson(
+				"{\"id\":3,\"userId\":\"Myntra\",\"href\":\"http://Myntra-link.com\",\"description\":\"d\"}\n"));
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		this.controller.streamPassport("Myntra", response);
+
+		assertThat(response.getContentType()).isEqualTo("application/json");
+		Passport passport = this.objectMapper.readValue(response.getContentAsByteArray(), Passport.class);
+		assertThat(passport.getUserId()).isEqualTo("Myntra");
+		assertThat(passport.getContacts()).extracting("firstName").containsExactly("Dave", "Phil");
+		assertThat(passport.getBookmarks()).extracting("href").containsExactly("http://Myntra-link.com");
+	}
+
+	@Test
+	public void userWithoutDataGetsEmptyLists() throws Exception {
+		given(this.contactClient.streamContacts("Nobody")).willReturn(ndjson(""));
+		given(this.bookmarkClient.streamBookmarks("Nobody")).willReturn(ndjson(""));
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		this.controller.streamPassport("Nobody", response);
+
+		assertThat(response.getContentAsString())
+				.isEqualTo("{\"userId\":\"Nobody\",\"contacts\":[],\"bookmarks\":[]}");
+	}
+
+	private static Response ndjson(String body) {
+		Map<String, Collection<String>> headers = Collections.singletonMap("Content-Type",
+				Collections.singletonList("application/x-ndjson"));
+		return Response.create(200, "OK", headers, body.getBytes(StandardCharsets.UTF_8));
+	}
+}
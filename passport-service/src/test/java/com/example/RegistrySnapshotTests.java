@@ -0,0 +1,134 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegistrySnapshotTests {
+
+	private static final Log logger = LogFactory.getLog(RegistrySnapshotTests.class);
+
+	// eureka-service versions the snapshot with an MD5 of its entries
+	private static final String VERSION = "5f2b3c0e8d1a4b6c9e7f0a1b2c3d4e5f";
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private final List<String> ifNoneMatch = new ArrayList<>();
+
+	private HttpServer eureka;
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		Map<String, Object> snapshot = new TreeMap<>();
+		Map<String, List<String>> apps = new TreeMap<>();
+		for (int i = 0; i < 990; i++) {
+			apps.computeIfAbsent("SERVICE-" + (i % 10), app -> new ArrayList<>()).add("10.0." + (i / 250) + "." + (i % 250 + 1) + ":8080");
+		}
+		apps.put("BOOKMARK-SERVICE", apps.remove("SERVICE-0"));
+		snapshot.put("version", VERSION);
+		snapshot.put("apps", apps);
+		byte[] body = this.objectMapper.writeValueAsBytes(snapshot);
+
+		this.eureka = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.eureka.createContext("/registry/snapshot", exchange -> {
+			String eTag = "\"" + VERSION + "\"";
+			String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+			synchronized (this.ifNoneMatch) {
+				this.ifNoneMatch.add(condition);
+			}
+			exchange.getResponseHeaders().add("ETag", eTag);
+			if (eTag.equals(condition)) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+			this.bytesSent.addAndGet(body.length);
+		});
+		this.eureka.start();
+		this.file = new File(System.getProperty("java.io.tmpdir"), "registry-snapshot-" + System.nanoTime() + ".json");
+	}
+
+	@After
+	public void tearDown() {
+		this.eureka.stop(0);
+		this.file.delete();
+	}
+
+	@Test
+	public void routableSoonAfterStartAndRevalidatedWith304() throws Exception {
+		RegistrySnapshot registrySnapshot = registrySnapshot(this.eureka.getAddress().getPort());
+		long start = System.nanoTime();
+		registrySnapshot.start();
+		while (registrySnapshot.servers("bookmark-service").isEmpty()
+				&& System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+			Thread.sleep(1);
+		}
+		long firstRoutableMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		logger.info(String.format("first routable after %dms, %d bytes fetched", firstRoutableMillis, this.bytesSent.get()));
+		assertThat(registrySnapshot.servers("bookmark-service")).hasSize(99);
+		assertThat(firstRoutableMillis).isLessThan(1000);
+		// 990 instances in well under the ~1MB of a full /eureka/apps document
+		assertThat(this.bytesSent.get()).isLessThan(30000);
+
+		long fetched = this.bytesSent.get();
+		assertThat(registrySnapshot.refresh()).isFalse();
+		assertThat(registrySnapshot.notModified()).isEqualTo(1);
+		assertThat(this.bytesSent.get()).isEqualTo(fetched);
+		assertThat(this.ifNoneMatch).containsExactly(null, "\"" + VERSION + "\"");
+	}
+
+	@Test
+	public void restartRoutesFromTheFileWhileEurekaIsDown() throws Exception {
+		RegistrySnapshot first = registrySnapshot(this.eureka.getAddress().getPort());
+		first.load();
+		assertThat(first.refresh()).isTrue();
+		assertThat(this.file).isFile();
+		int port = this.eureka.getAddress().getPort();
+		this.eureka.stop(0);
+
+		RegistrySnapshot restarted = registrySnapshot(port);
+		restarted.load();
+		assertThat(restarted.servers("BOOKMARK-SERVICE")).hasSize(99);
+		assertThat(restarted.version()).isEqualTo(VERSION);
+		assertThat(restarted.refresh()).isFalse();
+		assertThat(restarted.servers("BOOKMARK-SERVICE")).hasSize(99);
+	}
+
+	private RegistrySnapshot registrySnapshot(int port) {
+		RegistrySnapshot registrySnapshot = new RegistrySnapshot();
+		ReflectionTestUtils.setField(registrySnapshot, "objectMapper", this.objectMapper);
+		ReflectionTestUtils.setField(registrySnapshot, "file", this.file);
+		ReflectionTestUtils.setField(registrySnapshot, "eurekaServiceUrls", "http://localhost:" + port + "/eureka/");
+		ReflectionTestUtils.setField(registrySnapshot, "fetchTimeoutMillis", 500);
+		ReflectionTestUtils.setField(registrySnapshot, "restTemplate", new RestTemplate());
+		return registrySnapshot;
+	}
+}
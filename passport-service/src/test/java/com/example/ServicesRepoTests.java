@@ -0,0 +1,133 @@
+package com.example;
+
+import feign.Response;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class ServicesRepoTests {
+
+	private final BookmarkClient bookmarkClient = mock(BookmarkClient.class);
+
+	private final ServicesRepo servicesRepo = new ServicesRepo();
+
+	@Before
+	public void setUp() {
+		ReflectionTestUtils.setField(this.servicesRepo, "bookmarkClient", this.bookmarkClient);
+		ReflectionTestUtils.setField(this.servicesRepo, "hedgedRequests", new HedgedRequests());
+		ReflectionTestUtils.setField(this.servicesRepo, "instrumentation", new Instrumentation(60));
+		ReflectionTestUtils.setField(this.servicesRepo, "jacksonBuilder", Jackson2ObjectMapperBuilder.json());
+		ReflectionTestUtils.setField(this.servicesRepo, "objectMapper", Jackson2ObjectMapperBuilder.json().build());
+		ReflectionTestUtils.setField(this.servicesRepo, "cacheMaxSize", 100);
+		ReflectionTestUtils.setField(this.servicesRepo, "cacheTtlSeconds", 60L);
+		this.servicesRepo.init();
+	}
+
+	@Test
+	public void batchPartsAreCachedWithTheirETags() {
+		given(this.bookmarkClient.getBookmarksByUserIds(any())).willReturn(ResponseEntity.ok()
+				.header("X-User-Versions", "1-1-0,0-0-0")
+				.body(Arrays.asList(bookmark(1, "Myntra"))));
+
+		List<Collection<Bookmark>> bookmarks = this.servicesRepo.getBookmarksBatch(Arrays.asList("Myntra", "Amazon"));
+
+		assertThat(bookmarks.get(0)).hasSize(1);
+		assertThat(bookmarks.get(1)).isEmpty();
+		assertThat(this.servicesRepo.getBookmarksCache().getETag("Myntra")).isEqualTo("\"1-1-0\"");
+		assertThat(this.servicesRepo.getBookmarksCache().getETag("Amazon")).isEqualTo("\"0-0-0\"");
+		assertThat(this.servicesRepo.canRevalidateBookmarks("Myntra")).isTrue();
+	}
+
+	@Test
+	public void batchPartOlderThanAnAnnouncedChangeIsNotCached() {
+		this.servicesRepo.announce("bookmarks", "Myntra", "2-2-0");
+		given(this.bookmarkClient.getBookmarksByUserIds(any())).willReturn(ResponseEntity.ok()
+				.header("X-User-Versions", "1-1-0")
+				.body(Arrays.asList(bookmark(1, "Myntra"))));
+
+		assertThat(this.servicesRepo.getBookmarksBatch(Arrays.asList("Myntra")).get(0)).hasSize(1);
+		assertThat(this.servicesRepo.getCachedBookmarks("Myntra")).isNull();
+	}
+
+	@Test
+	public void largeBatchesAreSentInSlices() {
+		List<String> userIds = new ArrayList<>();
+		for (int i = 0; i < 250; i++) {
+			userIds.add("user-" + i);
+		}
+		given(this.bookmarkClient.getBookmarksByUserIds(any())).willAnswer(invocation -> {
+			Collection<String> slice = invocation.getArgumentAt(0, Collection.class);
+			assertThat(slice.size()).isLessThanOrEqualTo(ServicesRepo.MAX_USERS_PER_BATCH);
+			List<Bookmark> bookmarks = new ArrayList<>();
+			slice.forEach(userId -> bookmarks.add(bookmark(bookmarks.size(), userId)));
+			return ResponseEntity.ok()
+					.header("X-User-Versions", String.join(",", Collections.nCopies(slice.size(), "1-1-0")))
+					.body(bookmarks);
+		});
+
+		List<Collection<Bookmark>> bookmarks = this.servicesRepo.getBookmarksBatch(userIds);
+
+		verify(this.bookmarkClient, times(3)).getBookmarksByUserIds(any());
+		assertThat(bookmarks).hasSize(250);
+		assertThat(bookmarks.get(249)).extracting("userId").containsExactly("user-249");
+		assertThat(this.servicesRepo.getBookmarksCache().getETag("user-249")).isEqualTo("\"1-1-0\"");
+	}
+
+	@Test
+	public void ifNoneMatchIsSentOnlyWithACachedETag() {
+		given(this.bookmarkClient.getBookmarksResponse("Myntra")).willReturn(ok("\"1-1-0\""));
+		given(this.bookmarkClient.getBookmarksIfNoneMatch("Myntra", "\"1-1-0\"")).willReturn(ok("\"2-2-0\""));
+
+		assertThat(this.servicesRepo.getBookmarks("Myntra")).hasSize(1);
+		verify(this.bookmarkClient, never()).getBookmarksIfNoneMatch(anyString(), anyString());
+
+		ReflectionTestUtils.invokeMethod(this.servicesRepo, "fetchBookmarks", "Myntra");
+		verify(this.bookmarkClient).getBookmarksIfNoneMatch("Myntra", "\"1-1-0\"");
+		assertThat(this.servicesRepo.getBookmarksCache().getETag("Myntra")).isEqualTo("\"2-2-0\"");
+	}
+
+	@Test
+	public void fallbackAnswersAreNeverCached() {
+		List<Collection<Bookmark>> bookmarks = this.servicesRepo.getBookmarksBatchFallback(
+				Arrays.asList("Myntra"), new IllegalStateException("Unexpected status 503"));
+		assertThat(bookmarks.get(0)).isEmpty();
+		assertThat(this.servicesRepo.getBookmarksCache().size()).isZero();
+		assertThat(this.servicesRepo.getBookmarksFallback("Myntra", null)).isEmpty();
+		assertThat(this.servicesRepo.getBookmarksCache().size()).isZero();
+	}
+
+	private static Response ok(String eTag) {
+		Map<String, Collection<String>> headers = new LinkedHashMap<>();
+		headers.put(HttpHeaders.CONTENT_TYPE, Collections.singletonList("application/json"));
+		headers.put(HttpHeaders.ETAG, Collections.singletonList(eTag));
+		return Response.create(200, "OK", headers, "[{\"id\":1,\"userId\":\"Myntra\"}]".getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Bookmark bookmark(long id, String userId) {
+		Bookmark bookmark = new Bookmark();
+		bookmark.setId(id);
+		bookmark.setUserId(userId);
+		return bookmark;
+	}
+}
@@ -0,0 +1,41 @@
+package com.example;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserCacheTests {
+
+	private final UserCache<Collection<String>> cache = new UserCache<>("bookmarks", 10, 200);
+
+	@Test
+	public void announcedChangeEvictsTheUser() {
+		this.cache.put("Myntra", Arrays.asList("a"), "\"1-1-0\"");
+		this.cache.announce("Myntra", "\"2-2-0\"");
+		assertThat(this.cache.get("Myntra")).isNull();
+		assertThat(this.cache.getStale("Myntra")).isNull();
+	}
+
+	@Test
+	public void responseOlderThanTheAnnouncedVersionIsNotCached() {
+		this.cache.announce("Myntra", "\"2-2-0\"");
+		assertThat(this.cache.put("Myntra", Arrays.asList("a"), "\"1-1-0\"")).isFalse();
+		assertThat(this.cache.put("Myntra", Arrays.asList("a"), null)).isFalse();
+		assertThat(this.cache.get("Myntra")).isNull();
+
+		assertThat(this.cache.put("Myntra", Arrays.asList("a", "b"), "\"2-2-0\"")).isTrue();
+		assertThat(this.cache.get("Myntra")).containsExactly("a", "b");
+		assertThat(this.cache.put("Amazon", Arrays.asList("c"), "\"1-3-0\"")).isTrue();
+	}
+
+	@Test
+	public void announcementsLastOneTtl() throws InterruptedException {
+		this.cache.announce("Myntra", "\"2-2-0\"");
+		Thread.sleep(250);
+		assertThat(this.cache.put("Myntra", Arrays.asList("a"), "\"3-3-0\"")).isTrue();
+		assertThat(this.cache.get("Myntra")).containsExactly("a");
+	}
+}
@@ -0,0 +1,79 @@
+package com.example;
+
+import com.netflix.appinfo.ApplicationInfoManager;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class UserChangeSubscriberTests {
+
+	private final List<UserChangeSubscriber> subscribers = new ArrayList<>();
+
+	@After
+	public void tearDown() {
+		this.subscribers.forEach(UserChangeSubscriber::stop);
+	}
+
+	@Test
+	public void instancesOnOneHostListenOnTheirOwnPorts() throws Exception {
+		ApplicationInfoManager infoManager = mock(ApplicationInfoManager.class);
+		UserChangeSubscriber first = subscriber(mock(ServicesRepo.class), infoManager, "");
+		UserChangeSubscriber second = subscriber(mock(ServicesRepo.class), infoManager, "");
+
+		assertThat(first.getPort()).isNotEqualTo(second.getPort());
+		verify(infoManager).registerAppMetadata(
+				Collections.singletonMap(UserChangeSubscriber.PORT_METADATA, Integer.toString(first.getPort())));
+		verify(infoManager).registerAppMetadata(
+				Collections.singletonMap(UserChangeSubscriber.PORT_METADATA, Integer.toString(second.getPort())));
+	}
+
+	@Test
+	public void changesFromThisHostAreAnnounced() throws Exception {
+		ServicesRepo servicesRepo = mock(ServicesRepo.class);
+		UserChangeSubscriber subscriber = subscriber(servicesRepo, null, "");
+		byte[] payload = "bookmarks Myntra 3-a-0".getBytes(StandardCharsets.UTF_8);
+		try (DatagramSocket sender = new DatagramSocket()) {
+			sender.send(new DatagramPacket(payload, payload.length,
+					new InetSocketAddress(InetAddress.getLoopbackAddress(), subscriber.getPort())));
+		}
+		verify(servicesRepo, timeout(5000)).announce("bookmarks", "Myntra", "3-a-0");
+	}
+
+	@Test
+	public void otherHostsAreHeardOnlyWhenTrusted() throws Exception {
+		UserChangeSubscriber subscriber = subscriber(mock(ServicesRepo.class), null, "");
+		assertThat(subscriber.accepts(InetAddress.getLoopbackAddress())).isTrue();
+		assertThat(subscriber.accepts(InetAddress.getByName("203.0.113.5"))).isFalse();
+
+		UserChangeSubscriber trusting = subscriber(mock(ServicesRepo.class), null, "203.0.113.5, 203.0.113.6");
+		assertThat(trusting.accepts(InetAddress.getByName("203.0.113.5"))).isTrue();
+		assertThat(trusting.accepts(InetAddress.getByName("203.0.113.6"))).isTrue();
+		assertThat(trusting.accepts(InetAddress.getByName("203.0.113.7"))).isFalse();
+	}
+
+	private UserChangeSubscriber subscriber(ServicesRepo servicesRepo, ApplicationInfoManager infoManager,
+			String trustedSenders) throws Exception {
+		UserChangeSubscriber subscriber = new UserChangeSubscriber();
+		ReflectionTestUtils.setField(subscriber, "servicesRepo", servicesRepo);
+		ReflectionTestUtils.setField(subscriber, "edgeResponseCache", mock(EdgeResponseCache.class));
+		ReflectionTestUtils.setField(subscriber, "applicationInfoManager", infoManager);
+		ReflectionTestUtils.setField(subscriber, "trustedSenders", trustedSenders);
+		subscriber.start();
+		this.subscribers.add(subscriber);
+		return subscriber;
+	}
+}
@@ -0,0 +1,44 @@
+package com.example;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Startup timeline and readiness gate for every service, and with the
+ * {@code fast-start} profile, lazy singletons and deferred runners.
+ */
+@Configuration
+public class FastStartAutoConfiguration {
+
+	@Bean
+	public static StartupTimeline startupTimeline() {
+		return new StartupTimeline();
+	}
+
+	@Bean
+	public StartupTimelineEndpoint startupTimelineEndpoint(StartupTimeline startupTimeline) {
+		return new StartupTimelineEndpoint(startupTimeline);
+	}
+
+	@Bean
+	public StartupReadiness readinessHealthIndicator(StartupTimeline startupTimeline) {
+		return new StartupReadiness(startupTimeline);
+	}
+
+	@Configuration
+	@Profile("fast-start")
+	static class FastStartProfileConfiguration {
+
+		@Bean
+		public static LazyInitBeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor() {
+			return new LazyInitBeanFactoryPostProcessor();
+		}
+
+		@Bean
+		public static BackgroundRunners backgroundRunners(ObjectFactory<StartupReadiness> readinessHealthIndicator) {
+			return new BackgroundRunners(readinessHealthIndicator);
+		}
+	}
+}
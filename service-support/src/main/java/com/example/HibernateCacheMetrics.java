@@ -0,0 +1,57 @@
+package com.example;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hibernate second-level cache statistics per region, plus the query cache totals,
+ * as {@code hibernate.cache.*} metrics. Empty unless statistics are enabled with
+ * {@code hibernate.generate_statistics}.
+ */
+class HibernateCacheMetrics implements PublicMetrics {
+
+	private final ObjectProvider<EntityManagerFactory> entityManagerFactory;
+
+	HibernateCacheMetrics(ObjectProvider<EntityManagerFactory> entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		EntityManagerFactory entityManagerFactory = this.entityManagerFactory.getIfUnique();
+		if (entityManagerFactory == null) {
+			return Collections.emptyList();
+		}
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		if (!statistics.isStatisticsEnabled()) {
+			return Collections.emptyList();
+		}
+		List<Metric<?>> metrics = new ArrayList<>(Arrays.<Metric<?>>asList(
+				new Metric<>("hibernate.cache.query.hits", statistics.getQueryCacheHitCount()),
+				new Metric<>("hibernate.cache.query.misses", statistics.getQueryCacheMissCount()),
+				new Metric<>("hibernate.cache.query.puts", statistics.getQueryCachePutCount())));
+		for (String region : statistics.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics cache = statistics.getSecondLevelCacheStatistics(region);
+			if (cache == null) {
+				continue;
+			}
+			String prefix = "hibernate.cache." + region;
+			metrics.add(new Metric<>(prefix + ".hits", cache.getHitCount()));
+			metrics.add(new Metric<>(prefix + ".misses", cache.getMissCount()));
+			metrics.add(new Metric<>(prefix + ".puts", cache.getPutCount()));
+			metrics.add(new Metric<>(prefix + ".entries", cache.getElementCountInMemory()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,27 @@
+package com.example;
+
+/**
+ * A bulk import stopped at a row it could not parse or that failed validation.
+ * Chunks committed before that row stay in the database; {@link #getCommitted()}
+ * says how many rows they hold, so the caller can resume after them.
+ */
+public class ImportException extends RuntimeException {
+
+	private final long line;
+
+	private final long committed;
+
+	public ImportException(long line, long committed, String message) {
+		super("line " + line + ": " + message);
+		this.line = line;
+		this.committed = committed;
+	}
+
+	public long getLine() {
+		return this.line;
+	}
+
+	public long getCommitted() {
+		return this.committed;
+	}
+}
@@ -0,0 +1,301 @@
+package com.example;
+
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.exception.HystrixTimeoutException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms per controller method, repository method and Feign call, by
+ * outcome, and counts of Hystrix fallbacks by cause.
+ *
+ * Recording goes to an HdrHistogram {@link Recorder}, wait-free and without
+ * allocation once the timer exists. Percentiles are reported for the last complete
+ * window of {@code instrumentation.window-seconds}, counts since startup. Everything
+ * is served on {@code /latency} and the counts and p99s on {@code /metrics}.
+ */
+public class Instrumentation implements PublicMetrics {
+
+	public static final String CONTROLLER = "controller";
+
+	public static final String REPOSITORY = "repository";
+
+	public static final String FEIGN = "feign";
+
+	public static final String SUCCESS = "success";
+
+	public static final String ERROR = "error";
+
+	public static final String TIMEOUT = "timeout";
+
+	public static final String FALLBACK = "fallback";
+
+	public static final String REJECTED = "rejected";
+
+	public static final String SHORT_CIRCUITED = "short_circuited";
+
+	/**
+	 * The response header a controller fallback puts its cause in, for the controller
+	 * timing to be recorded under that cause.
+	 */
+	public static final String OUTCOME_HEADER = "X-Fallback-Cause";
+
+	private static final boolean HYSTRIX_PRESENT = ClassUtils.isPresent(
+			"com.netflix.hystrix.exception.HystrixRuntimeException", Instrumentation.class.getClassLoader());
+
+	private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+	private final long windowSeconds;
+
+	// kind -> name -> outcome -> timer, looked up without building a key on every call
+	private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Timer>>> timers = new ConcurrentHashMap<>();
+
+	// command -> cause -> count
+	private final ConcurrentMap<String, ConcurrentMap<String, LongAdder>> fallbacks = new ConcurrentHashMap<>();
+
+	private ScheduledExecutorService rotation;
+
+	Instrumentation(long windowSeconds) {
+		this.windowSeconds = windowSeconds;
+	}
+
+	@PostConstruct
+	void start() {
+		this.rotation = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "instrumentation-window");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.rotation.scheduleAtFixedRate(this::rotate, this.windowSeconds, this.windowSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Ends the current window: what was recorded since the last rotation becomes what
+	 * the percentiles are reported for.
+	 */
+	void rotate() {
+		this.timers.values().forEach(names -> names.values()
+				.forEach(outcomes -> outcomes.values().forEach(Timer::rotate)));
+	}
+
+	@PreDestroy
+	void stop() {
+		this.rotation.shutdownNow();
+	}
+
+	/**
+	 * Records a call that started at {@code startNanos}, from {@link System#nanoTime()}.
+	 */
+	public void record(String kind, String name, String outcome, long startNanos) {
+		timer(kind, name, outcome).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+	}
+
+	/**
+	 * Counts a Hystrix fallback by what caused it and returns that cause. Fallbacks
+	 * run on Hystrix threads, away from the request, so a controller fallback tags its
+	 * call by sending the cause in {@link #OUTCOME_HEADER}.
+	 */
+	public String fallback(String command, Throwable cause) {
+		String outcome = outcomeOf(cause);
+		ConcurrentMap<String, LongAdder> causes = this.fallbacks.get(command);
+		if (causes == null) {
+			causes = putIfAbsent(this.fallbacks, command, new ConcurrentHashMap<>());
+		}
+		LongAdder count = causes.get(outcome);
+		if (count == null) {
+			count = putIfAbsent(causes, outcome, new LongAdder());
+		}
+		count.increment();
+		return outcome;
+	}
+
+	/**
+	 * A {@link HystrixRuntimeException} carries its failure type. A fallback is given
+	 * the underlying exception instead: a {@link RejectedExecutionException} from a
+	 * full thread pool, or Hystrix's own exceptions for an exhausted semaphore or an
+	 * open circuit, which can only be told apart by their messages.
+	 */
+	static String outcomeOf(Throwable cause) {
+		for (Throwable current = cause; current != null; current = current.getCause()) {
+			if (HYSTRIX_PRESENT) {
+				String outcome = HystrixOutcomes.outcomeOf(current);
+				if (outcome != null) {
+					return outcome;
+				}
+			}
+			if (current instanceof SocketTimeoutException) {
+				return TIMEOUT;
+			}
+			if (current instanceof RejectedExecutionException) {
+				return REJECTED;
+			}
+			String message = String.valueOf(current.getMessage());
+			if (message.contains("could not acquire a semaphore")) {
+				return REJECTED;
+			}
+			if (message.contains("short-circuited")) {
+				return SHORT_CIRCUITED;
+			}
+		}
+		return cause == null ? FALLBACK : ERROR;
+	}
+
+	private Timer timer(String kind, String name, String outcome) {
+		ConcurrentMap<String, ConcurrentMap<String, Timer>> names = this.timers.get(kind);
+		if (names == null) {
+			names = putIfAbsent(this.timers, kind, new ConcurrentHashMap<>());
+		}
+		ConcurrentMap<String, Timer> outcomes = names.get(name);
+		if (outcomes == null) {
+			outcomes = putIfAbsent(names, name, new ConcurrentHashMap<>());
+		}
+		Timer timer = outcomes.get(outcome);
+		if (timer == null) {
+			timer = putIfAbsent(outcomes, outcome, new Timer());
+		}
+		return timer;
+	}
+
+	private static <K, V> V putIfAbsent(ConcurrentMap<K, V> map, K key, V value) {
+		V existing = map.putIfAbsent(key, value);
+		return existing != null ? existing : value;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		this.timers.forEach((kind, names) -> names.forEach((name, outcomes) -> outcomes.forEach((outcome, timer) -> {
+			String prefix = "latency." + kind + "." + name + "." + outcome;
+			metrics.add(new Metric<>(prefix + ".count", timer.count.sum()));
+			metrics.add(new Metric<>(prefix + ".p99-millis", millis(timer.window.getValueAtPercentile(99))));
+		})));
+		this.fallbacks.forEach((command, causes) -> causes.forEach((cause, count) ->
+				metrics.add(new Metric<>("fallback." + command + "." + cause, count.sum()))));
+		return metrics;
+	}
+
+	Map<String, Object> report() {
+		Map<String, Object> latencies = new TreeMap<>();
+		this.timers.forEach((kind, names) -> {
+			Map<String, Object> byName = new TreeMap<>();
+			names.forEach((name, outcomes) -> {
+				Map<String, Object> byOutcome = new TreeMap<>();
+				outcomes.forEach((outcome, timer) -> byOutcome.put(outcome, timer.report()));
+				byName.put(name, byOutcome);
+			});
+			latencies.put(kind, byName);
+		});
+		Map<String, Object> fallbacks = new TreeMap<>();
+		this.fallbacks.forEach((command, causes) -> {
+			Map<String, Long> byCause = new TreeMap<>();
+			causes.forEach((cause, count) -> byCause.put(cause, count.sum()));
+			fallbacks.put(command, byCause);
+		});
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("windowSeconds", this.windowSeconds);
+		report.put("latencies", latencies);
+		report.put("fallbacks", fallbacks);
+		return report;
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	/**
+	 * Kept apart so that Hystrix's classes are only loaded where Hystrix is present.
+	 */
+	private static class HystrixOutcomes {
+
+		static String outcomeOf(Throwable cause) {
+			if (cause instanceof HystrixTimeoutException) {
+				return TIMEOUT;
+			}
+			if (!(cause instanceof HystrixRuntimeException)
+					|| ((HystrixRuntimeException) cause).getFailureType() == null) {
+				return null;
+			}
+			switch (((HystrixRuntimeException) cause).getFailureType()) {
+			case TIMEOUT:
+				return TIMEOUT;
+			case REJECTED_THREAD_EXECUTION:
+			case REJECTED_SEMAPHORE_EXECUTION:
+			case REJECTED_SEMAPHORE_FALLBACK:
+				return REJECTED;
+			case SHORTCIRCUIT:
+				return SHORT_CIRCUITED;
+			default:
+				return null;
+			}
+		}
+	}
+
+	private static class Timer {
+
+		private final Recorder recorder = new Recorder(HIGHEST_MICROS, 2);
+
+		private final LongAdder count = new LongAdder();
+
+		private volatile Histogram window = new Histogram(HIGHEST_MICROS, 2);
+
+		void record(long micros) {
+			this.recorder.recordValue(Math.min(micros, HIGHEST_MICROS));
+			this.count.increment();
+		}
+
+		void rotate() {
+			this.window = this.recorder.getIntervalHistogram();
+		}
+
+		Map<String, Object> report() {
+			Histogram window = this.window;
+			Map<String, Object> report = new LinkedHashMap<>();
+			report.put("count", this.count.sum());
+			report.put("windowCount", window.getTotalCount());
+			report.put("p50Millis", millis(window.getValueAtPercentile(50)));
+			report.put("p90Millis", millis(window.getValueAtPercentile(90)));
+			report.put("p99Millis", millis(window.getValueAtPercentile(99)));
+			report.put("maxMillis", millis(window.getMaxValue()));
+			return report;
+		}
+	}
+}
+
+/**
+ * {@code /latency}: the {@link Instrumentation} histograms and fallback counts.
+ */
+class InstrumentationEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	private final Instrumentation instrumentation;
+
+	InstrumentationEndpoint(Instrumentation instrumentation) {
+		super("latency", false);
+		this.instrumentation = instrumentation;
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		return this.instrumentation.report();
+	}
+}
@@ -0,0 +1,58 @@
+package com.example;
+
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Latency histograms for controllers, repositories and Feign clients, served on
+ * {@code /latency} and {@code /metrics}, and Hibernate cache statistics where JPA is used.
+ */
+@Configuration
+public class InstrumentationAutoConfiguration {
+
+	@Bean
+	public static InstrumentedCalls instrumentedCalls(ObjectFactory<Instrumentation> instrumentation) {
+		return new InstrumentedCalls(instrumentation);
+	}
+
+	@Bean
+	public Instrumentation instrumentation(@Value("${instrumentation.window-seconds:60}") long windowSeconds) {
+		return new Instrumentation(windowSeconds);
+	}
+
+	@Bean
+	public InstrumentationEndpoint instrumentationEndpoint(Instrumentation instrumentation) {
+		return new InstrumentationEndpoint(instrumentation);
+	}
+
+	@Configuration
+	@ConditionalOnClass(name = "org.hibernate.SessionFactory")
+	static class HibernateCacheMetricsConfiguration {
+
+		@Bean
+		public HibernateCacheMetrics hibernateCacheMetrics(ObjectProvider<EntityManagerFactory> entityManagerFactory) {
+			return new HibernateCacheMetrics(entityManagerFactory);
+		}
+	}
+
+	@Configuration
+	static class ControllerLatencyConfiguration extends WebMvcConfigurerAdapter {
+
+		@Autowired
+		private Instrumentation instrumentation;
+
+		@Override
+		public void addInterceptors(InterceptorRegistry registry) {
+			registry.addInterceptor(new ControllerLatencyInterceptor(this.instrumentation));
+		}
+	}
+}
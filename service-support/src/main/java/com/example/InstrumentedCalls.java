@@ -0,0 +1,179 @@
+package com.example;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every call to a Spring Data repository and to a Feign client, by wrapping
+ * those beans in a proxy. Failures are recorded as {@code timeout} when a socket
+ * timeout caused them, as {@code error} otherwise.
+ */
+class InstrumentedCalls implements BeanPostProcessor {
+
+	private static final String REPOSITORY = "org.springframework.data.repository.Repository";
+
+	private static final String FEIGN_CLIENT = "org.springframework.cloud.netflix.feign.FeignClient";
+
+	private final ObjectFactory<Instrumentation> instrumentation;
+
+	InstrumentedCalls(ObjectFactory<Instrumentation> instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		Set<Class<?>> interfaces = ClassUtils.getAllInterfacesAsSet(bean);
+		for (Class<?> type : interfaces) {
+			if (isFeignClient(type)) {
+				return instrument(bean, interfaces, type, Instrumentation.FEIGN);
+			}
+		}
+		if (interfaces.stream().anyMatch(type -> type.getName().equals(REPOSITORY))) {
+			for (Class<?> type : interfaces) {
+				if (!type.getName().startsWith("org.springframework.") && extendsRepository(type)) {
+					return instrument(bean, interfaces, type, Instrumentation.REPOSITORY);
+				}
+			}
+		}
+		return bean;
+	}
+
+	private Object instrument(Object bean, Set<Class<?>> interfaces, Class<?> type, String kind) {
+		ProxyFactory proxy = new ProxyFactory();
+		proxy.setTarget(bean);
+		for (Class<?> implemented : interfaces) {
+			// the AOP interfaces are added back for the new proxy itself
+			if (!implemented.getName().startsWith("org.springframework.aop.")
+					&& !implemented.getName().equals("org.springframework.core.DecoratingProxy")) {
+				proxy.addInterface(implemented);
+			}
+		}
+		proxy.addAdvice(new Timing(this.instrumentation, type.getSimpleName(), kind));
+		return proxy.getProxy(type.getClassLoader());
+	}
+
+	private static boolean isFeignClient(Class<?> type) {
+		for (Annotation annotation : type.getAnnotations()) {
+			if (annotation.annotationType().getName().equals(FEIGN_CLIENT)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean extendsRepository(Class<?> type) {
+		for (Class<?> parent : type.getInterfaces()) {
+			if (parent.getName().equals(REPOSITORY) || extendsRepository(parent)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Timing implements MethodInterceptor {
+
+		private final ObjectFactory<Instrumentation> instrumentation;
+		private final String typeName;
+		private final String kind;
+		private final Map<Method, String> names = new ConcurrentHashMap<>();
+
+		Timing(ObjectFactory<Instrumentation> instrumentation, String typeName, String kind) {
+			this.instrumentation = instrumentation;
+			this.typeName = typeName;
+			this.kind = kind;
+		}
+
+		@Override
+		public Object invoke(MethodInvocation invocation) throws Throwable {
+			Method method = invocation.getMethod();
+			if (method.getDeclaringClass() == Object.class) {
+				return invocation.proceed();
+			}
+			String name = this.names.get(method);
+			if (name == null) {
+				name = this.typeName + "." + method.getName();
+				this.names.put(method, name);
+			}
+			long start = System.nanoTime();
+			try {
+				Object result = invocation.proceed();
+				this.instrumentation.getObject().record(this.kind, name, Instrumentation.SUCCESS, start);
+				return result;
+			}
+			catch (Throwable ex) {
+				String outcome = Instrumentation.outcomeOf(ex);
+				this.instrumentation.getObject().record(this.kind, name,
+						Instrumentation.TIMEOUT.equals(outcome) ? outcome : Instrumentation.ERROR, start);
+				throw ex;
+			}
+		}
+	}
+}
+
+/**
+ * Times every controller method, from the first dispatch of a request to the end
+ * of the last, so asynchronous handlers are timed until their response completes.
+ * The outcome is the cause of the Hystrix fallback that answered, if one did, else
+ * {@code error} for an exception or a 5xx status, else {@code success}.
+ */
+class ControllerLatencyInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = ControllerLatencyInterceptor.class.getName() + ".start";
+
+	private final Instrumentation instrumentation;
+
+	private final Map<Method, String> names = new ConcurrentHashMap<>();
+
+	ControllerLatencyInterceptor(Instrumentation instrumentation) {
+		this.instrumentation = instrumentation;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		if (handler instanceof HandlerMethod && request.getAttribute(START_ATTRIBUTE) == null) {
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+		Object start = request.getAttribute(START_ATTRIBUTE);
+		if (!(handler instanceof HandlerMethod) || start == null) {
+			return;
+		}
+		String outcome = response.getHeader(Instrumentation.OUTCOME_HEADER);
+		if (outcome == null) {
+			outcome = ex != null || response.getStatus() >= 500 ? Instrumentation.ERROR : Instrumentation.SUCCESS;
+		}
+		this.instrumentation.record(Instrumentation.CONTROLLER, name((HandlerMethod) handler), outcome, (Long) start);
+	}
+
+	private String name(HandlerMethod handler) {
+		String name = this.names.get(handler.getMethod());
+		if (name == null) {
+			name = handler.getBeanType().getSimpleName() + "." + handler.getMethod().getName();
+			this.names.put(handler.getMethod(), name);
+		}
+		return name;
+	}
+}
@@ -0,0 +1,94 @@
+package com.example;
+
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.Lifecycle;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Under the {@code fast-start} profile, makes singletons lazy so that only what
+ * serving needs is created at startup and the rest on first use.
+ *
+ * Beans that do their work from being created stay eager: lifecycle beans, event
+ * listeners, post-processors, runners, and anything with a {@code @PostConstruct}
+ * method, such as a listener thread or a static instance other code relies on.
+ * {@code fast-start.eager-beans} names any others.
+ */
+class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor, EnvironmentAware {
+
+	private static final List<Class<?>> EAGER_TYPES = Arrays.asList(Lifecycle.class, ApplicationListener.class,
+			BeanPostProcessor.class, BeanFactoryPostProcessor.class, SmartInitializingSingleton.class,
+			CommandLineRunner.class, ApplicationRunner.class);
+
+	private Set<String> eagerBeans;
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		this.eagerBeans = StringUtils.commaDelimitedListToSet(environment.getProperty("fast-start.eager-beans", ""));
+	}
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+		for (String beanName : beanFactory.getBeanDefinitionNames()) {
+			BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+			if (definition.isAbstract() || !definition.isSingleton()
+					|| definition.getRole() == BeanDefinition.ROLE_INFRASTRUCTURE
+					|| this.eagerBeans.contains(beanName)) {
+				continue;
+			}
+			Class<?> type = typeOf(definition, beanFactory.getBeanClassLoader());
+			if (type != null && !mustStayEager(type)) {
+				definition.setLazyInit(true);
+			}
+		}
+	}
+
+	/**
+	 * The declared type, from the definition alone so that nothing is created early;
+	 * {@code null} if it cannot be resolved, which keeps the bean eager.
+	 */
+	private static Class<?> typeOf(BeanDefinition definition, ClassLoader classLoader) {
+		String typeName = definition.getBeanClassName();
+		if (definition instanceof AnnotatedBeanDefinition
+				&& ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata() != null) {
+			typeName = ((AnnotatedBeanDefinition) definition).getFactoryMethodMetadata().getReturnTypeName();
+		}
+		if (typeName == null) {
+			return null;
+		}
+		try {
+			return ClassUtils.forName(typeName, classLoader);
+		}
+		catch (ClassNotFoundException | LinkageError ex) {
+			return null;
+		}
+	}
+
+	private static boolean mustStayEager(Class<?> type) {
+		for (Class<?> eagerType : EAGER_TYPES) {
+			if (eagerType.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		boolean[] postConstruct = new boolean[1];
+		ReflectionUtils.doWithMethods(type, method -> postConstruct[0] = true,
+				method -> method.isAnnotationPresent(PostConstruct.class));
+		return postConstruct[0];
+	}
+}
@@ -0,0 +1,195 @@
+package com.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.hibernate.action.internal.BulkOperationCleanupAction;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.persister.entity.Queryable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the rows of a table keyed by {@code user_id} from a CSV or NDJSON source
+ * into the database. A CSV starts with a header naming the entity's properties, in
+ * any order; fields may be quoted and quoted fields may hold commas, quotes and line
+ * breaks. Subclasses say how a row is validated and which columns it fills.
+ *
+ * Rows are committed in chunks of {@code chunkSize} and written with plain JDBC
+ * batches of {@code hibernate.jdbc.batch_size}, so heap use stays bounded however
+ * large the input is, and no entity is instantiated in the persistence context, run
+ * through its callbacks or put in the second-level cache. Ids still come from the
+ * entity's Hibernate generator, so they never collide with those Hibernate assigns;
+ * the changed users are announced through {@link UserChangePublisher} and cached
+ * queries over the table are invalidated as a native bulk statement would.
+ *
+ * A row that cannot be parsed or fails validation stops the import with an
+ * {@link ImportException} carrying its line and the rows committed until then.
+ * Progress is published as {@code import.<collection>.*} gauges.
+ */
+abstract class RowImporter<T> {
+
+	// the width Hibernate gives the String columns
+	static final int MAX_LENGTH = 255;
+
+	private static final CsvMapper CSV = new CsvMapper();
+
+	private static final CsvSchema HEADER = CsvSchema.emptySchema().withHeader();
+
+	private final Class<T> type;
+
+	private final String collection;
+
+	private final int chunkSize;
+
+	private final String insert;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private GaugeService gaugeService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${spring.jpa.properties.hibernate.jdbc.batch_size:500}")
+	private int batchSize;
+
+	/**
+	 * @param type the entity read from each row
+	 * @param table the entity's table
+	 * @param collection the name used for change events and gauges
+	 * @param chunkSize the rows committed per transaction
+	 * @param columns the columns after {@code id} that {@link #values} fills
+	 */
+	RowImporter(Class<T> type, String table, String collection, int chunkSize, String... columns) {
+		this.type = type;
+		this.collection = collection;
+		this.chunkSize = chunkSize;
+		this.insert = "INSERT INTO " + table + " (id, " + String.join(", ", columns) + ") VALUES (?"
+				+ String.join("", Collections.nCopies(columns.length, ", ?")) + ")";
+	}
+
+	/**
+	 * Completes the row and returns what is wrong with it, or {@code null}.
+	 */
+	abstract String validate(T row);
+
+	abstract String userId(T row);
+
+	/**
+	 * The values of the row's columns, in the order given to the constructor.
+	 */
+	abstract Object[] values(T row);
+
+	long importCsv(Reader source) throws IOException {
+		return importRows(CSV.readerFor(this.type).with(HEADER).readValues(source));
+	}
+
+	long importNdjson(Reader source) throws IOException {
+		return importRows(this.objectMapper.readerFor(this.type).readValues(source));
+	}
+
+	private long importRows(MappingIterator<T> rows) throws IOException {
+		TransactionTemplate transaction = new TransactionTemplate(this.transactionManager);
+		List<T> chunk = new ArrayList<>(this.chunkSize);
+		long started = System.nanoTime();
+		long imported = 0;
+		while (true) {
+			T row;
+			try {
+				if (!rows.hasNextValue()) {
+					break;
+				}
+				row = rows.nextValue();
+			}
+			catch (JsonProcessingException ex) {
+				throw new ImportException(ex.getLocation().getLineNr(), imported, ex.getOriginalMessage());
+			}
+			String invalid = validate(row);
+			if (invalid != null) {
+				throw new ImportException(rows.getParser().getTokenLocation().getLineNr(), imported, invalid);
+			}
+			chunk.add(row);
+			if (chunk.size() == this.chunkSize) {
+				imported += transaction.execute(status -> insert(chunk));
+				chunk.clear();
+				reportProgress(imported, started);
+			}
+		}
+		imported += transaction.execute(status -> insert(chunk));
+		reportProgress(imported, started);
+		return imported;
+	}
+
+	private int insert(List<T> chunk) {
+		if (chunk.isEmpty()) {
+			return 0;
+		}
+		SessionImplementor session = this.entityManager.unwrap(SessionImplementor.class);
+		EntityPersister persister = session.getFactory().getEntityPersister(this.type.getName());
+		List<Object[]> batch = new ArrayList<>(this.batchSize);
+		Set<String> userIds = new LinkedHashSet<>();
+		for (T row : chunk) {
+			Object[] values = values(row);
+			Object[] parameters = new Object[values.length + 1];
+			parameters[0] = persister.getIdentifierGenerator().generate(session, row);
+			System.arraycopy(values, 0, parameters, 1, values.length);
+			batch.add(parameters);
+			userIds.add(userId(row));
+			if (batch.size() == this.batchSize) {
+				this.jdbcTemplate.batchUpdate(this.insert, batch);
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			this.jdbcTemplate.batchUpdate(this.insert, batch);
+		}
+		// what Hibernate does after a native bulk statement: once the transaction
+		// completes, cached queries over the table are stale
+		((EventSource) session).getActionQueue().addAction(
+				new BulkOperationCleanupAction(session, (Queryable) persister));
+		userIds.forEach(userId -> UserChangePublisher.changed(this.collection, userId));
+		return chunk.size();
+	}
+
+	private void reportProgress(long imported, long started) {
+		double seconds = Math.max(System.nanoTime() - started, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+		this.gaugeService.submit("import." + this.collection + ".rows", imported);
+		this.gaugeService.submit("import." + this.collection + ".rows-per-second", imported / seconds);
+	}
+
+	static boolean isEmpty(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+
+	static boolean tooLong(String value) {
+		return value != null && value.length() > MAX_LENGTH;
+	}
+}
@@ -0,0 +1,34 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Reads and writes Jackson Smile, a compact binary encoding of the JSON data model,
+ * with the modules and features of the given builder, normally the one Spring Boot
+ * configures from {@code spring.jackson.*}.
+ *
+ * Where it sits among the other converters decides who uses it. Appended after the
+ * JSON converter of a server, it is only chosen for requests that ask for
+ * {@code application/x-jackson-smile}; put first on a client, its media type leads
+ * the Accept header and it decodes the Smile answers.
+ */
+public class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+	public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+	public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+	public SmileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+		super(smileMapper(builder), APPLICATION_SMILE);
+	}
+
+	private static ObjectMapper smileMapper(Jackson2ObjectMapperBuilder builder) {
+		ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+		builder.configure(mapper);
+		return mapper;
+	}
+}
@@ -0,0 +1,150 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.OrderUtils;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Readiness gate: {@code OUT_OF_SERVICE} on {@code /health} until the context is up
+ * and every runner deferred by {@link BackgroundRunners} has finished, {@code DOWN}
+ * if one of them failed. With {@code eureka.client.healthcheck.enabled} the Eureka
+ * status follows, so callers are not routed to an instance that is still seeding.
+ */
+public class StartupReadiness extends AbstractHealthIndicator implements ApplicationListener<ApplicationReadyEvent> {
+
+	private static final Log logger = LogFactory.getLog(StartupReadiness.class);
+
+	private final StartupTimeline timeline;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "startup-runner");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private volatile boolean ready;
+
+	private volatile String failure;
+
+	StartupReadiness(StartupTimeline timeline) {
+		this.timeline = timeline;
+	}
+
+	/**
+	 * Runs a deferred runner. One thread, so runners keep their relative order.
+	 */
+	void submit(String name, CommandLineRunner runner, String... args) {
+		this.pending.incrementAndGet();
+		this.executor.execute(() -> {
+			try {
+				runner.run(args);
+			}
+			catch (Exception ex) {
+				this.failure = name + ": " + ex;
+				logger.warn("Deferred runner " + name + " failed", ex);
+			}
+			finally {
+				this.pending.decrementAndGet();
+			}
+		});
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		// queued after every runner, since runners are called before this event
+		this.executor.execute(() -> {
+			this.ready = true;
+			this.timeline.ready();
+			this.executor.shutdown();
+		});
+	}
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) {
+		if (this.failure != null) {
+			builder.down().withDetail("failed", this.failure);
+		}
+		else if (this.ready) {
+			builder.up();
+		}
+		else {
+			builder.outOfService().withDetail("pendingRunners", this.pending.get());
+		}
+	}
+}
+
+/**
+ * Under the {@code fast-start} profile, takes the runners named in
+ * {@code fast-start.background-runners} off the startup path: Spring Boot's call to
+ * them only queues them on {@link StartupReadiness}.
+ */
+class BackgroundRunners implements BeanPostProcessor, EnvironmentAware {
+
+	private final ObjectFactory<StartupReadiness> readiness;
+
+	private Set<String> names;
+
+	BackgroundRunners(ObjectFactory<StartupReadiness> readiness) {
+		this.readiness = readiness;
+	}
+
+	@Override
+	public void setEnvironment(Environment environment) {
+		this.names = StringUtils.commaDelimitedListToSet(environment.getProperty("fast-start.background-runners", ""));
+	}
+
+	@Override
+	public Object postProcessBeforeInitialization(Object bean, String beanName) {
+		return bean;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (bean instanceof CommandLineRunner && this.names.contains(beanName)) {
+			return new DeferredRunner(beanName, (CommandLineRunner) bean);
+		}
+		return bean;
+	}
+
+	private class DeferredRunner implements CommandLineRunner, Ordered {
+
+		private final String name;
+		private final CommandLineRunner runner;
+
+		DeferredRunner(String name, CommandLineRunner runner) {
+			this.name = name;
+			this.runner = runner;
+		}
+
+		@Override
+		public void run(String... args) {
+			readiness.getObject().submit(this.name, this.runner, args);
+		}
+
+		@Override
+		public int getOrder() {
+			if (this.runner instanceof Ordered) {
+				return ((Ordered) this.runner).getOrder();
+			}
+			return OrderUtils.getOrder(this.runner.getClass(), Ordered.LOWEST_PRECEDENCE);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.example;
+
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.PriorityOrdered;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Records how long every bean took to create, from instantiation to the end of its
+ * initialization, both including the beans created for it ({@code totalMillis}) and
+ * excluding them ({@code selfMillis}), plus when the context and the application
+ * became ready, measured from JVM start.
+ *
+ * Registered first among the bean post-processors; the few created before it are
+ * not timed. Beans go on being created after startup (prototypes, refresh-scoped
+ * beans), so only the first {@value #MAX_TIMINGS} timings are kept and later beans
+ * are only counted.
+ */
+public class StartupTimeline extends InstantiationAwareBeanPostProcessorAdapter
+		implements PriorityOrdered, ApplicationListener<ApplicationReadyEvent> {
+
+	static final int MAX_TIMINGS = 5_000;
+
+	private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+	private final ThreadLocal<Deque<Creation>> creating = ThreadLocal.withInitial(ArrayDeque::new);
+
+	private final Queue<BeanTiming> beans = new ConcurrentLinkedQueue<>();
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final AtomicLong createdAfterReady = new AtomicLong();
+
+	private volatile long contextReadyMillis = -1;
+
+	private volatile long readyMillis = -1;
+
+	@Override
+	public int getOrder() {
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) {
+		this.creating.get().push(new Creation(beanName, beanClass, System.nanoTime()));
+		return null;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		Deque<Creation> stack = this.creating.get();
+		if (stack.stream().noneMatch(creation -> creation.name.equals(beanName))) {
+			// the object a FactoryBean made, or a bean created before this post-processor
+			return bean;
+		}
+		Creation creation;
+		do {
+			creation = stack.pop();
+		}
+		while (!creation.name.equals(beanName));
+		long total = System.nanoTime() - creation.start;
+		Creation parent = stack.peek();
+		if (parent != null) {
+			parent.childNanos += total;
+		}
+		boolean afterReady = this.contextReadyMillis >= 0;
+		if (afterReady) {
+			this.createdAfterReady.incrementAndGet();
+		}
+		if (this.created.incrementAndGet() <= MAX_TIMINGS) {
+			this.beans.add(new BeanTiming(beanName, creation.type.getName(), sinceJvmStart(),
+					total, total - creation.childNanos, afterReady));
+		}
+		return bean;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		this.contextReadyMillis = sinceJvmStart();
+	}
+
+	/**
+	 * Called by {@link StartupReadiness} once the deferred runners are done too.
+	 */
+	void ready() {
+		this.readyMillis = sinceJvmStart();
+	}
+
+	private long sinceJvmStart() {
+		return System.currentTimeMillis() - this.jvmStartMillis;
+	}
+
+	Map<String, Object> report(int limit) {
+		List<BeanTiming> timings = new ArrayList<>(this.beans);
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("contextReadyMillis", this.contextReadyMillis);
+		report.put("readyMillis", this.readyMillis);
+		report.put("beans", this.created.get());
+		report.put("beansTimed", timings.size());
+		report.put("beansCreatedAfterReady", this.createdAfterReady.get());
+		report.put("slowestBeans", timings.stream()
+				.sorted(Comparator.comparingLong((BeanTiming timing) -> timing.selfNanos).reversed())
+				.limit(limit)
+				.map(BeanTiming::toMap)
+				.collect(Collectors.toList()));
+		return report;
+	}
+
+	private static class Creation {
+
+		private final String name;
+		private final Class<?> type;
+		private final long start;
+		private long childNanos;
+
+		Creation(String name, Class<?> type, long start) {
+			this.name = name;
+			this.type = type;
+			this.start = start;
+		}
+	}
+
+	private static class BeanTiming {
+
+		private final String name;
+		private final String type;
+		private final long finishedAtMillis;
+		private final long totalNanos;
+		private final long selfNanos;
+		private final boolean afterReady;
+
+		BeanTiming(String name, String type, long finishedAtMillis, long totalNanos, long selfNanos, boolean afterReady) {
+			this.name = name;
+			this.type = type;
+			this.finishedAtMillis = finishedAtMillis;
+			this.totalNanos = totalNanos;
+			this.selfNanos = selfNanos;
+			this.afterReady = afterReady;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("name", this.name);
+			map.put("type", this.type);
+			map.put("finishedAtMillis", this.finishedAtMillis);
+			map.put("totalMillis", TimeUnit.NANOSECONDS.toMillis(this.totalNanos));
+			map.put("selfMillis", TimeUnit.NANOSECONDS.toMillis(this.selfNanos));
+			map.put("afterReady", this.afterReady);
+			return map;
+		}
+	}
+}
+
+/**
+ * {@code /startup}: the {@link StartupTimeline} with the slowest beans by own creation time.
+ */
+class StartupTimelineEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	private static final int SLOWEST_BEANS = 50;
+
+	private final StartupTimeline timeline;
+
+	StartupTimelineEndpoint(StartupTimeline timeline) {
+		super("startup", false);
+		this.timeline = timeline;
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		return this.timeline.report(SLOWEST_BEANS);
+	}
+}
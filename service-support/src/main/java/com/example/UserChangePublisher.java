@@ -0,0 +1,167 @@
+package com.example;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Announces that a user's data changed: sends one UDP datagram
+ * {@code <collection> <userId> <version>}, carrying the user's {@link UserVersions}
+ * version as of the commit, to every subscriber.
+ *
+ * Subscribers are the instances of {@code changes.subscriber-service}, passport-service
+ * by default, that name their port in the {@value #PORT_METADATA} Eureka metadata,
+ * plus any {@code host:port} listed in {@code changes.subscribers}. The instances are
+ * looked up in the discovery client's local copy of the registry on every send, so
+ * instances that come and go are followed without a restart.
+ *
+ * Delivery is best effort: subscribers still expire their entries on a TTL.
+ */
+class UserChangePublisher {
+
+	private static final Log logger = LogFactory.getLog(UserChangePublisher.class);
+
+	private static final int VERSIONS_PER_QUERY = 500;
+
+	/**
+	 * The Eureka metadata key under which a subscriber registers its port.
+	 */
+	static final String PORT_METADATA = "user-changes-port";
+
+	private static volatile UserChangePublisher instance;
+
+	@Autowired
+	private UserVersions userVersions;
+
+	@Autowired(required = false)
+	private DiscoveryClient discoveryClient;
+
+	@Value("${changes.subscriber-service:passport-service}")
+	private String subscriberService;
+
+	@Value("${changes.subscribers:}")
+	private String subscribers;
+
+	private final List<InetSocketAddress> staticTargets = new ArrayList<>();
+
+	private DatagramSocket socket;
+
+	@PostConstruct
+	void open() throws SocketException {
+		for (String subscriber : StringUtils.commaDelimitedListToSet(this.subscribers)) {
+			String[] hostAndPort = subscriber.trim().split(":");
+			this.staticTargets.add(new InetSocketAddress(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+		}
+		this.socket = new DatagramSocket();
+		instance = this;
+	}
+
+	@PreDestroy
+	void close() {
+		instance = null;
+		this.socket.close();
+	}
+
+	/**
+	 * Called from JPA entity callbacks, which are not Spring beans. Inside a
+	 * transaction, changes are collected and sent once it commits, one event per
+	 * distinct user, so subscribers never re-read uncommitted data and bulk
+	 * writes do not turn into one datagram per row.
+	 */
+	static void changed(String collection, String userId) {
+		UserChangePublisher publisher = instance;
+		if (publisher == null) {
+			return;
+		}
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			publisher.send(collection, userId);
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(publisher);
+		if (pending == null) {
+			Set<String> users = new LinkedHashSet<>();
+			TransactionSynchronizationManager.bindResource(publisher, users);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(publisher);
+					if (status == STATUS_COMMITTED) {
+						publisher.sendAll(collection, users);
+					}
+				}
+			});
+			pending = users;
+		}
+		pending.add(userId);
+	}
+
+	/**
+	 * Looks the versions up {@value #VERSIONS_PER_QUERY} users at a time, so a bulk
+	 * write does not cost one query per user it touched.
+	 */
+	private void sendAll(String collection, Collection<String> userIds) {
+		List<InetSocketAddress> targets = targets();
+		List<String> users = new ArrayList<>(userIds);
+		for (int from = 0; from < users.size(); from += VERSIONS_PER_QUERY) {
+			List<String> slice = users.subList(from, Math.min(from + VERSIONS_PER_QUERY, users.size()));
+			List<String> versions = this.userVersions.versions(slice);
+			for (int i = 0; i < slice.size(); i++) {
+				send(targets, collection, slice.get(i), versions.get(i));
+			}
+		}
+	}
+
+	private void send(String collection, String userId) {
+		send(targets(), collection, userId, this.userVersions.version(userId));
+	}
+
+	/**
+	 * The configured subscribers followed by the discovered ones.
+	 */
+	List<InetSocketAddress> targets() {
+		List<InetSocketAddress> targets = new ArrayList<>(this.staticTargets);
+		if (this.discoveryClient != null) {
+			for (ServiceInstance subscriber : this.discoveryClient.getInstances(this.subscriberService)) {
+				String port = subscriber.getMetadata().get(PORT_METADATA);
+				if (port != null) {
+					targets.add(new InetSocketAddress(subscriber.getHost(), Integer.parseInt(port)));
+				}
+			}
+		}
+		return targets;
+	}
+
+	private void send(List<InetSocketAddress> targets, String collection, String userId, String version) {
+		byte[] payload = (collection + " " + userId + " " + version)
+				.getBytes(StandardCharsets.UTF_8);
+		for (InetSocketAddress target : targets) {
+			try {
+				this.socket.send(new DatagramPacket(payload, payload.length, target));
+			}
+			catch (IOException ex) {
+				logger.warn("Unable to publish change for " + userId + " to " + target, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.example;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user version of the rows of a table keyed by {@code user_id}, derived from the
+ * rows themselves: their count, their highest id and the sum of their JPA
+ * {@code @Version} columns. Inserts and deletes change the first two and updates
+ * through JPA the third, so every instance computes the same version, and writes this
+ * instance never saw (another instance, SQL against the shared database) still change
+ * it. Bulk updates that bypass JPA must increment {@code version} themselves.
+ *
+ * Each lookup is one aggregate over the user's entries in the index kept by
+ * {@link UserIdIndex}, which holds {@code version} as well, so the rows themselves
+ * are not read.
+ */
+class UserVersions {
+
+	/**
+	 * The version of a user without rows.
+	 */
+	static final String NONE = version(0, 0, 0);
+
+	private final String versionQuery;
+
+	private final String versionsQuery;
+
+	private final String versionsOfQuery;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	UserVersions(String table) {
+		this.versionQuery = "SELECT COUNT(*), COALESCE(MAX(id), 0), COALESCE(SUM(version), 0) "
+				+ "FROM " + table + " WHERE user_id = ?";
+		this.versionsQuery = "SELECT user_id, COUNT(*), MAX(id), SUM(version) FROM " + table + " GROUP BY user_id";
+		this.versionsOfQuery = "SELECT user_id, COUNT(*), MAX(id), SUM(version) FROM " + table
+				+ " WHERE user_id IN (%s) GROUP BY user_id";
+	}
+
+	String version(String userId) {
+		return this.jdbcTemplate.queryForObject(this.versionQuery,
+				(row, i) -> version(row.getLong(1), row.getLong(2), row.getLong(3)), userId);
+	}
+
+	/**
+	 * The version as a strong ETag.
+	 */
+	String eTag(String userId) {
+		return eTagOf(version(userId));
+	}
+
+	/**
+	 * The version of every user with rows, in one pass over the table.
+	 */
+	Map<String, String> versions() {
+		Map<String, String> versions = new HashMap<>();
+		this.jdbcTemplate.query(this.versionsQuery, (RowCallbackHandler) row -> versions.put(row.getString(1),
+				version(row.getLong(2), row.getLong(3), row.getLong(4))));
+		return versions;
+	}
+
+	/**
+	 * The versions of the given users, in the same order, in one query.
+	 */
+	List<String> versions(List<String> userIds) {
+		Map<String, String> versions = new HashMap<>();
+		if (!userIds.isEmpty()) {
+			this.jdbcTemplate.query(String.format(this.versionsOfQuery,
+					String.join(",", Collections.nCopies(userIds.size(), "?"))),
+					(RowCallbackHandler) row -> versions.put(row.getString(1),
+							version(row.getLong(2), row.getLong(3), row.getLong(4))), userIds.toArray());
+		}
+		List<String> ordered = new ArrayList<>(userIds.size());
+		userIds.forEach(userId -> ordered.add(versions.getOrDefault(userId, NONE)));
+		return ordered;
+	}
+
+	static String eTagOf(String version) {
+		return "\"" + version + "\"";
+	}
+
+	private static String version(long count, long maxId, long updates) {
+		return Long.toString(count, 36) + "-" + Long.toString(maxId, 36) + "-" + Long.toString(updates, 36);
+	}
+}
@@ -0,0 +1,132 @@
+package com.example;
+
+import com.netflix.hystrix.HystrixCommand;
+import com.netflix.hystrix.exception.HystrixRuntimeException;
+import com.netflix.hystrix.exception.HystrixRuntimeException.FailureType;
+import com.netflix.hystrix.exception.HystrixTimeoutException;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class InstrumentationTests {
+
+	private final Instrumentation instrumentation = new Instrumentation(60);
+
+	@Test
+	public void hystrixFailureTypesMapToOutcomes() {
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.TIMEOUT, null))).isEqualTo(Instrumentation.TIMEOUT);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.REJECTED_THREAD_EXECUTION, null)))
+				.isEqualTo(Instrumentation.REJECTED);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.REJECTED_SEMAPHORE_EXECUTION, null)))
+				.isEqualTo(Instrumentation.REJECTED);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.REJECTED_SEMAPHORE_FALLBACK, null)))
+				.isEqualTo(Instrumentation.REJECTED);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.SHORTCIRCUIT, null)))
+				.isEqualTo(Instrumentation.SHORT_CIRCUITED);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.COMMAND_EXCEPTION, new IllegalStateException())))
+				.isEqualTo(Instrumentation.ERROR);
+		assertThat(Instrumentation.outcomeOf(hystrix(FailureType.COMMAND_EXCEPTION, new SocketTimeoutException())))
+				.isEqualTo(Instrumentation.TIMEOUT);
+	}
+
+	@Test
+	public void causesHandedToFallbacksMapToOutcomes() {
+		// what Hystrix passes to a fallback for each kind of failure
+		assertThat(Instrumentation.outcomeOf(new HystrixTimeoutException())).isEqualTo(Instrumentation.TIMEOUT);
+		assertThat(Instrumentation.outcomeOf(new RejectedExecutionException())).isEqualTo(Instrumentation.REJECTED);
+		assertThat(Instrumentation.outcomeOf(new RuntimeException("could not acquire a semaphore for execution")))
+				.isEqualTo(Instrumentation.REJECTED);
+		assertThat(Instrumentation.outcomeOf(new RuntimeException("Hystrix circuit short-circuited and is OPEN")))
+				.isEqualTo(Instrumentation.SHORT_CIRCUITED);
+		assertThat(Instrumentation.outcomeOf(new RuntimeException(new SocketTimeoutException())))
+				.isEqualTo(Instrumentation.TIMEOUT);
+		assertThat(Instrumentation.outcomeOf(new IllegalStateException())).isEqualTo(Instrumentation.ERROR);
+		assertThat(Instrumentation.outcomeOf(null)).isEqualTo(Instrumentation.FALLBACK);
+	}
+
+	@Test
+	public void fallbackIsCountedByCauseAndReturnsIt() {
+		assertThat(this.instrumentation.fallback("bookmarks", new RejectedExecutionException()))
+				.isEqualTo(Instrumentation.REJECTED);
+		this.instrumentation.fallback("bookmarks", new RejectedExecutionException());
+		this.instrumentation.fallback("bookmarks", new HystrixTimeoutException());
+
+		assertThat(fallbacks()).containsEntry("bookmarks.rejected", 2L).containsEntry("bookmarks.timeout", 1L);
+	}
+
+	@Test
+	public void percentilesCoverTheLastCompleteWindow() {
+		record(100, 5);
+
+		// nothing is reported for the window still being recorded
+		assertThat(timer()).containsEntry("count", 100L).containsEntry("windowCount", 0L);
+
+		this.instrumentation.rotate();
+		assertThat(timer()).containsEntry("count", 100L).containsEntry("windowCount", 100L);
+		// at least the recorded latency, plus however long recording took on a busy machine
+		assertThat((Double) timer().get("p99Millis")).isBetween(4.9, 25.0);
+
+		record(10, 50);
+		this.instrumentation.rotate();
+		assertThat(timer()).containsEntry("count", 110L).containsEntry("windowCount", 10L);
+		assertThat((Double) timer().get("p50Millis")).isBetween(49.0, 75.0);
+
+		this.instrumentation.rotate();
+		assertThat(timer()).containsEntry("count", 110L).containsEntry("windowCount", 0L);
+	}
+
+	@Test
+	public void controllerCallIsRecordedUnderTheFallbackCause() throws Exception {
+		ControllerLatencyInterceptor interceptor = new ControllerLatencyInterceptor(this.instrumentation);
+		HandlerMethod handler = new HandlerMethod(this, getClass().getMethod("toString"));
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		MockHttpServletResponse response = new MockHttpServletResponse();
+
+		interceptor.preHandle(request, response, handler);
+		response.setStatus(503);
+		response.setHeader(Instrumentation.OUTCOME_HEADER,
+				this.instrumentation.fallback("toString", new RejectedExecutionException()));
+		interceptor.afterCompletion(request, response, handler, null);
+
+		assertThat(latencies(Instrumentation.CONTROLLER, "InstrumentationTests.toString"))
+				.containsOnlyKeys(Instrumentation.REJECTED);
+	}
+
+	private void record(int calls, long millis) {
+		for (int i = 0; i < calls; i++) {
+			this.instrumentation.record(Instrumentation.FEIGN, "Client.get", Instrumentation.SUCCESS,
+					System.nanoTime() - millis * 1_000_000);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> timer() {
+		return (Map<String, Object>) latencies(Instrumentation.FEIGN, "Client.get").get(Instrumentation.SUCCESS);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> latencies(String kind, String name) {
+		Map<String, Object> latencies = (Map<String, Object>) this.instrumentation.report().get("latencies");
+		return (Map<String, Object>) ((Map<String, Object>) latencies.get(kind)).get(name);
+	}
+
+	private Map<String, Long> fallbacks() {
+		Map<String, Long> counts = new TreeMap<>();
+		this.instrumentation.metrics().stream().filter(metric -> metric.getName().startsWith("fallback."))
+				.forEach(metric -> counts.put(metric.getName().substring("fallback.".length()),
+						metric.getValue().longValue()));
+		return counts;
+	}
+
+	private static HystrixRuntimeException hystrix(FailureType type, Throwable cause) {
+		return new HystrixRuntimeException(type, HystrixCommand.class, "failed", cause, null);
+	}
+}
@@ -0,0 +1,78 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+public class UserChangePublisherTests {
+
+	private final DiscoveryClient discoveryClient = mock(DiscoveryClient.class);
+
+	private final UserVersions userVersions = mock(UserVersions.class);
+
+	private UserChangePublisher publisher;
+
+	private DatagramSocket subscriber;
+
+	@Before
+	public void setUp() throws Exception {
+		this.subscriber = new DatagramSocket(0);
+		this.subscriber.setSoTimeout(5000);
+		this.publisher = new UserChangePublisher();
+		ReflectionTestUtils.setField(this.publisher, "userVersions", this.userVersions);
+		ReflectionTestUtils.setField(this.publisher, "discoveryClient", this.discoveryClient);
+		ReflectionTestUtils.setField(this.publisher, "subscriberService", "passport-service");
+	}
+
+	@After
+	public void tearDown() {
+		this.publisher.close();
+		this.subscriber.close();
+	}
+
+	@Test
+	public void subscribersAreDiscoveredByTheirMetadata() throws Exception {
+		ReflectionTestUtils.setField(this.publisher, "subscribers", "static-host:9100");
+		given(this.discoveryClient.getInstances("passport-service")).willReturn(Arrays.asList(
+				passport("passport-1", 41001), passport("passport-2", 41002),
+				new DefaultServiceInstance("passport-service", "passport-3", 8080, false)));
+		this.publisher.open();
+
+		assertThat(this.publisher.targets()).extracting(target -> target.getHostString() + ":" + target.getPort())
+				.containsExactly("static-host:9100", "passport-1:41001", "passport-2:41002");
+	}
+
+	@Test
+	public void changesReachTheDiscoveredSubscriber() throws Exception {
+		ReflectionTestUtils.setField(this.publisher, "subscribers", "");
+		given(this.discoveryClient.getInstances("passport-service")).willReturn(
+				Collections.singletonList(passport("127.0.0.1", this.subscriber.getLocalPort())));
+		given(this.userVersions.version("Myntra")).willReturn("3-a-0");
+		this.publisher.open();
+
+		UserChangePublisher.changed("bookmarks", "Myntra");
+
+		DatagramPacket packet = new DatagramPacket(new byte[512], 512);
+		this.subscriber.receive(packet);
+		assertThat(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8))
+				.isEqualTo("bookmarks Myntra 3-a-0");
+	}
+
+	private static DefaultServiceInstance passport(String host, int changesPort) {
+		return new DefaultServiceInstance("passport-service", host, 8080, false,
+				Collections.singletonMap(UserChangePublisher.PORT_METADATA, Integer.toString(changesPort)));
+	}
+}
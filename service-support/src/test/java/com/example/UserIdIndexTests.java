@@ -0,0 +1,47 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserIdIndexTests {
+
+	private SingleConnectionDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	@Before
+	public void setUp() {
+		this.dataSource = new SingleConnectionDataSource("jdbc:h2:mem:user-id-index", "sa", "", true);
+		this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+		this.jdbcTemplate.execute("CREATE TABLE bookmark (id BIGINT PRIMARY KEY, user_id VARCHAR(255), "
+				+ "href VARCHAR(255), description VARCHAR(255), version BIGINT DEFAULT 0 NOT NULL)");
+		// the index a database file from before version was indexed has
+		this.jdbcTemplate.execute("CREATE INDEX idx_bookmark_user_id_id ON bookmark (user_id, id)");
+	}
+
+	@After
+	public void tearDown() {
+		this.jdbcTemplate.execute("DROP TABLE bookmark");
+		this.dataSource.destroy();
+	}
+
+	@Test
+	public void versionLookupsRunOnTheCoveringIndex() {
+		UserIdIndex index = new UserIdIndex("bookmark");
+		ReflectionTestUtils.setField(index, "jdbcTemplate", this.jdbcTemplate);
+		index.ensure();
+
+		assertThat(this.jdbcTemplate.queryForList("SELECT INDEX_NAME FROM INFORMATION_SCHEMA.INDEXES "
+				+ "WHERE TABLE_NAME = 'BOOKMARK' AND NOT PRIMARY_KEY", String.class))
+				.containsOnly("IDX_BOOKMARK_USER_ID_ID_VERSION");
+		assertThat(this.jdbcTemplate.queryForObject("EXPLAIN SELECT COUNT(*), COALESCE(MAX(id), 0), "
+				+ "COALESCE(SUM(version), 0) FROM bookmark WHERE user_id = 'Myntra'", String.class))
+				.containsIgnoringCase("idx_bookmark_user_id_id_version");
+	}
+}
@@ -0,0 +1,77 @@
+package com.example;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UserVersionsTests {
+
+	private SingleConnectionDataSource dataSource;
+
+	private JdbcTemplate jdbcTemplate;
+
+	private UserVersions instance1;
+
+	private UserVersions instance2;
+
+	@Before
+	public void setUp() {
+		this.dataSource = new SingleConnectionDataSource("jdbc:h2:mem:user-versions", "sa", "", true);
+		this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+		this.jdbcTemplate.execute("CREATE TABLE bookmark (id BIGINT PRIMARY KEY, user_id VARCHAR(255), "
+				+ "href VARCHAR(255), description VARCHAR(255), version BIGINT DEFAULT 0 NOT NULL)");
+		this.jdbcTemplate.execute("INSERT INTO bookmark (id, user_id, href) VALUES (1, 'Myntra', 'a'), (2, 'Myntra', 'b'), (3, 'Amazon', 'c')");
+		this.instance1 = userVersions();
+		this.instance2 = userVersions();
+	}
+
+	@After
+	public void tearDown() {
+		this.jdbcTemplate.execute("DROP TABLE bookmark");
+		this.dataSource.destroy();
+	}
+
+	@Test
+	public void instancesAgreeOnTheVersion() {
+		assertThat(this.instance1.version("Myntra")).isEqualTo(this.instance2.version("Myntra"));
+		assertThat(this.instance1.version("Myntra")).isNotEqualTo(this.instance1.version("Amazon"));
+		assertThat(this.instance1.version("Google")).isEqualTo(UserVersions.NONE);
+	}
+
+	@Test
+	public void writesBehindTheInstancesBackChangeTheVersion() {
+		String initial = this.instance1.version("Myntra");
+		this.jdbcTemplate.update("INSERT INTO bookmark (id, user_id, href) VALUES (4, 'Myntra', 'd')");
+		String inserted = this.instance1.version("Myntra");
+		assertThat(inserted).isNotEqualTo(initial);
+
+		// what an update through JPA does to the @Version column
+		this.jdbcTemplate.update("UPDATE bookmark SET href = 'e', version = version + 1 WHERE id = 2");
+		String updated = this.instance1.version("Myntra");
+		assertThat(updated).isNotEqualTo(inserted);
+
+		this.jdbcTemplate.update("DELETE FROM bookmark WHERE id = 1");
+		assertThat(this.instance1.version("Myntra")).isNotEqualTo(updated).isNotEqualTo(inserted);
+		assertThat(this.instance2.version("Myntra")).isEqualTo(this.instance1.version("Myntra"));
+		assertThat(this.instance1.version("Amazon")).isEqualTo(this.instance2.version("Amazon"));
+	}
+
+	@Test
+	public void allVersionsMatchThePerUserLookups() {
+		assertThat(this.instance1.versions())
+				.containsEntry("Myntra", this.instance1.version("Myntra"))
+				.containsEntry("Amazon", this.instance1.version("Amazon"))
+				.hasSize(2);
+	}
+
+	private UserVersions userVersions() {
+		UserVersions userVersions = new UserVersions("bookmark");
+		ReflectionTestUtils.setField(userVersions, "jdbcTemplate", this.jdbcTemplate);
+		return userVersions;
+	}
+}